@@ -0,0 +1,286 @@
+package aps2.bstmap;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Simple benchmarks for the BST map. Run the main method with a warmed-up JVM,
+ * eg. java -Xmx4g aps2.bstmap.BSTMapBenchmark [n] [benchmark] [threads]
+ */
+public class BSTMapBenchmark {
+	private static final com.sun.management.ThreadMXBean threads =
+			(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+	private static long allocatedBytes() {
+		return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	private static int[] randomKeys(int n, long seed) {
+		Random random = new Random(seed);
+		int[] keys = new int[n];
+		for (int i = 0; i < n; i++)
+			keys[i] = random.nextInt();
+		return keys;
+	}
+
+	private static void report(String name, int ops, long nanos, long bytes) {
+		System.out.printf("%-40s %8.1f ns/op %8.2f B/op %10.1f MB/s allocated%n",
+				name, (double) nanos / ops, (double) bytes / ops,
+				bytes / 1e6 / (nanos / 1e9));
+	}
+
+	/**
+	 * Compares lookups which wrap the key into a temporary node with the
+	 * primitive lookup path of BSTMap.
+	 */
+	static void lookups(int n, int rounds) {
+		int[] keys = randomKeys(n, 42);
+		BSTMap map = new BSTMap(BSTMap.BalancingMethod.AVL);
+		BSTMapNode root = new BSTMapNode(null, null, null, keys[0], "");
+		for (int key : keys) {
+			map.add(key, "");
+			root.add(new BSTMapNode(null, null, null, key, ""));
+		}
+
+		for (int round = 0; round < rounds; round++) {
+			int found = 0;
+			long bytes = allocatedBytes(), start = System.nanoTime();
+			for (int key : keys)
+				if (root.get(new BSTMapNode(null, null, null, key, null)) != null) found++;
+			report("BSTMapNode.get(BSTMapNode)", n, System.nanoTime() - start, allocatedBytes() - bytes);
+
+			bytes = allocatedBytes();
+			start = System.nanoTime();
+			for (int key : keys)
+				if (map.get(key) != null) found++;
+			report("BSTMap.get(int)", n, System.nanoTime() - start, allocatedBytes() - bytes);
+
+			bytes = allocatedBytes();
+			start = System.nanoTime();
+			long sum = 0;
+			for (int key : map.traverseInOrder())
+				sum += key;
+			report("BSTMap.traverseInOrder()", n, System.nanoTime() - start, allocatedBytes() - bytes);
+
+			bytes = allocatedBytes();
+			start = System.nanoTime();
+			for (BSTMapIterator it = map.iterator(); it.hasNext(); )
+				sum += it.nextInt();
+			report("BSTMap.iterator()", n, System.nanoTime() - start, allocatedBytes() - bytes);
+
+			if (found != 2 * n || sum == 0)
+				throw new IllegalStateException();
+		}
+	}
+
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++)
+			System.gc();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	/**
+	 * Compares the pointer-based and the array-based tree: retained heap
+	 * without the values and random lookup latency.
+	 */
+	static void storage(int n, int rounds) {
+		int[] keys = randomKeys(n, 7);
+
+		long heap = usedHeap();
+		BSTMap map = new BSTMap(BSTMap.BalancingMethod.AVL);
+		for (int key : keys)
+			map.add(key, null);
+		System.out.printf("%-40s %8.1f B/entry%n", "BSTMap heap", (double) (usedHeap() - heap) / n);
+
+		heap = usedHeap();
+		BSTMapArray array = new BSTMapArray(n, BSTMap.BalancingMethod.AVL);
+		for (int key : keys)
+			array.add(key, null);
+		System.out.printf("%-40s %8.1f B/entry%n", "BSTMapArray heap", (double) (usedHeap() - heap) / n);
+
+		int[] queries = randomKeys(n, 8);
+		System.arraycopy(keys, 0, queries, 0, n / 2);
+		for (int round = 0; round < 2 * rounds; round++) {
+			if (round == rounds)
+				array.compact();
+			int found = 0;
+			long start = System.nanoTime();
+			for (int key : queries)
+				if (map.contains(key)) found++;
+			long mapNanos = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			for (int key : queries)
+				if (array.contains(key)) found--;
+			long arrayNanos = System.nanoTime() - start;
+
+			System.out.printf("%-40s %8.1f ns/op%n", "BSTMap.contains(int)", (double) mapNanos / n);
+			System.out.printf("%-40s %8.1f ns/op%n", round < rounds ? "BSTMapArray.contains(int)"
+					: "BSTMapArray.contains(int), compacted", (double) arrayNanos / n);
+			if (found != 0)
+				throw new IllegalStateException();
+		}
+	}
+
+	/**
+	 * Compares random lookups and in-order scans in the AVL tree and in
+	 * B+-trees of different fanouts.
+	 */
+	static void btree(int n, int rounds) {
+		int[] keys = randomKeys(n, 13);
+		BSTMap avl = new BSTMap(BSTMap.BalancingMethod.AVL);
+		for (int key : keys)
+			avl.add(key, "");
+		int[] fanouts = {16, 64, 256};
+		BPlusTreeMap[] trees = new BPlusTreeMap[fanouts.length];
+		for (int i = 0; i < fanouts.length; i++) {
+			trees[i] = new BPlusTreeMap(fanouts[i]);
+			for (int key : keys)
+				trees[i].add(key, "");
+		}
+
+		for (int round = 0; round < rounds; round++) {
+			int found = 0;
+			long start = System.nanoTime();
+			for (int key : keys)
+				if (avl.contains(key)) found++;
+			System.out.printf("%-40s %8.1f ns/op%n", "BSTMap AVL contains", (double) (System.nanoTime() - start) / n);
+			for (int i = 0; i < fanouts.length; i++) {
+				start = System.nanoTime();
+				for (int key : keys)
+					if (trees[i].contains(key)) found++;
+				System.out.printf("%-40s %8.1f ns/op%n", "BPlusTreeMap(" + fanouts[i] + ") contains", (double) (System.nanoTime() - start) / n);
+			}
+
+			long sum = 0;
+			start = System.nanoTime();
+			for (BSTMapIterator it = avl.iterator(); it.hasNext(); )
+				sum += it.nextInt();
+			System.out.printf("%-40s %8.1f ns/key%n", "BSTMap AVL scan", (double) (System.nanoTime() - start) / n);
+			start = System.nanoTime();
+			for (BPlusTreeMap.LeafIterator it = trees[1].iterator(); it.hasNext(); )
+				sum -= it.nextInt();
+			System.out.printf("%-40s %8.1f ns/key%n", "BPlusTreeMap(64) scan", (double) (System.nanoTime() - start) / n);
+			if (found != (fanouts.length + 1) * n || sum != 0)
+				throw new IllegalStateException();
+		}
+	}
+
+	/**
+	 * Operations of the thread-safe maps used by the concurrent benchmark.
+	 */
+	private interface SharedMap {
+		boolean add(int key, String value);
+
+		boolean remove(int key);
+
+		boolean contains(int key);
+	}
+
+	private static SharedMap shared(final ConcurrentBSTMap map) {
+		return new SharedMap() {
+			@Override
+			public boolean add(int key, String value) {
+				return map.add(key, value);
+			}
+
+			@Override
+			public boolean remove(int key) {
+				return map.remove(key);
+			}
+
+			@Override
+			public boolean contains(int key) {
+				return map.contains(key);
+			}
+		};
+	}
+
+	private static SharedMap shared(final CopyOnWriteBSTMap map) {
+		return new SharedMap() {
+			@Override
+			public boolean add(int key, String value) {
+				return map.add(key, value);
+			}
+
+			@Override
+			public boolean remove(int key) {
+				return map.remove(key);
+			}
+
+			@Override
+			public boolean contains(int key) {
+				return map.contains(key);
+			}
+		};
+	}
+
+	/**
+	 * Measures the throughput of the thread-safe map with 1, 2, 4, ... and
+	 * finally maxThreads threads, each doing the given percentage of writes
+	 * (half adds, half removes) and lookups otherwise, on a map which keeps
+	 * about n elements.
+	 */
+	static void concurrent(String name, final SharedMap map, final int n, final int writePercent, int maxThreads)
+			throws InterruptedException {
+		for (int key : randomKeys(n, 11))
+			map.add(key % (2 * n), "");
+
+		for (int threads = 1; ; threads = Math.min(threads * 2, maxThreads)) {
+			final AtomicBoolean running = new AtomicBoolean(true);
+			final LongAdder ops = new LongAdder();
+			Thread[] workers = new Thread[threads];
+			for (int t = 0; t < threads; t++) {
+				final long seed = t;
+				workers[t] = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						Random random = new Random(seed);
+						long done = 0;
+						while (running.get()) {
+							for (int i = 0; i < 1000; i++) {
+								int key = random.nextInt(2 * n);
+								int op = random.nextInt(100);
+								if (op >= writePercent) map.contains(key);
+								else if ((op & 1) == 0) map.add(key, "");
+								else map.remove(key);
+							}
+							done += 1000;
+						}
+						ops.add(done);
+					}
+				});
+			}
+			long start = System.nanoTime();
+			for (Thread worker : workers)
+				worker.start();
+			Thread.sleep(2000);
+			running.set(false);
+			for (Thread worker : workers)
+				worker.join();
+			double seconds = (System.nanoTime() - start) / 1e9;
+			System.out.printf("%-40s %2d threads %6.2f Mops/s%n",
+					name + " " + writePercent + "% writes", threads, ops.sum() / seconds / 1e6);
+			if (threads == maxThreads)
+				break;
+		}
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		int n = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		String only = args.length > 1 ? args[1] : null;
+		if (only == null || only.equals("lookups")) lookups(n, 5);
+		if (only == null || only.equals("storage")) storage(n, 3);
+		if (only == null || only.equals("btree")) btree(n, 3);
+		if (only == null || only.equals("concurrent")) {
+			int cores = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+			for (int writePercent : new int[] {0, 10, 50}) {
+				concurrent("ConcurrentBSTMap", shared(new ConcurrentBSTMap()), n, writePercent, cores);
+				concurrent("CopyOnWriteBSTMap", shared(new CopyOnWriteBSTMap()), n, writePercent, cores);
+			}
+		}
+	}
+}
@@ -0,0 +1,482 @@
+package aps2.bstmap;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.function.IntConsumer;
+
+/**
+ * B+-tree for mapping integer -> string with the same interface as BSTMap.
+ *
+ * Each node holds up to fanout-1 keys in a primitive int[], so a lookup
+ * touches about log_fanout(n) nodes instead of log_2(n). The values are kept
+ * in the leaves only, internal nodes hold separator keys: child i contains
+ * the keys k with keys[i-1] <= k < keys[i]. The leaves are linked in
+ * ascending order for fast in-order scans.
+ */
+public class BPlusTreeMap {
+	private static final int DEFAULT_FANOUT = 64;
+
+	private static class Node {
+		final int[] keys;        // one extra slot for the key which causes a split
+		int n;                   // number of keys
+		final Node[] children;   // null in leaves
+		final String[] values;   // null in internal nodes
+		Node next;               // next leaf in ascending order
+
+		Node(int fanout, boolean leaf) {
+			keys = new int[fanout];
+			children = leaf ? null : new Node[fanout + 1];
+			values = leaf ? new String[fanout] : null;
+		}
+
+		boolean isLeaf() {
+			return children == null;
+		}
+	}
+
+	private final int fanout;
+	private final int minLeafKeys, minInternalKeys;
+	private Node root;
+	private Node head; // leftmost leaf
+	private int size;
+	private int counter;
+
+	public BPlusTreeMap() {
+		this(DEFAULT_FANOUT);
+	}
+
+	/**
+	 * @param fanout Maximum number of children of a node, at least 3
+	 */
+	public BPlusTreeMap(int fanout) {
+		if (fanout < 3)
+			throw new IllegalArgumentException("Fanout must be at least 3, got " + fanout);
+		this.fanout = fanout;
+		this.minLeafKeys = fanout / 2;
+		this.minInternalKeys = (fanout + 1) / 2 - 1;
+		this.root = new Node(fanout, true);
+		this.head = root;
+	}
+
+	/**
+	 * Binary search over the keys of a node.
+	 *
+	 * @return Index of the key, if found; (-(insertion point) - 1) otherwise.
+	 */
+	private int search(Node node, int key) {
+		int lo = 0, hi = node.n - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			counter++;
+			int c = Integer.compare(key, node.keys[mid]);
+			if (c == 0) return mid;
+			if (c < 0) hi = mid - 1;
+			else lo = mid + 1;
+		}
+		return -(lo + 1);
+	}
+
+	/**
+	 * @return Index of the child of an internal node whose range contains the key.
+	 */
+	private int childIndex(Node node, int key) {
+		int i = search(node, key);
+		return i >= 0 ? i + 1 : -(i + 1);
+	}
+
+	private Node findLeaf(int key) {
+		Node node = root;
+		while (!node.isLeaf())
+			node = node.children[childIndex(node, key)];
+		return node;
+	}
+
+	/**
+	 * If the element doesn't exist yet, inserts it into the set.
+	 *
+	 * @param key Element key
+	 * @param value Element value
+	 * @return true, if element was added; false otherwise.
+	 */
+	public boolean add(int key, String value) {
+		if (!insert(root, key, value))
+			return false;
+		size++;
+		if (root.n == fanout) {
+			Node newRoot = new Node(fanout, false);
+			newRoot.children[0] = root;
+			split(newRoot, 0);
+			root = newRoot;
+		}
+		return true;
+	}
+
+	/**
+	 * Inserts the key into the subtree. The node may overflow to fanout keys,
+	 * which the caller fixes by splitting it.
+	 */
+	private boolean insert(Node node, int key, String value) {
+		if (node.isLeaf()) {
+			int i = search(node, key);
+			if (i >= 0)
+				return false;
+			i = -(i + 1);
+			System.arraycopy(node.keys, i, node.keys, i + 1, node.n - i);
+			System.arraycopy(node.values, i, node.values, i + 1, node.n - i);
+			node.keys[i] = key;
+			node.values[i] = value;
+			node.n++;
+			return true;
+		}
+		int i = childIndex(node, key);
+		if (!insert(node.children[i], key, value))
+			return false;
+		if (node.children[i].n == fanout)
+			split(node, i);
+		return true;
+	}
+
+	/**
+	 * Splits the overflowing i-th child of the parent into two nodes.
+	 */
+	private void split(Node parent, int i) {
+		Node left = parent.children[i];
+		Node right = new Node(fanout, left.isLeaf());
+		int separator;
+		if (left.isLeaf()) {
+			int half = left.n / 2;
+			right.n = left.n - half;
+			System.arraycopy(left.keys, half, right.keys, 0, right.n);
+			System.arraycopy(left.values, half, right.values, 0, right.n);
+			Arrays.fill(left.values, half, left.n, null);
+			left.n = half;
+			right.next = left.next;
+			left.next = right;
+			separator = right.keys[0];
+		} else {
+			int mid = left.n / 2;
+			separator = left.keys[mid];
+			right.n = left.n - mid - 1;
+			System.arraycopy(left.keys, mid + 1, right.keys, 0, right.n);
+			System.arraycopy(left.children, mid + 1, right.children, 0, right.n + 1);
+			Arrays.fill(left.children, mid + 1, left.n + 1, null);
+			left.n = mid;
+		}
+		System.arraycopy(parent.keys, i, parent.keys, i + 1, parent.n - i);
+		System.arraycopy(parent.children, i + 1, parent.children, i + 2, parent.n - i);
+		parent.keys[i] = separator;
+		parent.children[i + 1] = right;
+		parent.n++;
+	}
+
+	/**
+	 * Removes the element from the set.
+	 *
+	 * @param key Element key
+	 * @return true, if the element was removed; otherwise false
+	 */
+	public boolean remove(int key) {
+		if (!delete(root, key))
+			return false;
+		size--;
+		if (!root.isLeaf() && root.n == 0)
+			root = root.children[0];
+		return true;
+	}
+
+	/**
+	 * Removes the key from the subtree. The node may underflow, which the
+	 * caller fixes by borrowing from or merging with a sibling.
+	 */
+	private boolean delete(Node node, int key) {
+		if (node.isLeaf()) {
+			int i = search(node, key);
+			if (i < 0)
+				return false;
+			System.arraycopy(node.keys, i + 1, node.keys, i, node.n - i - 1);
+			System.arraycopy(node.values, i + 1, node.values, i, node.n - i - 1);
+			node.values[--node.n] = null;
+			return true;
+		}
+		int i = childIndex(node, key);
+		if (!delete(node.children[i], key))
+			return false;
+		Node child = node.children[i];
+		if (child.n < (child.isLeaf() ? minLeafKeys : minInternalKeys))
+			fix(node, i);
+		return true;
+	}
+
+	/**
+	 * Restores the minimum occupancy of the i-th child of the parent.
+	 */
+	private void fix(Node parent, int i) {
+		Node child = parent.children[i];
+		int min = child.isLeaf() ? minLeafKeys : minInternalKeys;
+		if (i > 0 && parent.children[i - 1].n > min) {
+			Node left = parent.children[i - 1];
+			System.arraycopy(child.keys, 0, child.keys, 1, child.n);
+			if (child.isLeaf()) {
+				System.arraycopy(child.values, 0, child.values, 1, child.n);
+				child.keys[0] = left.keys[left.n - 1];
+				child.values[0] = left.values[left.n - 1];
+				left.values[left.n - 1] = null;
+				parent.keys[i - 1] = child.keys[0];
+			} else {
+				System.arraycopy(child.children, 0, child.children, 1, child.n + 1);
+				child.keys[0] = parent.keys[i - 1];
+				child.children[0] = left.children[left.n];
+				left.children[left.n] = null;
+				parent.keys[i - 1] = left.keys[left.n - 1];
+			}
+			left.n--;
+			child.n++;
+		} else if (i < parent.n && parent.children[i + 1].n > min) {
+			Node right = parent.children[i + 1];
+			if (child.isLeaf()) {
+				child.keys[child.n] = right.keys[0];
+				child.values[child.n] = right.values[0];
+				System.arraycopy(right.values, 1, right.values, 0, right.n - 1);
+				right.values[right.n - 1] = null;
+				System.arraycopy(right.keys, 1, right.keys, 0, right.n - 1);
+				parent.keys[i] = right.keys[0];
+			} else {
+				child.keys[child.n] = parent.keys[i];
+				child.children[child.n + 1] = right.children[0];
+				parent.keys[i] = right.keys[0];
+				System.arraycopy(right.keys, 1, right.keys, 0, right.n - 1);
+				System.arraycopy(right.children, 1, right.children, 0, right.n);
+				right.children[right.n] = null;
+			}
+			right.n--;
+			child.n++;
+		} else {
+			merge(parent, i > 0 ? i - 1 : i);
+		}
+	}
+
+	/**
+	 * Merges the j-th and (j+1)-th child of the parent into the j-th one.
+	 */
+	private void merge(Node parent, int j) {
+		Node left = parent.children[j];
+		Node right = parent.children[j + 1];
+		if (left.isLeaf()) {
+			System.arraycopy(right.keys, 0, left.keys, left.n, right.n);
+			System.arraycopy(right.values, 0, left.values, left.n, right.n);
+			left.n += right.n;
+			left.next = right.next;
+		} else {
+			left.keys[left.n] = parent.keys[j];
+			System.arraycopy(right.keys, 0, left.keys, left.n + 1, right.n);
+			System.arraycopy(right.children, 0, left.children, left.n + 1, right.n + 1);
+			left.n += right.n + 1;
+		}
+		System.arraycopy(parent.keys, j + 1, parent.keys, j, parent.n - j - 1);
+		System.arraycopy(parent.children, j + 2, parent.children, j + 1, parent.n - j - 1);
+		parent.children[parent.n] = null;
+		parent.n--;
+	}
+
+	/**
+	 * Finds the element.
+	 *
+	 * @param key Element key
+	 * @return true, if the element was found; false otherwise.
+	 */
+	public boolean contains(int key) {
+		return search(findLeaf(key), key) >= 0;
+	}
+
+	/**
+	 * Maps the given key to its value.
+	 *
+	 * @param key Element key
+	 * @return String value of the given key; null, if an element with the given key does not exist.
+	 */
+	public String get(int key) {
+		Node leaf = findLeaf(key);
+		int i = search(leaf, key);
+		return i >= 0 ? leaf.values[i] : null;
+	}
+
+	/**
+	 * @return Number of elements in the map.
+	 */
+	public int size() {
+		return size;
+	}
+
+	public int getCounter() {
+		return counter;
+	}
+
+	public void resetCounter() {
+		counter = 0;
+	}
+
+	/*
+	 * The pre-, post- and level-order traversals list the keys of each node,
+	 * so for internal nodes they contain the separator keys. The in-order
+	 * traversal lists the elements only.
+	 */
+
+	/**
+	 * Preorder traversal of the tree.
+	 *
+	 * @return List of node keys in preorder traversal
+	 */
+	public List<Integer> traversePreOrder() {
+		List<Integer> keys = new ArrayList<Integer>();
+		traversePreOrder(keys::add);
+		return keys;
+	}
+
+	public void traversePreOrder(IntConsumer action) {
+		traversePreOrder(root, action);
+	}
+
+	private void traversePreOrder(Node node, IntConsumer action) {
+		for (int i = 0; i < node.n; i++)
+			action.accept(node.keys[i]);
+		if (!node.isLeaf())
+			for (int i = 0; i <= node.n; i++)
+				traversePreOrder(node.children[i], action);
+	}
+
+	/**
+	 * Inorder traversal of the tree. Follows the linked leaves.
+	 *
+	 * @return List of keys in ascending order
+	 */
+	public List<Integer> traverseInOrder() {
+		List<Integer> keys = new ArrayList<Integer>(size);
+		traverseInOrder(keys::add);
+		return keys;
+	}
+
+	public void traverseInOrder(IntConsumer action) {
+		for (Node leaf = head; leaf != null; leaf = leaf.next)
+			for (int i = 0; i < leaf.n; i++)
+				action.accept(leaf.keys[i]);
+	}
+
+	/**
+	 * Postorder traversal of the tree.
+	 *
+	 * @return List of node keys in postorder traversal
+	 */
+	public List<Integer> traversePostOrder() {
+		List<Integer> keys = new ArrayList<Integer>();
+		traversePostOrder(keys::add);
+		return keys;
+	}
+
+	public void traversePostOrder(IntConsumer action) {
+		traversePostOrder(root, action);
+	}
+
+	private void traversePostOrder(Node node, IntConsumer action) {
+		if (!node.isLeaf())
+			for (int i = 0; i <= node.n; i++)
+				traversePostOrder(node.children[i], action);
+		for (int i = 0; i < node.n; i++)
+			action.accept(node.keys[i]);
+	}
+
+	/**
+	 * Breadth-first (or level order) traversal of the tree.
+	 *
+	 * @return List of node keys in level order traversal
+	 */
+	public List<Integer> traverseLevelOrder() {
+		List<Integer> keys = new ArrayList<Integer>();
+		traverseLevelOrder(keys::add);
+		return keys;
+	}
+
+	public void traverseLevelOrder(IntConsumer action) {
+		ArrayDeque<Node> queue = new ArrayDeque<Node>();
+		queue.add(root);
+		while (!queue.isEmpty()) {
+			Node node = queue.poll();
+			for (int i = 0; i < node.n; i++)
+				action.accept(node.keys[i]);
+			if (!node.isLeaf())
+				for (int i = 0; i <= node.n; i++)
+					queue.add(node.children[i]);
+		}
+	}
+
+	/**
+	 * Streams the keys in ascending order along the linked leaves.
+	 *
+	 * @return Iterator over the keys
+	 */
+	public LeafIterator iterator() {
+		return new LeafIterator(head, 0);
+	}
+
+	/**
+	 * Streams the keys from lo (inclusive) in ascending order. Finding the
+	 * first key costs one descent, the following ones are read from the leaves.
+	 *
+	 * @param lo Lower bound
+	 * @return Iterator over the keys not smaller than lo
+	 */
+	public LeafIterator iteratorFrom(int lo) {
+		Node leaf = findLeaf(lo);
+		int i = search(leaf, lo);
+		return new LeafIterator(leaf, i >= 0 ? i : -(i + 1));
+	}
+
+	/**
+	 * In-order iterator over the linked leaves. The map must not be modified
+	 * while iterating.
+	 */
+	public static class LeafIterator implements PrimitiveIterator.OfInt {
+		private Node leaf;
+		private int i;
+		private String value;
+
+		private LeafIterator(Node leaf, int i) {
+			this.leaf = leaf;
+			this.i = i;
+			skipExhausted();
+		}
+
+		private void skipExhausted() {
+			while (leaf != null && i >= leaf.n) {
+				leaf = leaf.next;
+				i = 0;
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return leaf != null;
+		}
+
+		@Override
+		public int nextInt() {
+			if (leaf == null)
+				throw new NoSuchElementException();
+			int key = leaf.keys[i];
+			value = leaf.values[i];
+			i++;
+			skipExhausted();
+			return key;
+		}
+
+		/**
+		 * @return Value of the element whose key was returned last
+		 */
+		public String value() {
+			return value;
+		}
+	}
+}
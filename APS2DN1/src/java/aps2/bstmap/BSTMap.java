@@ -1,19 +1,65 @@
 package aps2.bstmap;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.function.IntConsumer;
 
 /**
- * (Unbalanced) Binary Search Tree for mapping integer -> string.
+ * Binary Search Tree for mapping integer -> string. The tree is unbalanced by
+ * default; AVL balancing can be enabled to guarantee O(log n) operations.
  */
 public class BSTMap {
 	private BSTMapNode root;
-	
+	private BalancingMethod b;
+	private int size; // number of elements
+
+	private final BSTMapStats.Recorder stats = new BSTMapStats.Recorder();
+
+	public static enum BalancingMethod {
+		None, // plain BST, degenerates into a list on sorted input
+		AVL   // heights of the subtrees of every node differ by at most one
+	}
+
 	public BSTMap(BSTMapNode root) {
 		this.root = root;
+		this.b = BalancingMethod.None;
+		if (root != null) {
+			root.traversePreOrder((int key) -> this.size++);
+			stats.totalPathLength = root.measure();
+		}
 	}
 
 	public BSTMap() {
+		this(BalancingMethod.None);
+	}
+
+	public BSTMap(BalancingMethod b) {
 		this.root = null;
+		this.b = b;
+	}
+
+	/**
+	 * Builds a perfectly balanced tree from sorted input in O(n).
+	 * 
+	 * @param keys Keys in strictly ascending order
+	 * @param values Values of the keys
+	 * @param b Balancing method used by later modifications
+	 */
+	public BSTMap(int[] keys, String[] values, BalancingMethod b) {
+		checkSorted(keys, values);
+		this.root = BSTMapNode.build(keys, values, 0, keys.length, null);
+		this.size = keys.length;
+		this.b = b;
+		if (root != null)
+			stats.totalPathLength = root.measure();
+	}
+
+	private static void checkSorted(int[] keys, String[] values) {
+		if (keys.length != values.length)
+			throw new IllegalArgumentException("Got " + keys.length + " keys and " + values.length + " values");
+		for (int i = 1; i < keys.length; i++)
+			if (keys[i - 1] >= keys[i])
+				throw new IllegalArgumentException("Keys are not strictly ascending at index " + i);
 	}
 
 	/**
@@ -24,13 +70,65 @@ public class BSTMap {
 	 * @return true, if element was added; false otherwise.
 	 */
 	public boolean add(int key, String value) {
+		boolean added = insert(key, value);
+		stats.recordAdd();
+		return added;
+	}
+
+	private boolean insert(int key, String value) {
 		BSTMapNode node = new BSTMapNode(null, null, null, key, value);
 		if (root == null) {
 			this.root = node;
+			this.size++;
+			stats.totalPathLength = 1;
 			return true;
-		} else {
-			return root.add(node);
+		} else if (!root.add(node, stats)) {
+			return false;
 		}
+		this.size++;
+		if (b == BalancingMethod.AVL)
+			rebalance(node.getParent());
+		else
+			updateHeights(node.getParent());
+		return true;
+	}
+
+	/**
+	 * Inserts a sorted batch of elements by merging it with the existing keys
+	 * and rebuilding a perfectly balanced tree, in O(n + m) instead of the
+	 * O(m log(n + m)) of separate adds. Keys which already exist keep their
+	 * values, like with add.
+	 * 
+	 * @param keys Keys in strictly ascending order
+	 * @param values Values of the keys
+	 * @return Number of elements added.
+	 */
+	public int addAll(int[] keys, String[] values) {
+		checkSorted(keys, values);
+		int[] mergedKeys = new int[size + keys.length];
+		String[] mergedValues = new String[size + keys.length];
+		int n = 0, j = 0;
+		for (BSTMapIterator it = iterator(); it.hasNext(); ) {
+			int key = it.nextInt();
+			for (; j < keys.length && keys[j] < key; j++, n++) {
+				mergedKeys[n] = keys[j];
+				mergedValues[n] = values[j];
+			}
+			if (j < keys.length && keys[j] == key)
+				j++;
+			mergedKeys[n] = key;
+			mergedValues[n++] = it.value();
+		}
+		for (; j < keys.length; j++, n++) {
+			mergedKeys[n] = keys[j];
+			mergedValues[n] = values[j];
+		}
+
+		int added = n - size;
+		this.root = BSTMapNode.build(mergedKeys, mergedValues, 0, n, null);
+		this.size = n;
+		stats.totalPathLength = root != null ? root.measure() : 0;
+		return added;
 	}
 
 	/**
@@ -40,11 +138,28 @@ public class BSTMap {
 	 * @return true, if the element was removed; otherwise false
 	 */
 	public boolean remove(int key) {
+		boolean removed = delete(key);
+		stats.recordRemove();
+		return removed;
+	}
+
+	private boolean delete(int key) {
 		if (root == null) {
 			return false;
 		} else {
-			BSTMapNode node = new BSTMapNode(null, null, null, key, null);
-			return root.remove(node);
+			BSTMapNode changed = root.unlink(key, stats);
+			if (changed == null)
+				return false;
+			this.size--;
+			if (changed == root && root.getKey() == key) {
+				// the root was a leaf
+				root = null;
+			} else if (b == BalancingMethod.AVL) {
+				rebalance(changed);
+			} else {
+				updateHeights(changed);
+			}
+			return true;
 		}
 	}
 
@@ -55,12 +170,7 @@ public class BSTMap {
 	 * @return true, if the element was found; false otherwise.
 	 */
 	public boolean contains(int key) {
-		if (root == null) {
-			return false;
-		} else {
-			BSTMapNode node = new BSTMapNode(null, null, null, key, null);
-			return root.contains(node);
-		}
+		return lookup(key) != null;
 	}
 	
 	/**
@@ -70,22 +180,167 @@ public class BSTMap {
 	 * @return String value of the given key; null, if an element with the given key does not exist in the subtree.
 	 */
 	public String get(int key) {
-		if (root == null) {
+		BSTMapNode node = lookup(key);
+		return node != null ? node.getValue() : null;
+	}
+
+	private BSTMapNode lookup(int key) {
+		if (root == null)
 			return null;
-		} else {
-			BSTMapNode node = new BSTMapNode(null, null, null, key, null);
-			return root.get(node);
-		}
+		BSTMapNode node = root.find(key, stats);
+		stats.recordGet();
+		return node;
 	}
 	
+	/**
+	 * @param key Query key
+	 * @return The largest key smaller than or equal to the given key; null, if there is none.
+	 */
+	public Integer floor(int key) {
+		return root != null ? keyOf(root.floor(key, true)) : null;
+	}
+
+	/**
+	 * @param key Query key
+	 * @return The smallest key larger than or equal to the given key; null, if there is none.
+	 */
+	public Integer ceiling(int key) {
+		return root != null ? keyOf(root.ceiling(key, true)) : null;
+	}
+
+	/**
+	 * @param key Query key
+	 * @return The smallest key strictly larger than the given key; null, if there is none.
+	 */
+	public Integer higher(int key) {
+		return root != null ? keyOf(root.ceiling(key, false)) : null;
+	}
+
+	/**
+	 * @param key Query key
+	 * @return The largest key strictly smaller than the given key; null, if there is none.
+	 */
+	public Integer lower(int key) {
+		return root != null ? keyOf(root.floor(key, false)) : null;
+	}
+
+	private static Integer keyOf(BSTMapNode node) {
+		return node != null ? node.getKey() : null;
+	}
+
+	/**
+	 * Streams the keys from lo (inclusive) to hi (exclusive) in ascending order.
+	 * Finding the range costs O(log n) on a balanced tree, each key after that
+	 * amortized O(1).
+	 * 
+	 * @param lo Lower bound
+	 * @param hi Upper bound
+	 * @return Iterator over the keys in the range
+	 */
+	public BSTMapIterator subMap(int lo, int hi) {
+		return subMap(lo, true, hi, false);
+	}
+
+	/**
+	 * Streams the keys between lo and hi in ascending order.
+	 * 
+	 * @param lo Lower bound
+	 * @param loInclusive Whether lo itself belongs to the range
+	 * @param hi Upper bound
+	 * @param hiInclusive Whether hi itself belongs to the range
+	 * @return Iterator over the keys in the range
+	 */
+	public BSTMapIterator subMap(int lo, boolean loInclusive, int hi, boolean hiInclusive) {
+		if (root == null)
+			return new BSTMapIterator(null);
+		return new BSTMapIterator(root, root.ceiling(lo, loInclusive), root.floor(hi, hiInclusive));
+	}
+
+	/**
+	 * @param key Query key
+	 * @return Number of keys smaller than the given key.
+	 */
+	public int rank(int key) {
+		return root != null ? root.rank(key) : 0;
+	}
+
+	/**
+	 * @param i Index of the key in ascending order, starting with 0
+	 * @return The i-th smallest key
+	 * @throws IndexOutOfBoundsException if i is negative or not smaller than size()
+	 */
+	public int select(int i) {
+		BSTMapNode node = root != null ? root.select(i) : null;
+		if (node == null)
+			throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+		return node.getKey();
+	}
+
+	/**
+	 * Retraces the path from the given node to the root, updating the node
+	 * heights and rotating the subtrees which violate the AVL property.
+	 * 
+	 * @param node The lowest node whose subtree has changed
+	 */
+	private void rebalance(BSTMapNode node) {
+		while (node != null) {
+			node.updateHeight();
+			node = node.rebalance(stats);
+			if (node.getParent() == null)
+				root = node;
+			node = node.getParent();
+		}
+	}
+
+	/**
+	 * Retraces the path from the given node towards the root, updating the
+	 * node heights until they stop changing.
+	 * 
+	 * @param node The lowest node whose subtree has changed
+	 */
+	private static void updateHeights(BSTMapNode node) {
+		for (; node != null && node.updateHeight(); node = node.getParent())
+			;
+	}
+
+	/**
+	 * @return Number of elements in the map.
+	 */
+	public int size() {
+		return size;
+	}
+
 	public int getCounter() {
-		return root != null?root.getCounter():null;
+		return root != null?root.getCounter():0;
 	}
 	
 	public void resetCounter() {
 		if(root!= null)
 			root.resetCounter();
 	}
+
+	/**
+	 * Collects the shape of the tree together with the comparison histograms
+	 * of the operations since construction or the last resetStats. The
+	 * histograms are updated on every add, remove, get and contains at the
+	 * cost of one array increment, counting only the comparisons made by this
+	 * map. The height and the total path length are maintained by the
+	 * modifications, so taking a snapshot doesn't walk the tree.
+	 * 
+	 * @return Snapshot of the statistics
+	 */
+	public BSTMapStats getStats() {
+		if (root == null)
+			return stats.snapshot(0, 0, 0, 0);
+		BSTMapNode left = root.getLeft(), right = root.getRight();
+		return stats.snapshot(size, root.getHeight(),
+				left != null ? left.getHeight() : 0,
+				right != null ? right.getHeight() : 0);
+	}
+
+	public void resetStats() {
+		stats.reset();
+	}
 	
 	/**
 	 * Preorder traversal of the tree.
@@ -93,8 +348,20 @@ public class BSTMap {
 	 * @return List of node keys in preorder traversal
 	 */
 	public List<Integer> traversePreOrder(){
+		if (root == null)
+			return new ArrayList<Integer>();
 		return root.traversePreOrder();
 	}
+
+	/**
+	 * Preorder traversal of the tree.
+	 * 
+	 * @param action Receives the node keys in preorder traversal
+	 */
+	public void traversePreOrder(IntConsumer action) {
+		if (root != null)
+			root.traversePreOrder(action);
+	}
 	
 	/**
 	 * Inorder traversal of the tree.
@@ -102,8 +369,20 @@ public class BSTMap {
 	 * @return List of node keys in preorder traversal
 	 */
 	public List<Integer> traverseInOrder(){
+		if (root == null)
+			return new ArrayList<Integer>();
 		return root.traverseInOrder();
 	}
+
+	/**
+	 * Inorder traversal of the tree.
+	 * 
+	 * @param action Receives the node keys in inorder traversal
+	 */
+	public void traverseInOrder(IntConsumer action) {
+		if (root != null)
+			root.traverseInOrder(action);
+	}
 	
 	/**
 	 * Postorder traversal of the tree.
@@ -111,8 +390,20 @@ public class BSTMap {
 	 * @return List of node keys in preorder traversal
 	 */
 	public List<Integer> traversePostOrder(){
+		if (root == null)
+			return new ArrayList<Integer>();
 		return root.traversePostOrder();
 	}
+
+	/**
+	 * Postorder traversal of the tree.
+	 * 
+	 * @param action Receives the node keys in postorder traversal
+	 */
+	public void traversePostOrder(IntConsumer action) {
+		if (root != null)
+			root.traversePostOrder(action);
+	}
 	
 	/**
 	 * Breadth-first (or level order) traversal of the tree.
@@ -120,7 +411,45 @@ public class BSTMap {
 	 * @return List of node keys in preorder traversal
 	 */
 	public List<Integer> traverseLevelOrder(){
+		if (root == null)
+			return new ArrayList<Integer>();
 		return root.traverseLevelOrder();
 	}
-}
 
+	/**
+	 * Breadth-first (or level order) traversal of the tree.
+	 * 
+	 * @param action Receives the node keys in level order traversal
+	 */
+	public void traverseLevelOrder(IntConsumer action) {
+		if (root != null)
+			root.traverseLevelOrder(action);
+	}
+
+	/**
+	 * Inorder traversal of the tree into a primitive array.
+	 * 
+	 * @return Array of node keys in ascending order
+	 */
+	public int[] toArray() {
+		final int[] keys = new int[size];
+		traverseInOrder(new IntConsumer() {
+			int i = 0;
+
+			@Override
+			public void accept(int key) {
+				keys[i++] = key;
+			}
+		});
+		return keys;
+	}
+
+	/**
+	 * Streams the keys in ascending order without materializing them in a list.
+	 * 
+	 * @return Iterator over the node keys in inorder traversal
+	 */
+	public BSTMapIterator iterator() {
+		return new BSTMapIterator(root);
+	}
+}
@@ -0,0 +1,454 @@
+package aps2.bstmap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+/**
+ * Binary Search Tree for mapping integer -> string which stores the nodes in
+ * parallel arrays instead of separate objects. A node is an index into the
+ * arrays and NIL marks a missing child or parent. Slots of removed nodes are
+ * linked into a free list through the left array and reused by later adds.
+ */
+public class BSTMapArray {
+	private static final int NIL = -1;
+	private static final int DEFAULT_CAPACITY = 16;
+
+	private int[] key;
+	private int[] left, right, parent;
+	private int[] height;   // only allocated in AVL mode
+	private String[] value;
+
+	private int root = NIL;
+	private int free = NIL; // head of the list of removed slots
+	private int top;        // number of slots ever used
+	private int size;       // number of elements
+	private int counter;
+	private BSTMap.BalancingMethod b;
+
+	public BSTMapArray() {
+		this(DEFAULT_CAPACITY, BSTMap.BalancingMethod.None);
+	}
+
+	public BSTMapArray(BSTMap.BalancingMethod b) {
+		this(DEFAULT_CAPACITY, b);
+	}
+
+	/**
+	 * @param capacity Expected number of elements
+	 * @param b Balancing method
+	 */
+	public BSTMapArray(int capacity, BSTMap.BalancingMethod b) {
+		capacity = Math.max(capacity, 1);
+		this.b = b;
+		this.key = new int[capacity];
+		this.left = new int[capacity];
+		this.right = new int[capacity];
+		this.parent = new int[capacity];
+		this.value = new String[capacity];
+		if (b == BSTMap.BalancingMethod.AVL)
+			this.height = new int[capacity];
+	}
+
+	private int compare(int k, int node) {
+		counter++;
+		return Integer.compare(k, key[node]);
+	}
+
+	/**
+	 * Takes a free slot and initializes it as a leaf.
+	 *
+	 * @return Index of the new node
+	 */
+	private int allocate(int k, String v, int p) {
+		int node;
+		if (free != NIL) {
+			node = free;
+			free = left[node];
+		} else {
+			if (top == key.length)
+				grow();
+			node = top++;
+		}
+		key[node] = k;
+		value[node] = v;
+		left[node] = NIL;
+		right[node] = NIL;
+		parent[node] = p;
+		if (height != null)
+			height[node] = 1;
+		return node;
+	}
+
+	private void release(int node) {
+		value[node] = null;
+		left[node] = free;
+		free = node;
+	}
+
+	private void grow() {
+		int capacity = key.length + (key.length >> 1) + 1;
+		key = Arrays.copyOf(key, capacity);
+		left = Arrays.copyOf(left, capacity);
+		right = Arrays.copyOf(right, capacity);
+		parent = Arrays.copyOf(parent, capacity);
+		value = Arrays.copyOf(value, capacity);
+		if (height != null)
+			height = Arrays.copyOf(height, capacity);
+	}
+
+	/**
+	 * If the element doesn't exist yet, inserts it into the set.
+	 *
+	 * @param k Element key
+	 * @param v Element value
+	 * @return true, if element was added; false otherwise.
+	 */
+	public boolean add(int k, String v) {
+		if (root == NIL) {
+			root = allocate(k, v, NIL);
+			size++;
+			return true;
+		}
+		int node = root;
+		while (true) {
+			int c = compare(k, node);
+			if (c == 0)
+				return false;
+			int next = c < 0 ? left[node] : right[node];
+			if (next == NIL) {
+				int n = allocate(k, v, node);
+				if (c < 0) left[node] = n;
+				else right[node] = n;
+				size++;
+				if (b == BSTMap.BalancingMethod.AVL)
+					rebalance(node);
+				return true;
+			}
+			node = next;
+		}
+	}
+
+	/**
+	 * Removes the element from the set.
+	 *
+	 * @param k Element key
+	 * @return true, if the element was removed; otherwise false
+	 */
+	public boolean remove(int k) {
+		int node = find(k);
+		if (node == NIL)
+			return false;
+		if (left[node] != NIL && right[node] != NIL) {
+			int successor = min(right[node]);
+			key[node] = key[successor];
+			value[node] = value[successor];
+			node = successor;
+		}
+		int child = left[node] != NIL ? left[node] : right[node];
+		int p = parent[node];
+		replaceChild(p, node, child);
+		release(node);
+		size--;
+		if (b == BSTMap.BalancingMethod.AVL)
+			rebalance(p);
+		return true;
+	}
+
+	/**
+	 * Finds the element.
+	 *
+	 * @param k Element key
+	 * @return true, if the element was found; false otherwise.
+	 */
+	public boolean contains(int k) {
+		return find(k) != NIL;
+	}
+
+	/**
+	 * Maps the given key to its value.
+	 *
+	 * @param k Element key
+	 * @return String value of the given key; null, if an element with the given key does not exist.
+	 */
+	public String get(int k) {
+		int node = find(k);
+		return node != NIL ? value[node] : null;
+	}
+
+	/**
+	 * @return Number of elements in the map.
+	 */
+	public int size() {
+		return size;
+	}
+
+	public int getCounter() {
+		return counter;
+	}
+
+	public void resetCounter() {
+		counter = 0;
+	}
+
+	private int find(int k) {
+		int node = root;
+		while (node != NIL) {
+			int c = compare(k, node);
+			if (c == 0)
+				return node;
+			node = c < 0 ? left[node] : right[node];
+		}
+		return NIL;
+	}
+
+	private int min(int node) {
+		while (left[node] != NIL)
+			node = left[node];
+		return node;
+	}
+
+	/**
+	 * Replaces the given child of node p with a new node. If p is NIL, the
+	 * new node becomes the root.
+	 */
+	private void replaceChild(int p, int oldChild, int newChild) {
+		if (p == NIL) root = newChild;
+		else if (left[p] == oldChild) left[p] = newChild;
+		else right[p] = newChild;
+		if (newChild != NIL) parent[newChild] = p;
+	}
+
+	/**
+	 * Renumbers the nodes in level order and drops the free slots. The top
+	 * levels of the tree, which every lookup visits, then share a few cache
+	 * lines instead of being scattered in insertion order.
+	 */
+	public void compact() {
+		int[] order = new int[size];
+		int head = 0, tail = 0;
+		if (root != NIL)
+			order[tail++] = root;
+		while (head < tail) {
+			int node = order[head++];
+			if (left[node] != NIL) order[tail++] = left[node];
+			if (right[node] != NIL) order[tail++] = right[node];
+		}
+
+		int[] index = new int[top]; // old slot -> new slot
+		for (int i = 0; i < size; i++)
+			index[order[i]] = i;
+
+		int capacity = Math.max(size, 1);
+		int[] newKey = new int[capacity];
+		int[] newLeft = new int[capacity];
+		int[] newRight = new int[capacity];
+		int[] newParent = new int[capacity];
+		int[] newHeight = height != null ? new int[capacity] : null;
+		String[] newValue = new String[capacity];
+		for (int i = 0; i < size; i++) {
+			int node = order[i];
+			newKey[i] = key[node];
+			newValue[i] = value[node];
+			newLeft[i] = left[node] != NIL ? index[left[node]] : NIL;
+			newRight[i] = right[node] != NIL ? index[right[node]] : NIL;
+			newParent[i] = parent[node] != NIL ? index[parent[node]] : NIL;
+			if (newHeight != null)
+				newHeight[i] = height[node];
+		}
+		key = newKey;
+		left = newLeft;
+		right = newRight;
+		parent = newParent;
+		height = newHeight;
+		value = newValue;
+		root = size > 0 ? 0 : NIL;
+		free = NIL;
+		top = size;
+	}
+
+	/*
+	 * AVL balancing, see BSTMapNode for the pointer-based counterpart.
+	 */
+
+	private int height(int node) {
+		return node != NIL ? height[node] : 0;
+	}
+
+	private void updateHeight(int node) {
+		height[node] = Math.max(height(left[node]), height(right[node])) + 1;
+	}
+
+	private int balance(int node) {
+		return height(right[node]) - height(left[node]);
+	}
+
+	private void rebalance(int node) {
+		while (node != NIL) {
+			updateHeight(node);
+			int balance = balance(node);
+			if (balance > 1) {
+				if (balance(right[node]) < 0) rotateRight(right[node]);
+				node = rotateLeft(node);
+			} else if (balance < -1) {
+				if (balance(left[node]) > 0) rotateLeft(left[node]);
+				node = rotateRight(node);
+			}
+			node = parent[node];
+		}
+	}
+
+	private int rotateLeft(int node) {
+		int r = right[node];
+		right[node] = left[r];
+		if (left[r] != NIL) parent[left[r]] = node;
+		replaceChild(parent[node], node, r);
+		left[r] = node;
+		parent[node] = r;
+		updateHeight(node);
+		updateHeight(r);
+		return r;
+	}
+
+	private int rotateRight(int node) {
+		int l = left[node];
+		left[node] = right[l];
+		if (right[l] != NIL) parent[right[l]] = node;
+		replaceChild(parent[node], node, l);
+		right[l] = node;
+		parent[node] = l;
+		updateHeight(node);
+		updateHeight(l);
+		return l;
+	}
+
+	/*
+	 * Traversals follow the parent indices, so no stack is needed.
+	 */
+
+	private int inOrderNext(int node) {
+		if (right[node] != NIL)
+			return min(right[node]);
+		while (parent[node] != NIL && node == right[parent[node]])
+			node = parent[node];
+		return parent[node];
+	}
+
+	private int preOrderNext(int node) {
+		if (left[node] != NIL) return left[node];
+		if (right[node] != NIL) return right[node];
+		while (parent[node] != NIL) {
+			int p = parent[node];
+			if (node == left[p] && right[p] != NIL) return right[p];
+			node = p;
+		}
+		return NIL;
+	}
+
+	private int postOrderFirst(int node) {
+		while (true) {
+			if (left[node] != NIL) node = left[node];
+			else if (right[node] != NIL) node = right[node];
+			else return node;
+		}
+	}
+
+	private int postOrderNext(int node) {
+		int p = parent[node];
+		if (p != NIL && node == left[p] && right[p] != NIL)
+			return postOrderFirst(right[p]);
+		return p;
+	}
+
+	/**
+	 * Preorder traversal of the tree.
+	 *
+	 * @return List of node keys in preorder traversal
+	 */
+	public List<Integer> traversePreOrder() {
+		List<Integer> keys = new ArrayList<Integer>(size);
+		traversePreOrder(keys::add);
+		return keys;
+	}
+
+	public void traversePreOrder(IntConsumer action) {
+		for (int node = root; node != NIL; node = preOrderNext(node))
+			action.accept(key[node]);
+	}
+
+	/**
+	 * Inorder traversal of the tree.
+	 *
+	 * @return List of node keys in inorder traversal
+	 */
+	public List<Integer> traverseInOrder() {
+		List<Integer> keys = new ArrayList<Integer>(size);
+		traverseInOrder(keys::add);
+		return keys;
+	}
+
+	public void traverseInOrder(IntConsumer action) {
+		if (root == NIL)
+			return;
+		for (int node = min(root); node != NIL; node = inOrderNext(node))
+			action.accept(key[node]);
+	}
+
+	/**
+	 * Postorder traversal of the tree.
+	 *
+	 * @return List of node keys in postorder traversal
+	 */
+	public List<Integer> traversePostOrder() {
+		List<Integer> keys = new ArrayList<Integer>(size);
+		traversePostOrder(keys::add);
+		return keys;
+	}
+
+	public void traversePostOrder(IntConsumer action) {
+		if (root == NIL)
+			return;
+		for (int node = postOrderFirst(root); node != NIL; node = postOrderNext(node))
+			action.accept(key[node]);
+	}
+
+	/**
+	 * Breadth-first (or level order) traversal of the tree.
+	 *
+	 * @return List of node keys in level order traversal
+	 */
+	public List<Integer> traverseLevelOrder() {
+		List<Integer> keys = new ArrayList<Integer>(size);
+		traverseLevelOrder(keys::add);
+		return keys;
+	}
+
+	public void traverseLevelOrder(IntConsumer action) {
+		if (root == NIL)
+			return;
+		int[] queue = new int[size];
+		int head = 0, tail = 0;
+		queue[tail++] = root;
+		while (head < tail) {
+			int node = queue[head++];
+			action.accept(key[node]);
+			if (left[node] != NIL) queue[tail++] = left[node];
+			if (right[node] != NIL) queue[tail++] = right[node];
+		}
+	}
+
+	/**
+	 * Inorder traversal of the tree into a primitive array.
+	 *
+	 * @return Array of node keys in ascending order
+	 */
+	public int[] toArray() {
+		int[] keys = new int[size];
+		int i = 0;
+		if (root != NIL)
+			for (int node = min(root); node != NIL; node = inOrderNext(node))
+				keys[i++] = key[node];
+		return keys;
+	}
+}
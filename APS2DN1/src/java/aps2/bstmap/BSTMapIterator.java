@@ -0,0 +1,62 @@
+package aps2.bstmap;
+
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * Streaming in-order iterator over the keys of a BST or a range of them. It walks the tree using
+ * the parent pointers, so it needs constant space and allocates nothing per key.
+ * The tree must not be modified while iterating.
+ */
+public class BSTMapIterator implements PrimitiveIterator.OfInt {
+	private final BSTMapNode root;
+	private final BSTMapNode last; // last node of the range; null, if unbounded
+	private BSTMapNode next;       // node to be returned next
+	private BSTMapNode current;    // node returned last
+
+	BSTMapIterator(BSTMapNode root) {
+		this.root = root;
+		this.last = null;
+		this.next = root != null ? root.findMin() : null;
+	}
+
+	/**
+	 * Iterates over the nodes from first to last, inclusive.
+	 * 
+	 * @param root Root of the tree
+	 * @param first First node of the range; null, if the range is empty
+	 * @param last Last node of the range; null, if the range is empty
+	 */
+	BSTMapIterator(BSTMapNode root, BSTMapNode first, BSTMapNode last) {
+		this.root = root;
+		boolean empty = first == null || last == null || first.getKey() > last.getKey();
+		this.next = empty ? null : first;
+		this.last = last;
+	}
+
+	@Override
+	public boolean hasNext() {
+		return next != null;
+	}
+
+	/**
+	 * @return Next key in ascending order
+	 */
+	@Override
+	public int nextInt() {
+		if (next == null)
+			throw new NoSuchElementException();
+		current = next;
+		next = next != last ? next.inOrderNext(root) : null;
+		return current.getKey();
+	}
+
+	/**
+	 * @return Value of the element whose key was returned last
+	 */
+	public String value() {
+		if (current == null)
+			throw new IllegalStateException();
+		return current.getValue();
+	}
+}
@@ -1,7 +1,9 @@
 package aps2.bstmap;
 
-import java.util.LinkedList;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.function.IntConsumer;
 
 /**
  * Implementation of the (unbalanced) Binary Search Tree set node.
@@ -11,6 +13,8 @@ public class BSTMapNode {
 	private BSTMapNode left, right, parent;
 	private int key;
 	private String value;
+	private int height = 1; // maintained by BSTMap
+	private int size = 1;   // number of nodes in the subtree
 
 	public BSTMapNode(BSTMapNode l, BSTMapNode r, BSTMapNode p,
 			int key, String value) {
@@ -38,6 +42,14 @@ public class BSTMapNode {
 		this.right = right;
 	}
 
+	public BSTMapNode getParent() {
+		return parent;
+	}
+
+	public void setParent(BSTMapNode parent) {
+		this.parent = parent;
+	}
+
 	public int getKey() {
 		return key;
 	}
@@ -55,8 +67,30 @@ public class BSTMapNode {
 	}
 
 	public int compare(BSTMapNode node) {
+		return compare(node.key);
+	}
+
+	/**
+	 * Compares the given key to the key of this node.
+	 * 
+	 * @param key Query key
+	 * @return Negative, if the key is smaller; positive, if it is larger; 0, if equal.
+	 */
+	public int compare(int key) {
 		counter++;
-		return node.key-this.key;
+		return Integer.compare(key, this.key);
+	}
+
+	/**
+	 * Compares the given key to the key of this node, counting the comparison
+	 * also in the statistics of the map.
+	 * 
+	 * @param stats Statistics of the map which owns the tree; null, if there are none
+	 */
+	private int compare(int key, BSTMapStats.Recorder stats) {
+		if (stats != null)
+			stats.comparisons++;
+		return compare(key);
 	}
 
 	public int getCounter() {
@@ -74,7 +108,34 @@ public class BSTMapNode {
 	 * @return true, if the element was added; false otherwise.
 	 */
 	public boolean add(BSTMapNode element) {
-		throw new UnsupportedOperationException("You need to implement this function!");
+		return add(element, null);
+	}
+
+	/**
+	 * If the element doesn't exist yet, adds the given element to the subtree.
+	 * 
+	 * @param element Given key/value wrapped inside an empty BSTNode instance
+	 * @param stats Counts the comparisons and the depth of the new node; may be null
+	 * @return true, if the element was added; false otherwise.
+	 */
+	boolean add(BSTMapNode element, BSTMapStats.Recorder stats) {
+		BSTMapNode node = this;
+		for (int depth = 1; ; depth++) {
+			int c = node.compare(element.key, stats);
+			if (c == 0) return false;
+			BSTMapNode next = c < 0 ? node.left : node.right;
+			if (next == null) {
+				if (c < 0) node.left = element;
+				else node.right = element;
+				element.parent = node;
+				for (; node != null; node = node.parent)
+					node.size++;
+				if (stats != null)
+					stats.totalPathLength += depth + 1;
+				return true;
+			}
+			node = next;
+		}
 	}
 	
 	/**
@@ -84,7 +145,112 @@ public class BSTMapNode {
 	 * @return true, if the element was found and removed; false otherwise.
 	 */
 	public boolean remove(BSTMapNode element) {
-		throw new UnsupportedOperationException("You need to implement this function!");
+		return unlink(element.key) != null;
+	}
+
+	/**
+	 * Finds and removes the element with the given key from the subtree.
+	 * A node with two children takes over the key and value of its in-order
+	 * successor, which is then spliced out instead. The root of the subtree
+	 * is never detached: if it has a single child, it takes over the child's
+	 * content. Removing the subtree root when it is a leaf is left to the caller.
+	 * 
+	 * @param key Element key
+	 * @return The lowest node whose subtree has changed; null, if the element was not found.
+	 */
+	BSTMapNode unlink(int key) {
+		return unlink(key, null);
+	}
+
+	/**
+	 * Finds and removes the element with the given key from the subtree, as
+	 * unlink(int) does. The subtree must be the whole tree for the path
+	 * length to be exact.
+	 * 
+	 * @param key Element key
+	 * @param stats Counts the comparisons and the change of the total path length; may be null
+	 * @return The lowest node whose subtree has changed; null, if the element was not found.
+	 */
+	BSTMapNode unlink(int key, BSTMapStats.Recorder stats) {
+		BSTMapNode node = find(key, stats);
+		if (node == null) return null;
+
+		if (node.left != null && node.right != null) {
+			BSTMapNode successor = node.right.findMin();
+			node.key = successor.key;
+			node.value = successor.value;
+			node = successor;
+		}
+		// the spliced node leaves and the subtree of its child moves up a level
+		int moved = size(node.left != null ? node.left : node.right);
+		BSTMapNode changed = node.splice();
+		int depth = changed == node ? 0 : 1;
+		for (BSTMapNode n = changed; n != null; n = n.parent, depth++)
+			n.updateSize();
+		if (stats != null)
+			stats.totalPathLength -= depth + moved;
+		return changed;
+	}
+
+	/**
+	 * Removes this node, which has at most one child, from the tree.
+	 * 
+	 * @return The lowest node whose subtree has changed.
+	 */
+	private BSTMapNode splice() {
+		BSTMapNode child = left != null ? left : right;
+		if (parent == null) {
+			if (child != null) {
+				this.key = child.key;
+				this.value = child.value;
+				this.left = child.left;
+				this.right = child.right;
+				if (left != null) left.parent = this;
+				if (right != null) right.parent = this;
+			}
+			return this;
+		}
+		parent.replaceChild(this, child);
+		return parent;
+	}
+
+	/**
+	 * Replaces the given child of this node with a new node.
+	 * 
+	 * @param oldChild Current left or right child
+	 * @param newChild New child, may be null
+	 */
+	void replaceChild(BSTMapNode oldChild, BSTMapNode newChild) {
+		if (left == oldChild) left = newChild;
+		else right = newChild;
+		if (newChild != null) newChild.parent = this;
+	}
+
+	/**
+	 * Finds the node with the given key in the subtree.
+	 * 
+	 * @param key Query key
+	 * @return Node with the given key; null, if it does not exist in the subtree.
+	 */
+	BSTMapNode find(int key) {
+		return find(key, null);
+	}
+
+	/**
+	 * Finds the node with the given key in the subtree.
+	 * 
+	 * @param key Query key
+	 * @param stats Counts the comparisons; may be null
+	 * @return Node with the given key; null, if it does not exist in the subtree.
+	 */
+	BSTMapNode find(int key, BSTMapStats.Recorder stats) {
+		BSTMapNode node = this;
+		while (node != null) {
+			int c = node.compare(key, stats);
+			if (c == 0) return node;
+			node = c < 0 ? node.left : node.right;
+		}
+		return null;
 	}
 
 	/**
@@ -94,7 +260,7 @@ public class BSTMapNode {
 	 * @return true, if an element with the given key is contained in the subtree; false otherwise.
 	 */
 	public boolean contains(BSTMapNode element) {
-		throw new UnsupportedOperationException("You need to implement this function!");
+		return find(element.key) != null;
 	}
 	
 	/**
@@ -104,7 +270,8 @@ public class BSTMapNode {
 	 * @return String value of the given key; null, if an element with the given key does not exist in the subtree.
 	 */
 	public String get(BSTMapNode element) {
-		throw new UnsupportedOperationException("You need to implement this function!");
+		BSTMapNode node = find(element.key);
+		return node != null ? node.value : null;
 	}
 
 	/**
@@ -113,16 +280,208 @@ public class BSTMapNode {
 	 * @return Smallest element in the subtree
 	 */
 	public BSTMapNode findMin() {
-		throw new UnsupportedOperationException("You need to implement this function!");
+		BSTMapNode node = this;
+		while (node.left != null)
+			node = node.left;
+		return node;
 	}
-	
+
+	/**
+	 * Builds a perfectly balanced subtree from the sorted keys in range
+	 * [from, to) in O(n). The recursion depth is logarithmic.
+	 * 
+	 * @param keys Keys in strictly ascending order
+	 * @param values Values of the keys
+	 * @param from First index of the range, inclusive
+	 * @param to Last index of the range, exclusive
+	 * @param parent Parent of the subtree root
+	 * @return Root of the subtree; null, if the range is empty.
+	 */
+	static BSTMapNode build(int[] keys, String[] values, int from, int to, BSTMapNode parent) {
+		if (from >= to) return null;
+		int mid = (from + to) >>> 1;
+		BSTMapNode node = new BSTMapNode(null, null, parent, keys[mid], values[mid]);
+		node.left = build(keys, values, from, mid, node);
+		node.right = build(keys, values, mid + 1, to, node);
+		node.height = Math.max(height(node.left), height(node.right)) + 1;
+		node.size = to - from;
+		return node;
+	}
+
+	/**
+	 * @return Number of nodes in the subtree.
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	private static int size(BSTMapNode node) {
+		return node != null ? node.size : 0;
+	}
+
+	private void updateSize() {
+		size = size(left) + size(right) + 1;
+	}
+
+	/**
+	 * Finds the node with the largest key smaller than or equal to the given key.
+	 * 
+	 * @param key Query key
+	 * @param inclusive Whether a node with the given key qualifies
+	 * @return The node found; null, if all keys in the subtree are larger.
+	 */
+	BSTMapNode floor(int key, boolean inclusive) {
+		BSTMapNode node = this, best = null;
+		while (node != null) {
+			int c = node.compare(key);
+			if (c == 0 && inclusive) return node;
+			if (c > 0) {
+				best = node;
+				node = node.right;
+			} else {
+				node = node.left;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Finds the node with the smallest key larger than or equal to the given key.
+	 * 
+	 * @param key Query key
+	 * @param inclusive Whether a node with the given key qualifies
+	 * @return The node found; null, if all keys in the subtree are smaller.
+	 */
+	BSTMapNode ceiling(int key, boolean inclusive) {
+		BSTMapNode node = this, best = null;
+		while (node != null) {
+			int c = node.compare(key);
+			if (c == 0 && inclusive) return node;
+			if (c < 0) {
+				best = node;
+				node = node.left;
+			} else {
+				node = node.right;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * @param key Query key
+	 * @return Number of keys in the subtree smaller than the given key.
+	 */
+	int rank(int key) {
+		BSTMapNode node = this;
+		int rank = 0;
+		while (node != null) {
+			int c = node.compare(key);
+			if (c <= 0) {
+				if (c == 0) return rank + size(node.left);
+				node = node.left;
+			} else {
+				rank += size(node.left) + 1;
+				node = node.right;
+			}
+		}
+		return rank;
+	}
+
+	/**
+	 * @param i Index of the key in ascending order, starting with 0
+	 * @return The node with the i-th smallest key in the subtree; null, if i is out of range.
+	 */
+	BSTMapNode select(int i) {
+		if (i < 0 || i >= size) return null;
+		BSTMapNode node = this;
+		while (true) {
+			int l = size(node.left);
+			if (i == l) return node;
+			if (i < l) {
+				node = node.left;
+			} else {
+				i -= l + 1;
+				node = node.right;
+			}
+		}
+	}
+
+	/*
+	 * The depth-first traversals below follow the parent pointers instead of
+	 * recursing, so they need constant extra space regardless of the tree shape.
+	 * Each successor function stays within the subtree of the given root.
+	 */
+
+	/**
+	 * @param root Root of the traversed subtree
+	 * @return Next node in pre-order; null, if this is the last one.
+	 */
+	BSTMapNode preOrderNext(BSTMapNode root) {
+		if (left != null) return left;
+		if (right != null) return right;
+		BSTMapNode node = this;
+		while (node != root) {
+			BSTMapNode p = node.parent;
+			if (node == p.left && p.right != null) return p.right;
+			node = p;
+		}
+		return null;
+	}
+
+	/**
+	 * @param root Root of the traversed subtree
+	 * @return Next node in in-order; null, if this is the last one.
+	 */
+	BSTMapNode inOrderNext(BSTMapNode root) {
+		if (right != null) return right.findMin();
+		BSTMapNode node = this;
+		while (node != root && node == node.parent.right)
+			node = node.parent;
+		return node != root ? node.parent : null;
+	}
+
+	/**
+	 * @return First node of the subtree in post-order, ie. its leftmost leaf.
+	 */
+	BSTMapNode postOrderFirst() {
+		BSTMapNode node = this;
+		while (true) {
+			if (node.left != null) node = node.left;
+			else if (node.right != null) node = node.right;
+			else return node;
+		}
+	}
+
+	/**
+	 * @param root Root of the traversed subtree
+	 * @return Next node in post-order; null, if this is the last one.
+	 */
+	BSTMapNode postOrderNext(BSTMapNode root) {
+		if (this == root) return null;
+		BSTMapNode p = parent;
+		if (this == p.left && p.right != null) return p.right.postOrderFirst();
+		return p;
+	}
+
 	/**
 	 * Depth-first pre-order traversal of the BST.
 	 * 
 	 * @return List of keys stored in BST obtained by pre-order traversing the tree.
 	 */
 	List<Integer> traversePreOrder() {
-		throw new UnsupportedOperationException("You need to implement this function!");
+		List<Integer> keys = new ArrayList<Integer>();
+		traversePreOrder(keys::add);
+		return keys;
+	}
+
+	/**
+	 * Depth-first pre-order traversal of the BST.
+	 * 
+	 * @param action Receives the keys in pre-order
+	 */
+	void traversePreOrder(IntConsumer action) {
+		for (BSTMapNode node = this; node != null; node = node.preOrderNext(this))
+			action.accept(node.key);
 	}
 
 	/**
@@ -131,7 +490,19 @@ public class BSTMapNode {
 	 * @return List of keys stored in BST obtained by in-order traversing the tree.
 	 */
 	List<Integer> traverseInOrder() {
-		throw new UnsupportedOperationException("You need to implement this function!");
+		List<Integer> keys = new ArrayList<Integer>();
+		traverseInOrder(keys::add);
+		return keys;
+	}
+
+	/**
+	 * Depth-first in-order traversal of the BST.
+	 * 
+	 * @param action Receives the keys in in-order
+	 */
+	void traverseInOrder(IntConsumer action) {
+		for (BSTMapNode node = findMin(); node != null; node = node.inOrderNext(this))
+			action.accept(node.key);
 	}
 
 	/**
@@ -140,7 +511,35 @@ public class BSTMapNode {
 	 * @return List of keys stored in BST obtained by post-order traversing the tree.
 	 */
 	List<Integer> traversePostOrder() {
-		throw new UnsupportedOperationException("You need to implement this function!");
+		List<Integer> keys = new ArrayList<Integer>();
+		traversePostOrder(keys::add);
+		return keys;
+	}
+
+	/**
+	 * Recomputes the sizes and heights of all nodes of the subtree in O(n).
+	 * 
+	 * @return Sum of the depths of all nodes, counting this node as depth 1.
+	 */
+	long measure() {
+		long totalPathLength = 0;
+		for (BSTMapNode node = postOrderFirst(); node != null; node = node.postOrderNext(this)) {
+			node.updateSize();
+			node.updateHeight();
+			// every node adds one to the depth of each node in its subtree
+			totalPathLength += node.size;
+		}
+		return totalPathLength;
+	}
+
+	/**
+	 * Depth-first post-order traversal of the BST.
+	 * 
+	 * @param action Receives the keys in post-order
+	 */
+	void traversePostOrder(IntConsumer action) {
+		for (BSTMapNode node = postOrderFirst(); node != null; node = node.postOrderNext(this))
+			action.accept(node.key);
 	}
 
 	/**
@@ -149,6 +548,115 @@ public class BSTMapNode {
 	 * @return List of keys stored in BST obtained by breadth-first traversal of the tree.
 	 */
 	List<Integer> traverseLevelOrder() {
-		throw new UnsupportedOperationException("You need to implement this function!");
+		List<Integer> keys = new ArrayList<Integer>();
+		traverseLevelOrder(keys::add);
+		return keys;
+	}
+
+	/**
+	 * Breadth-first (or level-order) traversal of the BST.
+	 * 
+	 * @param action Receives the keys in level-order
+	 */
+	void traverseLevelOrder(IntConsumer action) {
+		ArrayDeque<BSTMapNode> queue = new ArrayDeque<BSTMapNode>();
+		queue.add(this);
+		while (!queue.isEmpty()) {
+			BSTMapNode node = queue.poll();
+			action.accept(node.key);
+			if (node.left != null) queue.add(node.left);
+			if (node.right != null) queue.add(node.right);
+		}
+	}
+
+	/*
+	 * AVL balancing support. Heights are kept up to date by BSTMap in both
+	 * balancing modes, the rotations only in BSTMap.BalancingMethod.AVL mode.
+	 */
+
+	int getHeight() {
+		return height;
+	}
+
+	private static int height(BSTMapNode node) {
+		return node != null ? node.height : 0;
+	}
+
+	/**
+	 * Recomputes the height of this node from the heights of its children.
+	 * 
+	 * @return true, if the height has changed; false otherwise.
+	 */
+	boolean updateHeight() {
+		int h = Math.max(height(left), height(right)) + 1;
+		if (h == height) return false;
+		height = h;
+		return true;
+	}
+
+	/**
+	 * @return Height of the right subtree minus height of the left subtree.
+	 */
+	int getBalance() {
+		return height(right) - height(left);
+	}
+
+	/**
+	 * Restores the AVL property at this node, assuming both subtrees are
+	 * already balanced and their heights differ by at most two.
+	 * 
+	 * @param stats Receives the change of the total path length; may be null
+	 * @return The new root of this subtree.
+	 */
+	BSTMapNode rebalance(BSTMapStats.Recorder stats) {
+		int balance = getBalance();
+		if (balance > 1) {
+			if (right.getBalance() < 0) right.rotateRight(stats);
+			return rotateLeft(stats);
+		}
+		if (balance < -1) {
+			if (left.getBalance() > 0) left.rotateLeft(stats);
+			return rotateRight(stats);
+		}
+		return this;
+	}
+
+	/*
+	 * A rotation moves the outer subtree of the rising child up a level and
+	 * this node with its other subtree down a level.
+	 */
+
+	private BSTMapNode rotateLeft(BSTMapStats.Recorder stats) {
+		BSTMapNode r = right;
+		if (stats != null)
+			stats.totalPathLength += size(left) - size(r.right);
+		right = r.left;
+		if (right != null) right.parent = this;
+		r.parent = parent;
+		if (parent != null) parent.replaceChild(this, r);
+		r.left = this;
+		parent = r;
+		updateHeight();
+		r.updateHeight();
+		updateSize();
+		r.updateSize();
+		return r;
+	}
+
+	private BSTMapNode rotateRight(BSTMapStats.Recorder stats) {
+		BSTMapNode l = left;
+		if (stats != null)
+			stats.totalPathLength += size(right) - size(l.left);
+		left = l.right;
+		if (left != null) left.parent = this;
+		l.parent = parent;
+		if (parent != null) parent.replaceChild(this, l);
+		l.right = this;
+		parent = l;
+		updateHeight();
+		l.updateHeight();
+		updateSize();
+		l.updateSize();
+		return l;
 	}
 }
@@ -0,0 +1,194 @@
+package aps2.bstmap;
+
+import java.util.Arrays;
+
+/**
+ * Snapshot of the shape and the operation statistics of a BSTMap.
+ *
+ * The comparison histograms are collected on every operation: bucket i
+ * counts the operations which needed i key comparisons, the last bucket
+ * collects everything from HISTOGRAM_BUCKETS - 1 comparisons up. The
+ * comparisons are counted per map, so several maps can be measured side by
+ * side. The shape is read from the node heights and the total path length
+ * which the map keeps up to date, so a snapshot doesn't walk the tree.
+ */
+public class BSTMapStats {
+	public static final int HISTOGRAM_BUCKETS = 64;
+
+	private final int size;
+	private final int height;
+	private final long totalPathLength;
+	private final int leftHeight, rightHeight;
+	private final long[] addHistogram, getHistogram, removeHistogram;
+
+	/**
+	 * Statistics collected by a single BSTMap. The nodes count the comparisons
+	 * of the running operation and apply the changes of the total path length
+	 * on insertion, removal and rotation.
+	 */
+	static final class Recorder {
+		int comparisons;      // of the running operation
+		long totalPathLength; // sum of the depths of all nodes, the root has depth 1
+		private final long[] addHistogram = new long[HISTOGRAM_BUCKETS];
+		private final long[] getHistogram = new long[HISTOGRAM_BUCKETS];
+		private final long[] removeHistogram = new long[HISTOGRAM_BUCKETS];
+
+		void recordAdd() {
+			record(addHistogram);
+		}
+
+		void recordGet() {
+			record(getHistogram);
+		}
+
+		void recordRemove() {
+			record(removeHistogram);
+		}
+
+		private void record(long[] histogram) {
+			histogram[Math.min(comparisons, histogram.length - 1)]++;
+			comparisons = 0;
+		}
+
+		void reset() {
+			Arrays.fill(addHistogram, 0);
+			Arrays.fill(getHistogram, 0);
+			Arrays.fill(removeHistogram, 0);
+		}
+
+		BSTMapStats snapshot(int size, int height, int leftHeight, int rightHeight) {
+			return new BSTMapStats(size, height, totalPathLength, leftHeight, rightHeight,
+					addHistogram, getHistogram, removeHistogram);
+		}
+	}
+
+	BSTMapStats(int size, int height, long totalPathLength, int leftHeight, int rightHeight,
+			long[] addHistogram, long[] getHistogram, long[] removeHistogram) {
+		this.size = size;
+		this.height = height;
+		this.totalPathLength = totalPathLength;
+		this.leftHeight = leftHeight;
+		this.rightHeight = rightHeight;
+		this.addHistogram = addHistogram.clone();
+		this.getHistogram = getHistogram.clone();
+		this.removeHistogram = removeHistogram.clone();
+	}
+
+	/**
+	 * @return Number of elements.
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * @return Number of levels of the tree; 0 for an empty tree.
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * @return Number of comparisons needed to find the deepest key, equal to the height.
+	 */
+	public int getMaxPathLength() {
+		return height;
+	}
+
+	/**
+	 * @return Average number of comparisons needed to find a key in the tree.
+	 */
+	public double getAveragePathLength() {
+		return size > 0 ? (double) totalPathLength / size : 0;
+	}
+
+	/**
+	 * @return Height of the right subtree of the root minus height of the left one.
+	 */
+	public int getRootBalance() {
+		return rightHeight - leftHeight;
+	}
+
+	/**
+	 * Ratio between the height and the height of a perfectly balanced tree
+	 * with the same number of elements. It is 1 for a perfect tree, at most
+	 * about 1.44 for an AVL tree and grows towards n / log2(n) as the tree
+	 * degenerates into a list.
+	 *
+	 * @return Height divided by the optimal height; 1 for an empty tree.
+	 */
+	public double getBalanceFactor() {
+		if (size == 0)
+			return 1;
+		int optimal = 32 - Integer.numberOfLeadingZeros(size);
+		return (double) height / optimal;
+	}
+
+	/**
+	 * @return Histogram of comparisons per successful or failed add.
+	 */
+	public long[] getAddHistogram() {
+		return addHistogram.clone();
+	}
+
+	/**
+	 * @return Histogram of comparisons per get or contains.
+	 */
+	public long[] getGetHistogram() {
+		return getHistogram.clone();
+	}
+
+	/**
+	 * @return Histogram of comparisons per successful or failed remove.
+	 */
+	public long[] getRemoveHistogram() {
+		return removeHistogram.clone();
+	}
+
+	/**
+	 * @param histogram One of the comparison histograms
+	 * @return Mean number of comparisons per operation; 0, if there were none.
+	 */
+	public static double mean(long[] histogram) {
+		long count = 0, sum = 0;
+		for (int i = 0; i < histogram.length; i++) {
+			count += histogram[i];
+			sum += i * histogram[i];
+		}
+		return count > 0 ? (double) sum / count : 0;
+	}
+
+	/**
+	 * @param histogram One of the comparison histograms
+	 * @param p Percentile between 0 and 1
+	 * @return Smallest number of comparisons which is not exceeded by the given share of operations.
+	 */
+	public static int percentile(long[] histogram, double p) {
+		long count = 0;
+		for (long c : histogram)
+			count += c;
+		long threshold = (long) Math.ceil(p * count), seen = 0;
+		for (int i = 0; i < histogram.length; i++) {
+			seen += histogram[i];
+			if (seen >= threshold && seen > 0)
+				return i;
+		}
+		return 0;
+	}
+
+	@Override
+	public String toString() {
+		return "size=" + size + " height=" + height
+				+ String.format(" avgPath=%.2f balanceFactor=%.2f", getAveragePathLength(), getBalanceFactor())
+				+ " rootBalance=" + getRootBalance()
+				+ String.format(" add=%.2f get=%.2f remove=%.2f", mean(addHistogram), mean(getHistogram), mean(removeHistogram))
+				+ " maxGet=" + maxBucket(getHistogram);
+	}
+
+	private static int maxBucket(long[] histogram) {
+		for (int i = histogram.length - 1; i >= 0; i--)
+			if (histogram[i] > 0)
+				return i;
+		return 0;
+	}
+}
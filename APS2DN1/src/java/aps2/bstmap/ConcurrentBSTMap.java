@@ -0,0 +1,738 @@
+package aps2.bstmap;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntConsumer;
+
+/**
+ * Thread-safe AVL tree for mapping integer -> string, with optimistic
+ * hand-over-hand concurrency control as described by Bronson, Casper, Chafi
+ * and Olukotun in A Practical Concurrent Binary Search Tree.
+ *
+ * Readers take no locks. Every node has a version, which a rotation marks
+ * before it moves keys out of the node's subtree and changes afterwards. A
+ * reader records the version of a node before it descends to a child and
+ * checks it again once it holds the child's version; if the node changed
+ * meanwhile, it retries from the node's parent. Writers lock only the nodes
+ * they link, unlink or rotate, always from the parent down, so writes to
+ * different parts of the tree run in parallel.
+ *
+ * A removed key whose node has two children stays in the tree as a routing
+ * node without a value, until rebalancing leaves it with at most one child
+ * and unlinks it. Heights are repaired and rotations done after every write
+ * on the way back to the root, so under concurrent writes the tree may be
+ * out of balance for a while, but a search never misses a key.
+ *
+ * The traversals are not atomic: they are exact while no writer runs, but
+ * may miss or repeat keys which concurrent rotations move. For a consistent
+ * view during writes use CopyOnWriteBSTMap.snapshot().
+ */
+public class ConcurrentBSTMap {
+	// version of a node which was removed from the tree
+	private static final long UNLINKED = 1;
+	// set in the version while a rotation moves keys out of the node's subtree
+	private static final long SHRINKING = 2;
+	private static final long VERSION_STEP = 4;
+
+	// stands for the value null, since a node without a value is a routing node
+	private static final Object NULL = new Object();
+	// returned by a search step whose node changed under it
+	private static final Object RETRY = new Object();
+
+	// results of nodeCondition, which otherwise returns the correct height
+	private static final int UNLINK_REQUIRED = -1;
+	private static final int REBALANCE_REQUIRED = -2;
+	private static final int NOTHING_REQUIRED = -3;
+
+	private static final int SPINS = 100;
+
+	private static final class Node {
+		final int key;
+		volatile Object value; // null for a routing node
+		volatile int height;
+		volatile long version;
+		volatile Node parent, left, right;
+
+		Node(int key, Object value, Node parent) {
+			this.key = key;
+			this.value = value;
+			this.parent = parent;
+			this.height = 1;
+		}
+
+		/**
+		 * @param dir Result of comparing a key with the key of this node
+		 */
+		Node child(int dir) {
+			return dir < 0 ? left : right;
+		}
+
+		void setChild(int dir, Node node) {
+			if (dir < 0) left = node;
+			else right = node;
+		}
+	}
+
+	// its right child is the root; it is never rotated, so its version stays 0
+	private final Node rootHolder = new Node(Integer.MIN_VALUE, null, null);
+	private final LongAdder counter = new LongAdder();
+	private final LongAdder size = new LongAdder();
+
+	private int compare(int key, Node node) {
+		counter.increment();
+		return Integer.compare(key, node.key);
+	}
+
+	private static int height(Node node) {
+		return node != null ? node.height : 0;
+	}
+
+	private static boolean isShrinking(long version) {
+		return (version & SHRINKING) != 0;
+	}
+
+	private static boolean canUnlink(Node node) {
+		return node.left == null || node.right == null;
+	}
+
+	/**
+	 * Waits until the rotation which is shrinking the node is done. The
+	 * rotating thread holds the node's lock, so after a short spin the wait
+	 * blocks on it.
+	 */
+	private static void waitUntilNotChanging(Node node) {
+		long version = node.version;
+		if (!isShrinking(version))
+			return;
+		for (int i = 0; i < SPINS; i++)
+			if (node.version != version)
+				return;
+		synchronized (node) {
+			// nothing to do, the lock is free once the rotation is over
+		}
+	}
+
+	/*
+	 * Searches
+	 *
+	 * Each step is given a node, the direction of the child to visit, and
+	 * the version of the node which was read before the node was validated
+	 * as the child of its own parent. A step returns RETRY if the node
+	 * changed, and its caller then retries from the parent.
+	 */
+
+	private Object attemptGet(int key, Node node, int dir, long nodeVersion) {
+		while (true) {
+			Node child = node.child(dir);
+			if (node.version != nodeVersion)
+				return RETRY;
+			if (child == null)
+				return null;
+			int c = compare(key, child);
+			if (c == 0)
+				return child.value;
+			long childVersion = child.version;
+			if (isShrinking(childVersion)) {
+				waitUntilNotChanging(child);
+			} else if (childVersion != UNLINKED && child == node.child(dir)) {
+				if (node.version != nodeVersion)
+					return RETRY;
+				Object value = attemptGet(key, child, c, childVersion);
+				if (value != RETRY)
+					return value;
+			}
+		}
+	}
+
+	private Object attemptAdd(int key, Object value, Node node, int dir, long nodeVersion) {
+		Object result = RETRY;
+		do {
+			Node child = node.child(dir);
+			if (node.version != nodeVersion)
+				return RETRY;
+			if (child == null) {
+				result = attemptInsert(key, value, node, dir, nodeVersion);
+			} else {
+				int c = compare(key, child);
+				if (c == 0) {
+					result = attemptRevive(child, value);
+				} else {
+					long childVersion = child.version;
+					if (isShrinking(childVersion)) {
+						waitUntilNotChanging(child);
+					} else if (childVersion != UNLINKED && child == node.child(dir)) {
+						if (node.version != nodeVersion)
+							return RETRY;
+						result = attemptAdd(key, value, child, c, childVersion);
+					}
+				}
+			}
+		} while (result == RETRY);
+		return result;
+	}
+
+	private Object attemptInsert(int key, Object value, Node node, int dir, long nodeVersion) {
+		synchronized (node) {
+			if (node.version != nodeVersion || node.child(dir) != null)
+				return RETRY;
+			node.setChild(dir, new Node(key, value, node));
+		}
+		fixHeightAndRebalance(node);
+		return Boolean.TRUE;
+	}
+
+	/**
+	 * Gives a routing node with the key a value again.
+	 */
+	private Object attemptRevive(Node node, Object value) {
+		synchronized (node) {
+			if (node.version == UNLINKED)
+				return RETRY;
+			if (node.value != null)
+				return Boolean.FALSE;
+			node.value = value;
+			return Boolean.TRUE;
+		}
+	}
+
+	private Object attemptRemove(int key, Node node, int dir, long nodeVersion) {
+		Object result = RETRY;
+		do {
+			Node child = node.child(dir);
+			if (node.version != nodeVersion)
+				return RETRY;
+			if (child == null)
+				return Boolean.FALSE;
+			int c = compare(key, child);
+			if (c == 0) {
+				result = attemptRemoveNode(node, child);
+			} else {
+				long childVersion = child.version;
+				if (isShrinking(childVersion)) {
+					waitUntilNotChanging(child);
+				} else if (childVersion != UNLINKED && child == node.child(dir)) {
+					if (node.version != nodeVersion)
+						return RETRY;
+					result = attemptRemove(key, child, c, childVersion);
+				}
+			}
+		} while (result == RETRY);
+		return result;
+	}
+
+	/**
+	 * Unlinks the node if it has at most one child, or turns it into a
+	 * routing node otherwise.
+	 */
+	private Object attemptRemoveNode(Node parent, Node node) {
+		if (node.value == null)
+			return Boolean.FALSE;
+		if (!canUnlink(node)) {
+			synchronized (node) {
+				if (node.version == UNLINKED || canUnlink(node))
+					return RETRY;
+				if (node.value == null)
+					return Boolean.FALSE;
+				node.value = null;
+			}
+			return Boolean.TRUE;
+		}
+		synchronized (parent) {
+			if (parent.version == UNLINKED || node.parent != parent)
+				return RETRY;
+			synchronized (node) {
+				if (node.version == UNLINKED)
+					return RETRY;
+				if (node.value == null)
+					return Boolean.FALSE;
+				if (!canUnlink(node))
+					return RETRY;
+				Node splice = node.left != null ? node.left : node.right;
+				if (parent.left == node) parent.left = splice;
+				else parent.right = splice;
+				if (splice != null)
+					splice.parent = parent;
+				node.version = UNLINKED;
+				node.value = null;
+			}
+		}
+		fixHeightAndRebalance(parent);
+		return Boolean.TRUE;
+	}
+
+	/*
+	 * Rebalancing
+	 *
+	 * Methods ending with _nl expect the caller to hold the locks of the
+	 * given nodes. They return the next node which needs repair, or null.
+	 */
+
+	/**
+	 * @return UNLINK_REQUIRED, REBALANCE_REQUIRED, NOTHING_REQUIRED, or the
+	 *         height the node should have.
+	 */
+	private static int nodeCondition(Node node) {
+		Node left = node.left, right = node.right;
+		if ((left == null || right == null) && node.value == null)
+			return UNLINK_REQUIRED;
+		int h = node.height, hL = height(left), hR = height(right);
+		int hRepl = 1 + Math.max(hL, hR);
+		int balance = hL - hR;
+		if (balance < -1 || balance > 1)
+			return REBALANCE_REQUIRED;
+		return h != hRepl ? hRepl : NOTHING_REQUIRED;
+	}
+
+	/**
+	 * Repairs heights, balance and routing nodes from the given node up to
+	 * the root.
+	 */
+	private void fixHeightAndRebalance(Node node) {
+		while (node != null && node.parent != null) {
+			int condition = nodeCondition(node);
+			if (condition == NOTHING_REQUIRED || node.version == UNLINKED)
+				return;
+			if (condition != UNLINK_REQUIRED && condition != REBALANCE_REQUIRED) {
+				synchronized (node) {
+					node = fixHeight_nl(node);
+				}
+			} else {
+				Node parent = node.parent;
+				synchronized (parent) {
+					if (parent.version != UNLINKED && node.parent == parent) {
+						synchronized (node) {
+							node = rebalance_nl(parent, node);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	private static Node fixHeight_nl(Node node) {
+		int condition = nodeCondition(node);
+		switch (condition) {
+			case REBALANCE_REQUIRED:
+			case UNLINK_REQUIRED:
+				return node;
+			case NOTHING_REQUIRED:
+				return null;
+			default:
+				node.height = condition;
+				return node.parent;
+		}
+	}
+
+	private static Node rebalance_nl(Node parent, Node n) {
+		Node nL = n.left, nR = n.right;
+		if ((nL == null || nR == null) && n.value == null)
+			return attemptUnlink_nl(parent, n) ? fixHeight_nl(parent) : n;
+		int h = n.height, hL0 = height(nL), hR0 = height(nR);
+		int hRepl = 1 + Math.max(hL0, hR0);
+		int balance = hL0 - hR0;
+		if (balance > 1)
+			return rebalanceToRight_nl(parent, n, nL, hR0);
+		if (balance < -1)
+			return rebalanceToLeft_nl(parent, n, nR, hL0);
+		if (hRepl != h) {
+			n.height = hRepl;
+			return fixHeight_nl(parent);
+		}
+		return null;
+	}
+
+	private static boolean attemptUnlink_nl(Node parent, Node node) {
+		Node parentL = parent.left, parentR = parent.right;
+		if (parentL != node && parentR != node)
+			return false;
+		Node left = node.left, right = node.right;
+		if (left != null && right != null)
+			return false;
+		Node splice = left != null ? left : right;
+		if (parentL == node) parent.left = splice;
+		else parent.right = splice;
+		if (splice != null)
+			splice.parent = parent;
+		node.version = UNLINKED;
+		node.value = null;
+		return true;
+	}
+
+	private static Node rebalanceToRight_nl(Node parent, Node n, Node nL, int hR0) {
+		synchronized (nL) {
+			int hL = nL.height;
+			if (hL - hR0 <= 1)
+				return n; // changed meanwhile, check again
+			Node nLR = nL.right;
+			int hLL0 = height(nL.left), hLR0 = height(nLR);
+			if (hLL0 >= hLR0)
+				return rotateRight_nl(parent, n, nL, hR0, hLL0, nLR, hLR0);
+			synchronized (nLR) {
+				int hLR = nLR.height;
+				if (hLL0 >= hLR)
+					return rotateRight_nl(parent, n, nL, hR0, hLL0, nLR, hLR);
+				// rotate twice only if that leaves nL balanced and not a routing node with a missing child
+				int hLRL = height(nLR.left);
+				int balance = hLL0 - hLRL;
+				if (balance >= -1 && balance <= 1 && !((hLL0 == 0 || hLRL == 0) && nL.value == null))
+					return rotateRightOverLeft_nl(parent, n, nL, hR0, hLL0, nLR, hLRL);
+			}
+			// fix nL first, n is repaired afterwards
+			return rebalanceToLeft_nl(n, nL, nLR, hLL0);
+		}
+	}
+
+	private static Node rebalanceToLeft_nl(Node parent, Node n, Node nR, int hL0) {
+		synchronized (nR) {
+			int hR = nR.height;
+			if (hL0 - hR >= -1)
+				return n; // changed meanwhile, check again
+			Node nRL = nR.left;
+			int hRL0 = height(nRL), hRR0 = height(nR.right);
+			if (hRR0 >= hRL0)
+				return rotateLeft_nl(parent, n, hL0, nR, nRL, hRL0, hRR0);
+			synchronized (nRL) {
+				int hRL = nRL.height;
+				if (hRR0 >= hRL)
+					return rotateLeft_nl(parent, n, hL0, nR, nRL, hRL, hRR0);
+				int hRLR = height(nRL.right);
+				int balance = hRR0 - hRLR;
+				if (balance >= -1 && balance <= 1 && !((hRR0 == 0 || hRLR == 0) && nR.value == null))
+					return rotateLeftOverRight_nl(parent, n, hL0, nR, nRL, hRR0, hRLR);
+			}
+			return rebalanceToRight_nl(n, nR, nRL, hRR0);
+		}
+	}
+
+	private static Node rotateRight_nl(Node parent, Node n, Node nL, int hR, int hLL, Node nLR, int hLR) {
+		long version = n.version;
+		Node parentL = parent.left;
+		n.version = version | SHRINKING;
+
+		n.left = nLR;
+		if (nLR != null)
+			nLR.parent = n;
+		nL.right = n;
+		n.parent = nL;
+		if (parentL == n) parent.left = nL;
+		else parent.right = nL;
+		nL.parent = parent;
+
+		int hRepl = 1 + Math.max(hLR, hR);
+		n.height = hRepl;
+		nL.height = 1 + Math.max(hLL, hRepl);
+
+		n.version = version + VERSION_STEP;
+
+		// n is the deepest damaged node, then nL, then parent
+		int balanceN = hLR - hR;
+		if (balanceN < -1 || balanceN > 1)
+			return n;
+		if ((nLR == null || hR == 0) && n.value == null)
+			return n;
+		int balanceL = hLL - hRepl;
+		if (balanceL < -1 || balanceL > 1)
+			return nL;
+		if (hLL == 0 && nL.value == null)
+			return nL;
+		return fixHeight_nl(parent);
+	}
+
+	private static Node rotateLeft_nl(Node parent, Node n, int hL, Node nR, Node nRL, int hRL, int hRR) {
+		long version = n.version;
+		Node parentL = parent.left;
+		n.version = version | SHRINKING;
+
+		n.right = nRL;
+		if (nRL != null)
+			nRL.parent = n;
+		nR.left = n;
+		n.parent = nR;
+		if (parentL == n) parent.left = nR;
+		else parent.right = nR;
+		nR.parent = parent;
+
+		int hRepl = 1 + Math.max(hL, hRL);
+		n.height = hRepl;
+		nR.height = 1 + Math.max(hRepl, hRR);
+
+		n.version = version + VERSION_STEP;
+
+		int balanceN = hRL - hL;
+		if (balanceN < -1 || balanceN > 1)
+			return n;
+		if ((nRL == null || hL == 0) && n.value == null)
+			return n;
+		int balanceR = hRR - hRepl;
+		if (balanceR < -1 || balanceR > 1)
+			return nR;
+		if (hRR == 0 && nR.value == null)
+			return nR;
+		return fixHeight_nl(parent);
+	}
+
+	private static Node rotateRightOverLeft_nl(Node parent, Node n, Node nL, int hR, int hLL, Node nLR, int hLRL) {
+		long version = n.version, leftVersion = nL.version;
+		Node parentL = parent.left;
+		Node nLRL = nLR.left, nLRR = nLR.right;
+		int hLRR = height(nLRR);
+		n.version = version | SHRINKING;
+		nL.version = leftVersion | SHRINKING;
+
+		n.left = nLRR;
+		if (nLRR != null)
+			nLRR.parent = n;
+		nL.right = nLRL;
+		if (nLRL != null)
+			nLRL.parent = nL;
+		nLR.left = nL;
+		nL.parent = nLR;
+		nLR.right = n;
+		n.parent = nLR;
+		if (parentL == n) parent.left = nLR;
+		else parent.right = nLR;
+		nLR.parent = parent;
+
+		int hRepl = 1 + Math.max(hLRR, hR);
+		n.height = hRepl;
+		int hLRepl = 1 + Math.max(hLL, hLRL);
+		nL.height = hLRepl;
+		nLR.height = 1 + Math.max(hLRepl, hRepl);
+
+		n.version = version + VERSION_STEP;
+		nL.version = leftVersion + VERSION_STEP;
+
+		int balanceN = hLRR - hR;
+		if (balanceN < -1 || balanceN > 1)
+			return n;
+		if ((nLRR == null || hR == 0) && n.value == null)
+			return n;
+		int balanceLR = hLRepl - hRepl;
+		if (balanceLR < -1 || balanceLR > 1)
+			return nLR;
+		return fixHeight_nl(parent);
+	}
+
+	private static Node rotateLeftOverRight_nl(Node parent, Node n, int hL, Node nR, Node nRL, int hRR, int hRLR) {
+		long version = n.version, rightVersion = nR.version;
+		Node parentL = parent.left;
+		Node nRLL = nRL.left, nRLR = nRL.right;
+		int hRLL = height(nRLL);
+		n.version = version | SHRINKING;
+		nR.version = rightVersion | SHRINKING;
+
+		n.right = nRLL;
+		if (nRLL != null)
+			nRLL.parent = n;
+		nR.left = nRLR;
+		if (nRLR != null)
+			nRLR.parent = nR;
+		nRL.right = nR;
+		nR.parent = nRL;
+		nRL.left = n;
+		n.parent = nRL;
+		if (parentL == n) parent.left = nRL;
+		else parent.right = nRL;
+		nRL.parent = parent;
+
+		int hRepl = 1 + Math.max(hL, hRLL);
+		n.height = hRepl;
+		int hRRepl = 1 + Math.max(hRLR, hRR);
+		nR.height = hRRepl;
+		nRL.height = 1 + Math.max(hRepl, hRRepl);
+
+		n.version = version + VERSION_STEP;
+		nR.version = rightVersion + VERSION_STEP;
+
+		int balanceN = hRLL - hL;
+		if (balanceN < -1 || balanceN > 1)
+			return n;
+		if ((nRLL == null || hL == 0) && n.value == null)
+			return n;
+		int balanceRL = hRRepl - hRepl;
+		if (balanceRL < -1 || balanceRL > 1)
+			return nRL;
+		return fixHeight_nl(parent);
+	}
+
+	/*
+	 * Public interface
+	 */
+
+	/**
+	 * If the element doesn't exist yet, inserts it into the set.
+	 *
+	 * @param key Element key
+	 * @param value Element value
+	 * @return true, if element was added; false otherwise.
+	 */
+	public boolean add(int key, String value) {
+		boolean added = attemptAdd(key, value != null ? value : NULL, rootHolder, 1, 0) == Boolean.TRUE;
+		if (added)
+			size.increment();
+		return added;
+	}
+
+	/**
+	 * Removes the element from the set.
+	 *
+	 * @param key Element key
+	 * @return true, if the element was removed; otherwise false
+	 */
+	public boolean remove(int key) {
+		boolean removed = attemptRemove(key, rootHolder, 1, 0) == Boolean.TRUE;
+		if (removed)
+			size.decrement();
+		return removed;
+	}
+
+	/**
+	 * Finds the element.
+	 *
+	 * @param key Element key
+	 * @return true, if the element was found; false otherwise.
+	 */
+	public boolean contains(int key) {
+		return attemptGet(key, rootHolder, 1, 0) != null;
+	}
+
+	/**
+	 * Maps the given key to its value.
+	 *
+	 * @param key Element key
+	 * @return String value of the given key; null, if an element with the given key does not exist.
+	 */
+	public String get(int key) {
+		Object value = attemptGet(key, rootHolder, 1, 0);
+		return value != NULL ? (String) value : null;
+	}
+
+	/**
+	 * @return Number of elements in the map.
+	 */
+	public int size() {
+		return (int) size.sum();
+	}
+
+	/**
+	 * @return Number of key comparisons made by all threads since the last reset.
+	 */
+	public long getCounter() {
+		return counter.sum();
+	}
+
+	public void resetCounter() {
+		counter.reset();
+	}
+
+	/*
+	 * Traversals skip the routing nodes. The depth-first ones keep the path
+	 * in an explicit stack.
+	 */
+
+	/**
+	 * Preorder traversal of the tree.
+	 *
+	 * @return List of node keys in preorder traversal
+	 */
+	public List<Integer> traversePreOrder() {
+		List<Integer> keys = new ArrayList<Integer>();
+		traversePreOrder(keys::add);
+		return keys;
+	}
+
+	public void traversePreOrder(IntConsumer action) {
+		ArrayDeque<Node> stack = new ArrayDeque<Node>();
+		Node root = rootHolder.right;
+		if (root != null)
+			stack.push(root);
+		while (!stack.isEmpty()) {
+			Node node = stack.pop();
+			if (node.value != null) action.accept(node.key);
+			Node left = node.left, right = node.right;
+			if (right != null) stack.push(right);
+			if (left != null) stack.push(left);
+		}
+	}
+
+	/**
+	 * Inorder traversal of the tree.
+	 *
+	 * @return List of node keys in inorder traversal
+	 */
+	public List<Integer> traverseInOrder() {
+		List<Integer> keys = new ArrayList<Integer>();
+		traverseInOrder(keys::add);
+		return keys;
+	}
+
+	public void traverseInOrder(IntConsumer action) {
+		ArrayDeque<Node> stack = new ArrayDeque<Node>();
+		Node node = rootHolder.right;
+		while (node != null || !stack.isEmpty()) {
+			for (; node != null; node = node.left)
+				stack.push(node);
+			node = stack.pop();
+			if (node.value != null) action.accept(node.key);
+			node = node.right;
+		}
+	}
+
+	/**
+	 * Postorder traversal of the tree.
+	 *
+	 * @return List of node keys in postorder traversal
+	 */
+	public List<Integer> traversePostOrder() {
+		List<Integer> keys = new ArrayList<Integer>();
+		traversePostOrder(keys::add);
+		return keys;
+	}
+
+	public void traversePostOrder(IntConsumer action) {
+		// the stack holds every node with a flag telling whether its right subtree was visited
+		ArrayDeque<Node> stack = new ArrayDeque<Node>();
+		ArrayDeque<Boolean> visited = new ArrayDeque<Boolean>();
+		Node node = rootHolder.right;
+		while (node != null || !stack.isEmpty()) {
+			for (; node != null; node = node.left) {
+				stack.push(node);
+				visited.push(Boolean.FALSE);
+			}
+			if (!visited.pop()) {
+				visited.push(Boolean.TRUE);
+				node = stack.peek().right;
+			} else {
+				Node done = stack.pop();
+				if (done.value != null) action.accept(done.key);
+			}
+		}
+	}
+
+	/**
+	 * Breadth-first (or level order) traversal of the tree.
+	 *
+	 * @return List of node keys in level order traversal
+	 */
+	public List<Integer> traverseLevelOrder() {
+		List<Integer> keys = new ArrayList<Integer>();
+		traverseLevelOrder(keys::add);
+		return keys;
+	}
+
+	public void traverseLevelOrder(IntConsumer action) {
+		ArrayDeque<Node> queue = new ArrayDeque<Node>();
+		Node root = rootHolder.right;
+		if (root != null)
+			queue.add(root);
+		while (!queue.isEmpty()) {
+			Node node = queue.poll();
+			if (node.value != null) action.accept(node.key);
+			Node left = node.left, right = node.right;
+			if (left != null) queue.add(left);
+			if (right != null) queue.add(right);
+		}
+	}
+}
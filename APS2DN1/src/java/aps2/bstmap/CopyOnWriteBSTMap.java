@@ -0,0 +1,176 @@
+package aps2.bstmap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntConsumer;
+
+/**
+ * Thread-safe copy-on-write AVL tree for mapping integer -> string.
+ *
+ * The tree is built from immutable nodes. Readers load the current root and
+ * search it without any locks, since a published version never changes.
+ * Writers copy the O(log n) nodes on the search path and publish the new root
+ * with a compare-and-set, retrying if another writer got there first.
+ *
+ * Writes therefore never run in parallel: of the writers which copied a path
+ * from the same root only one succeeds, and the others throw their copies
+ * away. Write throughput does not grow with the number of threads; the
+ * map is meant for read-mostly use, where its O(1) snapshots pay off.
+ * ConcurrentBSTMap lets writes in different parts of the tree proceed in
+ * parallel.
+ */
+public class CopyOnWriteBSTMap {
+	private final AtomicReference<PersistentBSTMapNode> root = new AtomicReference<PersistentBSTMapNode>();
+	private final LongAdder counter = new LongAdder();
+
+	/**
+	 * If the element doesn't exist yet, inserts it into the set.
+	 *
+	 * @param key Element key
+	 * @param value Element value
+	 * @return true, if element was added; false otherwise.
+	 */
+	public boolean add(int key, String value) {
+		while (true) {
+			PersistentBSTMapNode current = root.get();
+			PersistentBSTMapNode next = PersistentBSTMapNode.insert(current, key, value, counter);
+			if (next == current)
+				return false;
+			if (root.compareAndSet(current, next))
+				return true;
+		}
+	}
+
+	/**
+	 * Removes the element from the set.
+	 *
+	 * @param key Element key
+	 * @return true, if the element was removed; otherwise false
+	 */
+	public boolean remove(int key) {
+		while (true) {
+			PersistentBSTMapNode current = root.get();
+			PersistentBSTMapNode next = PersistentBSTMapNode.delete(current, key, counter);
+			if (next == current)
+				return false;
+			if (root.compareAndSet(current, next))
+				return true;
+		}
+	}
+
+	/**
+	 * Finds the element.
+	 *
+	 * @param key Element key
+	 * @return true, if the element was found; false otherwise.
+	 */
+	public boolean contains(int key) {
+		return PersistentBSTMapNode.find(root.get(), key, counter) != null;
+	}
+
+	/**
+	 * Maps the given key to its value.
+	 *
+	 * @param key Element key
+	 * @return String value of the given key; null, if an element with the given key does not exist.
+	 */
+	public String get(int key) {
+		PersistentBSTMapNode node = PersistentBSTMapNode.find(root.get(), key, counter);
+		return node != null ? node.value : null;
+	}
+
+	/**
+	 * @return Number of elements in the map.
+	 */
+	public int size() {
+		return PersistentBSTMapNode.size(root.get());
+	}
+
+	/**
+	 * @return Number of key comparisons made by all threads since the last reset.
+	 */
+	public long getCounter() {
+		return counter.sum();
+	}
+
+	public void resetCounter() {
+		counter.reset();
+	}
+
+	/**
+	 * Returns the current version of the map in O(1). The snapshot is not
+	 * affected by later modifications of this map.
+	 *
+	 * @return Immutable view of the current contents
+	 */
+	public PersistentBSTMap snapshot() {
+		return new PersistentBSTMap(root.get(), counter);
+	}
+
+	/*
+	 * Traversals see the version of the tree which was current when they
+	 * started, regardless of concurrent modifications.
+	 */
+
+	/**
+	 * Preorder traversal of the tree.
+	 *
+	 * @return List of node keys in preorder traversal
+	 */
+	public List<Integer> traversePreOrder() {
+		List<Integer> keys = new ArrayList<Integer>();
+		traversePreOrder(keys::add);
+		return keys;
+	}
+
+	public void traversePreOrder(IntConsumer action) {
+		PersistentBSTMapNode.traversePreOrder(root.get(), action);
+	}
+
+	/**
+	 * Inorder traversal of the tree.
+	 *
+	 * @return List of node keys in inorder traversal
+	 */
+	public List<Integer> traverseInOrder() {
+		List<Integer> keys = new ArrayList<Integer>();
+		traverseInOrder(keys::add);
+		return keys;
+	}
+
+	public void traverseInOrder(IntConsumer action) {
+		PersistentBSTMapNode.traverseInOrder(root.get(), action);
+	}
+
+	/**
+	 * Postorder traversal of the tree.
+	 *
+	 * @return List of node keys in postorder traversal
+	 */
+	public List<Integer> traversePostOrder() {
+		List<Integer> keys = new ArrayList<Integer>();
+		traversePostOrder(keys::add);
+		return keys;
+	}
+
+	public void traversePostOrder(IntConsumer action) {
+		PersistentBSTMapNode.traversePostOrder(root.get(), action);
+	}
+
+	/**
+	 * Breadth-first (or level order) traversal of the tree.
+	 *
+	 * @return List of node keys in level order traversal
+	 */
+	public List<Integer> traverseLevelOrder() {
+		List<Integer> keys = new ArrayList<Integer>();
+		traverseLevelOrder(keys::add);
+		return keys;
+	}
+
+	public void traverseLevelOrder(IntConsumer action) {
+		PersistentBSTMapNode.traverseLevelOrder(root.get(), action);
+	}
+}
@@ -0,0 +1,710 @@
+package aps2.bstmap;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+/**
+ * Disk-resident AVL tree for mapping integer -> string.
+ *
+ * The nodes are fixed-size records in a memory-mapped node file and the values
+ * are length-prefixed UTF-8 strings in a memory-mapped heap file next to it.
+ * Opening a map only reads the header and maps the files, lookups read the
+ * records straight from the mapping. Both files are mapped in fixed-size
+ * segments, so they are not limited by the 2 GB of a single buffer.
+ *
+ * Both files are append-only: add and remove copy the O(log n) records on the
+ * search path like PersistentBSTMap does, and never overwrite a record which
+ * may be reachable from the last checkpoint. checkpoint() flushes the new
+ * records and then publishes the new root in the header, so after a crash the
+ * map reopens in the state of the last checkpoint.
+ *
+ * Superseded records and the strings of removed elements are reclaimed by
+ * compaction, which writes the live elements as a perfectly balanced tree
+ * into new files and then renames the new node file over the old one. The
+ * heap file carries a generation number in its name, so the header of either
+ * node file always points to a complete heap file. checkpoint() compacts
+ * when the garbage exceeds the live data. A file must be opened by a single
+ * MappedBSTMap at a time while it is being written.
+ */
+public class MappedBSTMap implements Closeable {
+	private static final int MAGIC = 0x42535431; // "BST1"
+	private static final int VERSION = 2;
+	private static final int NIL = -1;
+
+	// header layout
+	private static final int HEADER = 64;
+	private static final int H_MAGIC = 0, H_VERSION = 4, H_ROOT = 8, H_NODES = 12, H_SIZE = 16, H_GENERATION = 20,
+			H_HEAP_END = 24, H_HEAP_LIVE = 32;
+
+	// node record layout
+	private static final int RECORD = 24;
+	private static final int R_KEY = 0, R_LEFT = 4, R_RIGHT = 8, R_HEIGHT = 12, R_VALUE = 16;
+
+	// the node file is mapped in segments of 2^20 records after the header, the heap file in segments of 64 MB
+	private static final int NODE_SEGMENT_BITS = 20;
+	private static final int HEAP_SEGMENT_BITS = 26;
+	private static final long HEAP_SEGMENT = 1L << HEAP_SEGMENT_BITS;
+
+	// garbage, in bytes, below which checkpoint does not compact
+	private static final long COMPACT_MIN = 1 << 24;
+
+	private final Path path;
+	private FileChannel nodeChannel, heapChannel;
+	private MappedByteBuffer header;
+	private MappedByteBuffer[] nodes, heap;
+	private int root;      // record index of the root
+	private int top;       // number of records in the node file
+	private int size;      // number of elements
+	private int generation; // of the heap file
+	private long heapEnd;  // first free byte in the heap file
+	private long heapLive; // bytes of the strings of the elements
+	private int checkpointTop;      // records and heap bytes which are durable
+	private long checkpointHeapEnd;
+	private int counter;
+
+	/**
+	 * Opens the map stored in the given node file, or creates an empty one.
+	 * The values are stored in a file with the same name and suffix ".heap",
+	 * followed by the generation number after the first compaction.
+	 *
+	 * @param path Path of the node file
+	 * @throws IOException if the files cannot be opened or are not a valid map
+	 */
+	public MappedBSTMap(Path path) throws IOException {
+		this.path = path;
+		nodeChannel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			boolean exists = nodeChannel.size() >= HEADER;
+			header = nodeChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER);
+			if (exists) {
+				if (header.getInt(H_MAGIC) != MAGIC || header.getInt(H_VERSION) != VERSION)
+					throw new IOException(path + " is not a map file of version " + VERSION);
+				root = header.getInt(H_ROOT);
+				top = header.getInt(H_NODES);
+				size = header.getInt(H_SIZE);
+				generation = header.getInt(H_GENERATION);
+				heapEnd = header.getLong(H_HEAP_END);
+				heapLive = header.getLong(H_HEAP_LIVE);
+			} else {
+				root = NIL;
+				header.putInt(H_MAGIC, MAGIC);
+				header.putInt(H_VERSION, VERSION);
+			}
+			// leftovers of a compaction which did not finish, or did not delete the old heap
+			Files.deleteIfExists(compactPath());
+			Files.deleteIfExists(heapPath(generation + 1));
+			if (generation > 0)
+				Files.deleteIfExists(heapPath(generation - 1));
+			heapChannel = FileChannel.open(heapPath(generation), StandardOpenOption.CREATE, StandardOpenOption.READ,
+					StandardOpenOption.WRITE);
+			nodes = map(nodeChannel, new MappedByteBuffer[0], HEADER, NODE_SEGMENT_BITS, RECORD, top);
+			heap = map(heapChannel, new MappedByteBuffer[0], 0, HEAP_SEGMENT_BITS, 1, heapEnd);
+			if (!exists)
+				checkpoint();
+			checkpointTop = top;
+			checkpointHeapEnd = heapEnd;
+		} catch (IOException e) {
+			nodeChannel.close();
+			if (heapChannel != null)
+				heapChannel.close();
+			throw e;
+		}
+	}
+
+	private Path heapPath(int generation) {
+		return Paths.get(path + (generation > 0 ? ".heap." + generation : ".heap"));
+	}
+
+	private Path compactPath() {
+		return Paths.get(path + ".compact");
+	}
+
+	/**
+	 * Maps more segments of the file, until the given number of records or
+	 * bytes fits into them. The file grows with the mapping.
+	 *
+	 * @param base File position of the first segment
+	 * @param bits Records or bytes per segment, as a power of two
+	 * @param unit Bytes of a record, or 1
+	 * @param units Records or bytes which must fit
+	 * @return The mapped segments; the given array, if they already fit.
+	 */
+	private static MappedByteBuffer[] map(FileChannel channel, MappedByteBuffer[] segments, long base, int bits,
+			int unit, long units) throws IOException {
+		long needed = (units + (1L << bits) - 1) >>> bits;
+		if (needed <= segments.length)
+			return segments;
+		if (needed > Integer.MAX_VALUE)
+			throw new IOException("Map file would exceed " + Integer.MAX_VALUE + " segments");
+		long segmentBytes = (long) unit << bits;
+		MappedByteBuffer[] grown = Arrays.copyOf(segments, (int) needed);
+		for (int i = segments.length; i < grown.length; i++)
+			grown[i] = channel.map(FileChannel.MapMode.READ_WRITE, base + i * segmentBytes, segmentBytes);
+		return grown;
+	}
+
+	/**
+	 * Flushes the segments from the one holding the given record or byte on.
+	 */
+	private static void force(MappedByteBuffer[] segments, long from, int bits) {
+		for (int i = (int) (from >>> bits); i < segments.length; i++)
+			segments[i].force();
+	}
+
+	/*
+	 * Record accessors
+	 */
+
+	private static int position(int node) {
+		return (node & ((1 << NODE_SEGMENT_BITS) - 1)) * RECORD;
+	}
+
+	private static MappedByteBuffer segment(MappedByteBuffer[] nodes, int node) {
+		return nodes[node >>> NODE_SEGMENT_BITS];
+	}
+
+	private int key(int node) {
+		return segment(nodes, node).getInt(position(node) + R_KEY);
+	}
+
+	private int left(int node) {
+		return segment(nodes, node).getInt(position(node) + R_LEFT);
+	}
+
+	private int right(int node) {
+		return segment(nodes, node).getInt(position(node) + R_RIGHT);
+	}
+
+	private static int height(MappedByteBuffer[] nodes, int node) {
+		return node != NIL ? segment(nodes, node).getInt(position(node) + R_HEIGHT) : 0;
+	}
+
+	private int height(int node) {
+		return height(nodes, node);
+	}
+
+	private long valueOffset(int node) {
+		return segment(nodes, node).getLong(position(node) + R_VALUE);
+	}
+
+	private static void putRecord(MappedByteBuffer[] nodes, int node, int left, int right, int key, long value) {
+		MappedByteBuffer segment = segment(nodes, node);
+		int o = position(node);
+		segment.putInt(o + R_KEY, key);
+		segment.putInt(o + R_LEFT, left);
+		segment.putInt(o + R_RIGHT, right);
+		segment.putInt(o + R_HEIGHT, Math.max(height(nodes, left), height(nodes, right)) + 1);
+		segment.putLong(o + R_VALUE, value);
+	}
+
+	/**
+	 * Appends a new record.
+	 *
+	 * @return Index of the record
+	 */
+	private int newNode(int left, int right, int key, long value) throws IOException {
+		if (top == Integer.MAX_VALUE)
+			throw new IOException("Map file is full");
+		nodes = map(nodeChannel, nodes, HEADER, NODE_SEGMENT_BITS, RECORD, top + 1L);
+		int node = top++;
+		putRecord(nodes, node, left, right, key, value);
+		return node;
+	}
+
+	/*
+	 * String heap. A string may cross the border of two segments, so it is
+	 * copied piecewise.
+	 */
+
+	private static void read(MappedByteBuffer[] heap, long offset, byte[] bytes) {
+		for (int done = 0; done < bytes.length; ) {
+			ByteBuffer source = heap[(int) (offset >>> HEAP_SEGMENT_BITS)].duplicate();
+			source.position((int) (offset & (HEAP_SEGMENT - 1)));
+			int count = Math.min(source.remaining(), bytes.length - done);
+			source.get(bytes, done, count);
+			done += count;
+			offset += count;
+		}
+	}
+
+	private static void write(MappedByteBuffer[] heap, long offset, byte[] bytes) {
+		for (int done = 0; done < bytes.length; ) {
+			ByteBuffer target = heap[(int) (offset >>> HEAP_SEGMENT_BITS)].duplicate();
+			target.position((int) (offset & (HEAP_SEGMENT - 1)));
+			int count = Math.min(target.remaining(), bytes.length - done);
+			target.put(bytes, done, count);
+			done += count;
+			offset += count;
+		}
+	}
+
+	private static int length(MappedByteBuffer[] heap, long offset) {
+		byte[] length = new byte[4];
+		read(heap, offset, length);
+		return ByteBuffer.wrap(length).getInt();
+	}
+
+	/**
+	 * @return UTF-8 bytes of the string at the given offset, without the length.
+	 */
+	private static byte[] getBytes(MappedByteBuffer[] heap, long offset) {
+		byte[] bytes = new byte[length(heap, offset)];
+		read(heap, offset + 4, bytes);
+		return bytes;
+	}
+
+	/**
+	 * Writes the length-prefixed bytes at the given end of a heap, mapping
+	 * more of it if needed.
+	 *
+	 * @return The mapped segments of the heap.
+	 */
+	private static MappedByteBuffer[] append(FileChannel channel, MappedByteBuffer[] heap, long end, byte[] bytes)
+			throws IOException {
+		heap = map(channel, heap, 0, HEAP_SEGMENT_BITS, 1, end + 4 + bytes.length);
+		write(heap, end, ByteBuffer.allocate(4).putInt(0, bytes.length).array());
+		write(heap, end + 4, bytes);
+		return heap;
+	}
+
+	/**
+	 * Appends a string to the heap.
+	 *
+	 * @return Offset of the string; -1 for null.
+	 */
+	private long putString(String value) throws IOException {
+		if (value == null)
+			return -1;
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		long offset = heapEnd;
+		heap = append(heapChannel, heap, offset, bytes);
+		heapEnd += 4 + bytes.length;
+		heapLive += 4 + bytes.length;
+		return offset;
+	}
+
+	private String getString(long offset) {
+		if (offset < 0)
+			return null;
+		return new String(getBytes(heap, offset), StandardCharsets.UTF_8);
+	}
+
+	private int compare(int key, int node) {
+		counter++;
+		return Integer.compare(key, key(node));
+	}
+
+	private int find(int key) {
+		int node = root;
+		while (node != NIL) {
+			int c = compare(key, node);
+			if (c == 0) return node;
+			node = c < 0 ? left(node) : right(node);
+		}
+		return NIL;
+	}
+
+	/**
+	 * If the element doesn't exist yet, inserts it into the set. The change
+	 * becomes durable with the next checkpoint.
+	 *
+	 * @param key Element key
+	 * @param value Element value
+	 * @return true, if element was added; false otherwise.
+	 * @throws IOException if the files cannot be extended
+	 */
+	public boolean add(int key, String value) throws IOException {
+		if (find(key) != NIL)
+			return false;
+		root = insert(root, key, putString(value));
+		size++;
+		return true;
+	}
+
+	private int insert(int node, int key, long value) throws IOException {
+		if (node == NIL)
+			return newNode(NIL, NIL, key, value);
+		if (Integer.compare(key, key(node)) < 0)
+			return balance(insert(left(node), key, value), right(node), key(node), valueOffset(node));
+		return balance(left(node), insert(right(node), key, value), key(node), valueOffset(node));
+	}
+
+	/**
+	 * Removes the element from the set. The change becomes durable with the
+	 * next checkpoint.
+	 *
+	 * @param key Element key
+	 * @return true, if the element was removed; otherwise false
+	 * @throws IOException if the files cannot be extended
+	 */
+	public boolean remove(int key) throws IOException {
+		int node = find(key);
+		if (node == NIL)
+			return false;
+		long value = valueOffset(node);
+		if (value >= 0)
+			heapLive -= 4 + length(heap, value);
+		root = delete(root, key);
+		size--;
+		return true;
+	}
+
+	private int delete(int node, int key) throws IOException {
+		int c = Integer.compare(key, key(node));
+		if (c < 0)
+			return balance(delete(left(node), key), right(node), key(node), valueOffset(node));
+		if (c > 0)
+			return balance(left(node), delete(right(node), key), key(node), valueOffset(node));
+		if (left(node) == NIL) return right(node);
+		if (right(node) == NIL) return left(node);
+		int successor = right(node);
+		while (left(successor) != NIL)
+			successor = left(successor);
+		return balance(left(node), deleteMin(right(node)), key(successor), valueOffset(successor));
+	}
+
+	private int deleteMin(int node) throws IOException {
+		if (left(node) == NIL)
+			return right(node);
+		return balance(deleteMin(left(node)), right(node), key(node), valueOffset(node));
+	}
+
+	/**
+	 * Appends a record for a node with the given AVL subtrees whose heights
+	 * differ by at most two, rotating if needed.
+	 *
+	 * @return Index of the subtree root
+	 */
+	private int balance(int l, int r, int key, long value) throws IOException {
+		int balance = height(r) - height(l);
+		if (balance > 1) {
+			if (height(right(r)) < height(left(r))) {
+				int rl = left(r);
+				return newNode(newNode(l, left(rl), key, value),
+						newNode(right(rl), right(r), key(r), valueOffset(r)),
+						key(rl), valueOffset(rl));
+			}
+			return newNode(newNode(l, left(r), key, value), right(r), key(r), valueOffset(r));
+		}
+		if (balance < -1) {
+			if (height(left(l)) < height(right(l))) {
+				int lr = right(l);
+				return newNode(newNode(left(l), left(lr), key(l), valueOffset(l)),
+						newNode(right(lr), r, key, value),
+						key(lr), valueOffset(lr));
+			}
+			return newNode(left(l), newNode(right(l), r, key, value), key(l), valueOffset(l));
+		}
+		return newNode(l, r, key, value);
+	}
+
+	/**
+	 * Finds the element.
+	 *
+	 * @param key Element key
+	 * @return true, if the element was found; false otherwise.
+	 */
+	public boolean contains(int key) {
+		return find(key) != NIL;
+	}
+
+	/**
+	 * Maps the given key to its value.
+	 *
+	 * @param key Element key
+	 * @return String value of the given key; null, if an element with the given key does not exist.
+	 */
+	public String get(int key) {
+		int node = find(key);
+		return node != NIL ? getString(valueOffset(node)) : null;
+	}
+
+	/**
+	 * @return Number of elements in the map.
+	 */
+	public int size() {
+		return size;
+	}
+
+	public int getCounter() {
+		return counter;
+	}
+
+	public void resetCounter() {
+		counter = 0;
+	}
+
+	private static void writeHeader(MappedByteBuffer header, int root, int nodes, int size, int generation,
+			long heapEnd, long heapLive) {
+		header.putInt(H_ROOT, root);
+		header.putInt(H_NODES, nodes);
+		header.putInt(H_SIZE, size);
+		header.putInt(H_GENERATION, generation);
+		header.putLong(H_HEAP_END, heapEnd);
+		header.putLong(H_HEAP_LIVE, heapLive);
+	}
+
+	/**
+	 * Makes all changes durable. The new records and strings are flushed
+	 * first, then the header which points to them. If superseded records and
+	 * removed strings take more space than the elements, and at least 16 MB,
+	 * compacts instead.
+	 *
+	 * @throws IOException if flushing fails
+	 */
+	public void checkpoint() throws IOException {
+		long garbage = (long) (top - size) * RECORD + heapEnd - heapLive;
+		if (garbage > COMPACT_MIN && garbage > (long) size * RECORD + heapLive) {
+			compact();
+			return;
+		}
+		force(heap, checkpointHeapEnd, HEAP_SEGMENT_BITS);
+		force(nodes, checkpointTop, NODE_SEGMENT_BITS);
+		writeHeader(header, root, top, size, generation, heapEnd, heapLive);
+		header.force();
+		checkpointTop = top;
+		checkpointHeapEnd = heapEnd;
+	}
+
+	/**
+	 * Writes the elements of the old tree in order into the records of a
+	 * perfectly balanced tree, copying their strings.
+	 */
+	private final class Compaction {
+		private final FileChannel nodeChannel, heapChannel;
+		private MappedByteBuffer[] nodes = new MappedByteBuffer[0], heap = new MappedByteBuffer[0];
+		private long heapEnd;
+		// inorder iterator over the old tree
+		private final int[] stack = new int[height(root)];
+		private int sp;
+		private int next = root;
+
+		Compaction(FileChannel nodeChannel, FileChannel heapChannel) throws IOException {
+			this.nodeChannel = nodeChannel;
+			this.heapChannel = heapChannel;
+			nodes = map(nodeChannel, nodes, HEADER, NODE_SEGMENT_BITS, RECORD, size);
+		}
+
+		private int nextOld() {
+			for (; next != NIL; next = left(next))
+				stack[sp++] = next;
+			int node = stack[--sp];
+			next = right(node);
+			return node;
+		}
+
+		/**
+		 * Builds the subtree of the elements with inorder ranks lo to hi - 1,
+		 * which become the records with the same indices.
+		 *
+		 * @return Index of the subtree root
+		 */
+		int build(int lo, int hi) throws IOException {
+			if (lo >= hi)
+				return NIL;
+			int mid = (lo + hi) >>> 1;
+			int left = build(lo, mid);
+			int old = nextOld();
+			long value = valueOffset(old);
+			if (value >= 0) {
+				byte[] bytes = getBytes(MappedBSTMap.this.heap, value);
+				heap = append(heapChannel, heap, heapEnd, bytes);
+				value = heapEnd;
+				heapEnd += 4 + bytes.length;
+			}
+			int key = key(old);
+			int right = build(mid + 1, hi);
+			putRecord(nodes, mid, left, right, key, value);
+			return mid;
+		}
+	}
+
+	/**
+	 * Reclaims the superseded records and removed strings: writes the
+	 * elements into new files as a perfectly balanced tree, makes them
+	 * durable and renames the new node file over the old one. This makes
+	 * all changes durable, like checkpoint. It takes O(n) time.
+	 *
+	 * @throws IOException if the new files cannot be written; the map and its files are unchanged then
+	 */
+	public void compact() throws IOException {
+		Path compactPath = compactPath(), newHeapPath = heapPath(generation + 1);
+		FileChannel newNodeChannel = null, newHeapChannel = null;
+		try {
+			newNodeChannel = FileChannel.open(compactPath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+					StandardOpenOption.READ, StandardOpenOption.WRITE);
+			newHeapChannel = FileChannel.open(newHeapPath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+					StandardOpenOption.READ, StandardOpenOption.WRITE);
+			Compaction compaction = new Compaction(newNodeChannel, newHeapChannel);
+			int newRoot = compaction.build(0, size);
+			force(compaction.heap, 0, HEAP_SEGMENT_BITS);
+			force(compaction.nodes, 0, NODE_SEGMENT_BITS);
+			MappedByteBuffer newHeader = newNodeChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER);
+			newHeader.putInt(H_MAGIC, MAGIC);
+			newHeader.putInt(H_VERSION, VERSION);
+			writeHeader(newHeader, newRoot, size, size, generation + 1, compaction.heapEnd, compaction.heapEnd);
+			newHeader.force();
+			Files.move(compactPath, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			header = newHeader;
+			nodes = compaction.nodes;
+			heap = compaction.heap;
+			heapEnd = heapLive = compaction.heapEnd;
+			root = newRoot;
+		} catch (IOException e) {
+			if (newNodeChannel != null)
+				newNodeChannel.close();
+			if (newHeapChannel != null)
+				newHeapChannel.close();
+			Files.deleteIfExists(compactPath);
+			Files.deleteIfExists(newHeapPath);
+			throw e;
+		}
+		// the new files are in place, the old heap is garbage
+		FileChannel oldNodeChannel = nodeChannel, oldHeapChannel = heapChannel;
+		nodeChannel = newNodeChannel;
+		heapChannel = newHeapChannel;
+		top = size;
+		checkpointTop = top;
+		checkpointHeapEnd = heapEnd;
+		generation++;
+		try {
+			oldNodeChannel.close();
+			oldHeapChannel.close();
+		} finally {
+			Files.deleteIfExists(heapPath(generation - 1));
+		}
+	}
+
+	/**
+	 * Checkpoints and closes the files. The mapped buffers are released by
+	 * the garbage collector.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			if (nodeChannel.isOpen() && heapChannel.isOpen())
+				checkpoint();
+		} finally {
+			nodeChannel.close();
+			heapChannel.close();
+		}
+	}
+
+	/*
+	 * Records have no parent pointers, so the depth-first traversals keep the
+	 * path in an explicit stack bounded by the AVL height.
+	 */
+
+	/**
+	 * Inorder traversal of the tree.
+	 *
+	 * @return List of node keys in inorder traversal
+	 */
+	public List<Integer> traverseInOrder() {
+		List<Integer> keys = new ArrayList<Integer>(size);
+		traverseInOrder(keys::add);
+		return keys;
+	}
+
+	public void traverseInOrder(IntConsumer action) {
+		int[] stack = new int[height(root)];
+		int sp = 0;
+		int node = root;
+		while (node != NIL || sp > 0) {
+			for (; node != NIL; node = left(node))
+				stack[sp++] = node;
+			node = stack[--sp];
+			action.accept(key(node));
+			node = right(node);
+		}
+	}
+
+	/**
+	 * Preorder traversal of the tree.
+	 *
+	 * @return List of node keys in preorder traversal
+	 */
+	public List<Integer> traversePreOrder() {
+		List<Integer> keys = new ArrayList<Integer>(size);
+		traversePreOrder(keys::add);
+		return keys;
+	}
+
+	public void traversePreOrder(IntConsumer action) {
+		int[] stack = new int[height(root) + 1];
+		int sp = 0;
+		if (root != NIL)
+			stack[sp++] = root;
+		while (sp > 0) {
+			int node = stack[--sp];
+			action.accept(key(node));
+			if (right(node) != NIL) stack[sp++] = right(node);
+			if (left(node) != NIL) stack[sp++] = left(node);
+		}
+	}
+
+	/**
+	 * Postorder traversal of the tree.
+	 *
+	 * @return List of node keys in postorder traversal
+	 */
+	public List<Integer> traversePostOrder() {
+		List<Integer> keys = new ArrayList<Integer>(size);
+		traversePostOrder(keys::add);
+		return keys;
+	}
+
+	public void traversePostOrder(IntConsumer action) {
+		int[] stack = new int[height(root)];
+		int sp = 0;
+		int node = root, last = NIL;
+		while (node != NIL || sp > 0) {
+			for (; node != NIL; node = left(node))
+				stack[sp++] = node;
+			int peek = stack[sp - 1];
+			if (right(peek) != NIL && right(peek) != last) {
+				node = right(peek);
+			} else {
+				action.accept(key(peek));
+				last = stack[--sp];
+			}
+		}
+	}
+
+	/**
+	 * Breadth-first (or level order) traversal of the tree.
+	 *
+	 * @return List of node keys in level order traversal
+	 */
+	public List<Integer> traverseLevelOrder() {
+		List<Integer> keys = new ArrayList<Integer>(size);
+		traverseLevelOrder(keys::add);
+		return keys;
+	}
+
+	public void traverseLevelOrder(IntConsumer action) {
+		int[] queue = new int[size];
+		int head = 0, tail = 0;
+		if (root != NIL)
+			queue[tail++] = root;
+		while (head < tail) {
+			int node = queue[head++];
+			action.accept(key(node));
+			if (left(node) != NIL) queue[tail++] = left(node);
+			if (right(node) != NIL) queue[tail++] = right(node);
+		}
+	}
+}
@@ -0,0 +1,148 @@
+package aps2.bstmap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntConsumer;
+
+/**
+ * Persistent (immutable) AVL tree for mapping integer -> string.
+ *
+ * Every instance is one version of the map. add and remove do not change it,
+ * but return a new version which copies the O(log n) nodes on the search path
+ * and shares the rest of the tree with this one. Old versions therefore stay
+ * valid and cost nothing to keep, and can be read from any thread without
+ * locks. Versions derived from each other share one comparison counter.
+ */
+public final class PersistentBSTMap {
+	private final PersistentBSTMapNode root;
+	private final LongAdder counter;
+
+	public PersistentBSTMap() {
+		this(null, new LongAdder());
+	}
+
+	PersistentBSTMap(PersistentBSTMapNode root, LongAdder counter) {
+		this.root = root;
+		this.counter = counter;
+	}
+
+	/**
+	 * If the element doesn't exist yet, creates a version which contains it.
+	 *
+	 * @param key Element key
+	 * @param value Element value
+	 * @return The new version; this version, if the key already exists.
+	 */
+	public PersistentBSTMap add(int key, String value) {
+		PersistentBSTMapNode next = PersistentBSTMapNode.insert(root, key, value, counter);
+		return next != root ? new PersistentBSTMap(next, counter) : this;
+	}
+
+	/**
+	 * Creates a version without the element.
+	 *
+	 * @param key Element key
+	 * @return The new version; this version, if the key does not exist.
+	 */
+	public PersistentBSTMap remove(int key) {
+		PersistentBSTMapNode next = PersistentBSTMapNode.delete(root, key, counter);
+		return next != root ? new PersistentBSTMap(next, counter) : this;
+	}
+
+	/**
+	 * Finds the element.
+	 *
+	 * @param key Element key
+	 * @return true, if the element was found; false otherwise.
+	 */
+	public boolean contains(int key) {
+		return PersistentBSTMapNode.find(root, key, counter) != null;
+	}
+
+	/**
+	 * Maps the given key to its value.
+	 *
+	 * @param key Element key
+	 * @return String value of the given key; null, if an element with the given key does not exist.
+	 */
+	public String get(int key) {
+		PersistentBSTMapNode node = PersistentBSTMapNode.find(root, key, counter);
+		return node != null ? node.value : null;
+	}
+
+	/**
+	 * @return Number of elements in this version.
+	 */
+	public int size() {
+		return PersistentBSTMapNode.size(root);
+	}
+
+	public long getCounter() {
+		return counter.sum();
+	}
+
+	public void resetCounter() {
+		counter.reset();
+	}
+
+	/**
+	 * Preorder traversal of the tree.
+	 *
+	 * @return List of node keys in preorder traversal
+	 */
+	public List<Integer> traversePreOrder() {
+		List<Integer> keys = new ArrayList<Integer>(size());
+		traversePreOrder(keys::add);
+		return keys;
+	}
+
+	public void traversePreOrder(IntConsumer action) {
+		PersistentBSTMapNode.traversePreOrder(root, action);
+	}
+
+	/**
+	 * Inorder traversal of the tree.
+	 *
+	 * @return List of node keys in inorder traversal
+	 */
+	public List<Integer> traverseInOrder() {
+		List<Integer> keys = new ArrayList<Integer>(size());
+		traverseInOrder(keys::add);
+		return keys;
+	}
+
+	public void traverseInOrder(IntConsumer action) {
+		PersistentBSTMapNode.traverseInOrder(root, action);
+	}
+
+	/**
+	 * Postorder traversal of the tree.
+	 *
+	 * @return List of node keys in postorder traversal
+	 */
+	public List<Integer> traversePostOrder() {
+		List<Integer> keys = new ArrayList<Integer>(size());
+		traversePostOrder(keys::add);
+		return keys;
+	}
+
+	public void traversePostOrder(IntConsumer action) {
+		PersistentBSTMapNode.traversePostOrder(root, action);
+	}
+
+	/**
+	 * Breadth-first (or level order) traversal of the tree.
+	 *
+	 * @return List of node keys in level order traversal
+	 */
+	public List<Integer> traverseLevelOrder() {
+		List<Integer> keys = new ArrayList<Integer>(size());
+		traverseLevelOrder(keys::add);
+		return keys;
+	}
+
+	public void traverseLevelOrder(IntConsumer action) {
+		PersistentBSTMapNode.traverseLevelOrder(root, action);
+	}
+}
@@ -0,0 +1,211 @@
+package aps2.bstmap;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntConsumer;
+
+/**
+ * Immutable AVL tree node. Modifications copy the nodes on the path from the
+ * root to the changed node and share all other subtrees with the previous
+ * version, so any published root stays a consistent tree forever and can be
+ * read without synchronization.
+ */
+final class PersistentBSTMapNode {
+	final PersistentBSTMapNode left, right;
+	final int key;
+	final String value;
+	final int height; // height of the subtree, a leaf has height 1
+	final int size;   // number of nodes in the subtree
+
+	private PersistentBSTMapNode(PersistentBSTMapNode left, PersistentBSTMapNode right, int key, String value) {
+		this.left = left;
+		this.right = right;
+		this.key = key;
+		this.value = value;
+		this.height = Math.max(height(left), height(right)) + 1;
+		this.size = size(left) + size(right) + 1;
+	}
+
+	static int height(PersistentBSTMapNode node) {
+		return node != null ? node.height : 0;
+	}
+
+	static int size(PersistentBSTMapNode node) {
+		return node != null ? node.size : 0;
+	}
+
+	private static int compare(int key, PersistentBSTMapNode node, LongAdder counter) {
+		counter.increment();
+		return Integer.compare(key, node.key);
+	}
+
+	/**
+	 * Finds the node with the given key.
+	 *
+	 * @param node Root of the tree
+	 * @param key Query key
+	 * @param counter Counts the comparisons
+	 * @return Node with the given key; null, if it does not exist.
+	 */
+	static PersistentBSTMapNode find(PersistentBSTMapNode node, int key, LongAdder counter) {
+		while (node != null) {
+			int c = compare(key, node, counter);
+			if (c == 0) return node;
+			node = c < 0 ? node.left : node.right;
+		}
+		return null;
+	}
+
+	/**
+	 * If the key doesn't exist yet, adds it to the tree.
+	 *
+	 * @param node Root of the tree
+	 * @param key Element key
+	 * @param value Element value
+	 * @param counter Counts the comparisons
+	 * @return Root of the new version; the given root, if the key already exists.
+	 */
+	static PersistentBSTMapNode insert(PersistentBSTMapNode node, int key, String value, LongAdder counter) {
+		if (node == null)
+			return new PersistentBSTMapNode(null, null, key, value);
+		int c = compare(key, node, counter);
+		if (c == 0)
+			return node;
+		if (c < 0) {
+			PersistentBSTMapNode l = insert(node.left, key, value, counter);
+			return l == node.left ? node : balance(l, node.right, node.key, node.value);
+		} else {
+			PersistentBSTMapNode r = insert(node.right, key, value, counter);
+			return r == node.right ? node : balance(node.left, r, node.key, node.value);
+		}
+	}
+
+	/**
+	 * Removes the key from the tree.
+	 *
+	 * @param node Root of the tree
+	 * @param key Element key
+	 * @param counter Counts the comparisons
+	 * @return Root of the new version; the given root, if the key does not exist.
+	 */
+	static PersistentBSTMapNode delete(PersistentBSTMapNode node, int key, LongAdder counter) {
+		if (node == null)
+			return null;
+		int c = compare(key, node, counter);
+		if (c < 0) {
+			PersistentBSTMapNode l = delete(node.left, key, counter);
+			return l == node.left ? node : balance(l, node.right, node.key, node.value);
+		}
+		if (c > 0) {
+			PersistentBSTMapNode r = delete(node.right, key, counter);
+			return r == node.right ? node : balance(node.left, r, node.key, node.value);
+		}
+		if (node.left == null) return node.right;
+		if (node.right == null) return node.left;
+		PersistentBSTMapNode successor = node.right;
+		while (successor.left != null)
+			successor = successor.left;
+		return balance(node.left, deleteMin(node.right), successor.key, successor.value);
+	}
+
+	private static PersistentBSTMapNode deleteMin(PersistentBSTMapNode node) {
+		if (node.left == null)
+			return node.right;
+		return balance(deleteMin(node.left), node.right, node.key, node.value);
+	}
+
+	/**
+	 * Creates a node from two AVL subtrees whose heights differ by at most
+	 * two, rotating if needed.
+	 *
+	 * @return Root of the balanced subtree
+	 */
+	private static PersistentBSTMapNode balance(PersistentBSTMapNode l, PersistentBSTMapNode r, int key, String value) {
+		int balance = height(r) - height(l);
+		if (balance > 1) {
+			if (height(r.right) < height(r.left)) {
+				PersistentBSTMapNode rl = r.left;
+				return new PersistentBSTMapNode(
+						new PersistentBSTMapNode(l, rl.left, key, value),
+						new PersistentBSTMapNode(rl.right, r.right, r.key, r.value),
+						rl.key, rl.value);
+			}
+			return new PersistentBSTMapNode(new PersistentBSTMapNode(l, r.left, key, value), r.right, r.key, r.value);
+		}
+		if (balance < -1) {
+			if (height(l.left) < height(l.right)) {
+				PersistentBSTMapNode lr = l.right;
+				return new PersistentBSTMapNode(
+						new PersistentBSTMapNode(l.left, lr.left, l.key, l.value),
+						new PersistentBSTMapNode(lr.right, r, key, value),
+						lr.key, lr.value);
+			}
+			return new PersistentBSTMapNode(l.left, new PersistentBSTMapNode(l.right, r, key, value), l.key, l.value);
+		}
+		return new PersistentBSTMapNode(l, r, key, value);
+	}
+
+	/*
+	 * Nodes have no parent pointers, so the depth-first traversals keep the
+	 * path in an explicit stack. Its depth is bounded by the AVL height.
+	 */
+
+	private static PersistentBSTMapNode[] stack(PersistentBSTMapNode root) {
+		return new PersistentBSTMapNode[height(root)];
+	}
+
+	static void traversePreOrder(PersistentBSTMapNode root, IntConsumer action) {
+		PersistentBSTMapNode[] stack = new PersistentBSTMapNode[height(root) + 1];
+		int top = 0;
+		if (root != null)
+			stack[top++] = root;
+		while (top > 0) {
+			PersistentBSTMapNode node = stack[--top];
+			action.accept(node.key);
+			if (node.right != null) stack[top++] = node.right;
+			if (node.left != null) stack[top++] = node.left;
+		}
+	}
+
+	static void traverseInOrder(PersistentBSTMapNode root, IntConsumer action) {
+		PersistentBSTMapNode[] stack = stack(root);
+		int top = 0;
+		PersistentBSTMapNode node = root;
+		while (node != null || top > 0) {
+			for (; node != null; node = node.left)
+				stack[top++] = node;
+			node = stack[--top];
+			action.accept(node.key);
+			node = node.right;
+		}
+	}
+
+	static void traversePostOrder(PersistentBSTMapNode root, IntConsumer action) {
+		PersistentBSTMapNode[] stack = stack(root);
+		int top = 0;
+		PersistentBSTMapNode node = root, last = null;
+		while (node != null || top > 0) {
+			for (; node != null; node = node.left)
+				stack[top++] = node;
+			PersistentBSTMapNode peek = stack[top - 1];
+			if (peek.right != null && peek.right != last) {
+				node = peek.right;
+			} else {
+				action.accept(peek.key);
+				last = stack[--top];
+			}
+		}
+	}
+
+	static void traverseLevelOrder(PersistentBSTMapNode root, IntConsumer action) {
+		PersistentBSTMapNode[] queue = new PersistentBSTMapNode[size(root)];
+		int head = 0, tail = 0;
+		if (root != null)
+			queue[tail++] = root;
+		while (head < tail) {
+			PersistentBSTMapNode node = queue[head++];
+			action.accept(node.key);
+			if (node.left != null) queue[tail++] = node.left;
+			if (node.right != null) queue[tail++] = node.right;
+		}
+	}
+}
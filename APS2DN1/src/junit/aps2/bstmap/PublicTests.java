@@ -1,6 +1,14 @@
 package aps2.bstmap;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
 import junit.framework.TestCase;
 
 public class PublicTests extends TestCase {
@@ -64,4 +72,424 @@ public class PublicTests extends TestCase {
 		bst.add(5000, "Novo Mesto");
 		assertEquals(Arrays.asList(4000, 2000, 1000, 3000, 6000, 5000), bst.traversePreOrder());
 	}
+
+	public void testAVLNumberOfCompares() {
+		bst = new BSTMap(BSTMap.BalancingMethod.AVL);
+		bst.add(1000, "Ljubljana");
+		bst.add(2000, "Maribor");
+		bst.add(3000, "Celje");
+		bst.add(4000, "Kranj");
+		bst.add(5000, "Novo Mesto");
+		bst.add(6000, "Koper");
+		bst.resetCounter();
+		bst.contains(5000);
+		assertEquals(2, bst.getCounter());
+		assertEquals(Arrays.asList(4000, 2000, 1000, 3000, 5000, 6000), bst.traversePreOrder());
+	}
+
+	public void testAVLSortedInsertRemove() {
+		bst = new BSTMap(BSTMap.BalancingMethod.AVL);
+		for (int i = 0; i < 100000; i++)
+			assertTrue(bst.add(i, Integer.toString(i)));
+		bst.resetCounter();
+		assertEquals("99999", bst.get(99999));
+		assertTrue(bst.getCounter() <= 17);
+		for (int i = 0; i < 100000; i += 2)
+			assertTrue(bst.remove(i));
+		assertFalse(bst.contains(5000));
+		assertEquals("5001", bst.get(5001));
+		bst.resetCounter();
+		bst.contains(99999);
+		assertTrue(bst.getCounter() <= 16);
+	}
+
+	public void testBSTDegenerateTraversal() {
+		for (int i = 0; i < 30000; i++)
+			bst.add(i, null);
+		assertTrue(bst.contains(29999));
+		assertEquals(30000, bst.traversePostOrder().size());
+		assertTrue(bst.remove(29999));
+		assertEquals(29998, (int) bst.traverseInOrder().get(29998));
+	}
+
+	public void testBSTIterator() {
+		bst.add(4000, "Kranj");
+		bst.add(2000, "Maribor");
+		bst.add(6000, "Koper");
+		bst.add(1000, "Ljubljana");
+		bst.add(3000, "Celje");
+		bst.add(5000, "Novo Mesto");
+		BSTMapIterator it = bst.iterator();
+		for (int key : bst.traverseInOrder()) {
+			assertTrue(it.hasNext());
+			assertEquals(key, it.nextInt());
+			assertEquals(bst.get(key), it.value());
+		}
+		assertFalse(it.hasNext());
+		assertEquals(Arrays.asList(1000, 3000, 2000, 5000, 6000, 4000), bst.traversePostOrder());
+		assertEquals(Arrays.asList(4000, 2000, 6000, 1000, 3000, 5000), bst.traverseLevelOrder());
+	}
+
+	public void testBSTExtremeKeysToArray() {
+		bst.add(0, "zero");
+		bst.add(Integer.MIN_VALUE, "min");
+		bst.add(Integer.MAX_VALUE, "max");
+		bst.add(-1, "minus one");
+		assertEquals("min", bst.get(Integer.MIN_VALUE));
+		assertEquals("max", bst.get(Integer.MAX_VALUE));
+		assertEquals(4, bst.size());
+		assertTrue(Arrays.equals(new int[] {Integer.MIN_VALUE, -1, 0, Integer.MAX_VALUE}, bst.toArray()));
+		assertTrue(bst.remove(Integer.MIN_VALUE));
+		assertEquals(3, bst.size());
+	}
+
+	public void testArrayBSTContainsGetRemove() {
+		BSTMapArray map = new BSTMapArray(2, BSTMap.BalancingMethod.None);
+		map.add(1000, "Ljubljana");
+		map.add(2000, "Maribor");
+		map.add(3000, "Celje");
+		map.add(4000, "Kranj");
+		map.add(5000, "Novo Mesto");
+		map.add(6000, "Koper");
+		assertEquals("Kranj", map.get(4000));
+		map.resetCounter();
+		map.contains(5000);
+		assertEquals(5, map.getCounter());
+		assertTrue(map.remove(4000));
+		assertFalse(map.contains(4000));
+		assertEquals(null, map.get(4000));
+		assertTrue(map.add(4500, "Postojna"));
+		assertEquals(Arrays.asList(1000, 2000, 3000, 5000, 4500, 6000), map.traversePreOrder());
+	}
+
+	public void testArrayBSTTraversePreOrder() {
+		BSTMapArray map = new BSTMapArray();
+		map.add(4000, "Kranj");
+		map.add(2000, "Maribor");
+		map.add(6000, "Koper");
+		map.add(1000, "Ljubljana");
+		map.add(3000, "Celje");
+		map.add(5000, "Novo Mesto");
+		assertEquals(Arrays.asList(4000, 2000, 1000, 3000, 6000, 5000), map.traversePreOrder());
+		assertEquals(Arrays.asList(1000, 3000, 2000, 5000, 6000, 4000), map.traversePostOrder());
+		assertTrue(map.remove(2000));
+		map.compact();
+		assertEquals(Arrays.asList(4000, 3000, 1000, 6000, 5000), map.traversePreOrder());
+		assertEquals("Ljubljana", map.get(1000));
+		assertTrue(map.add(2000, "Maribor"));
+		assertEquals(Arrays.asList(4000, 3000, 6000, 1000, 5000, 2000), map.traverseLevelOrder());
+	}
+
+	public void testBSTFloorCeilingRankSelect() {
+		bst = new BSTMap(BSTMap.BalancingMethod.AVL);
+		for (int i = 1; i <= 10; i++)
+			bst.add(i * 1000, Integer.toString(i));
+		assertEquals(Integer.valueOf(4000), bst.floor(4500));
+		assertEquals(Integer.valueOf(4000), bst.floor(4000));
+		assertEquals(Integer.valueOf(3000), bst.lower(4000));
+		assertEquals(Integer.valueOf(5000), bst.ceiling(4500));
+		assertEquals(Integer.valueOf(5000), bst.higher(4000));
+		assertEquals(null, bst.floor(999));
+		assertEquals(null, bst.higher(10000));
+		assertEquals(3, bst.rank(4000));
+		assertEquals(4, bst.rank(4500));
+		assertEquals(7000, bst.select(6));
+		assertTrue(bst.remove(3000));
+		assertEquals(2, bst.rank(4000));
+		assertEquals(8000, bst.select(6));
+		for (int i = 0; i < bst.size(); i++)
+			assertEquals(i, bst.rank(bst.select(i)));
+	}
+
+	public void testBSTSubMap() {
+		for (int i = 1; i <= 10; i++)
+			bst.add(i * 1000, Integer.toString(i));
+		BSTMapIterator it = bst.subMap(2500, 6000);
+		for (int key = 3000; key < 6000; key += 1000) {
+			assertTrue(it.hasNext());
+			assertEquals(key, it.nextInt());
+			assertEquals(Integer.toString(key / 1000), it.value());
+		}
+		assertFalse(it.hasNext());
+		assertFalse(bst.subMap(6000, 6000).hasNext());
+		assertEquals(6000, bst.subMap(6000, true, 6000, true).nextInt());
+		assertFalse(bst.subMap(10001, 20000).hasNext());
+	}
+
+	public void testBSTBulkLoad() {
+		bst = new BSTMap(new int[] {1000, 2000, 3000, 4000, 5000, 6000},
+				new String[] {"Ljubljana", "Maribor", "Celje", "Kranj", "Novo Mesto", "Koper"},
+				BSTMap.BalancingMethod.AVL);
+		assertEquals(Arrays.asList(4000, 2000, 1000, 3000, 6000, 5000), bst.traversePreOrder());
+		assertEquals("Celje", bst.get(3000));
+		assertEquals(2, bst.rank(3000));
+
+		assertEquals(2, bst.addAll(new int[] {500, 3000, 7000}, new String[] {"Ptuj", "Trbovlje", "Bled"}));
+		assertEquals(8, bst.size());
+		assertEquals("Celje", bst.get(3000));
+		assertEquals("Ptuj", bst.get(500));
+		assertEquals(Arrays.asList(500, 1000, 2000, 3000, 4000, 5000, 6000, 7000), bst.traverseInOrder());
+		bst.resetCounter();
+		bst.contains(7000);
+		assertEquals(3, bst.getCounter());
+	}
+
+	public void testConcurrentBSTContainsGetRemove() {
+		ConcurrentBSTMap map = new ConcurrentBSTMap();
+		map.add(1000, "Ljubljana");
+		map.add(2000, "Maribor");
+		map.add(3000, "Celje");
+		map.add(4000, "Kranj");
+		map.add(5000, "Novo Mesto");
+		map.add(6000, "Koper");
+		assertFalse(map.add(6000, "Izola"));
+		assertEquals("Koper", map.get(6000));
+		assertEquals(Arrays.asList(4000, 2000, 1000, 3000, 5000, 6000), map.traversePreOrder());
+		map.resetCounter();
+		map.contains(5000);
+		assertEquals(2, map.getCounter());
+		assertTrue(map.remove(4000));
+		assertFalse(map.contains(4000));
+		assertEquals(Arrays.asList(1000, 2000, 3000, 5000, 6000), map.traverseInOrder());
+	}
+
+	public void testConcurrentBSTThreads() throws InterruptedException {
+		final ConcurrentBSTMap map = new ConcurrentBSTMap();
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			final int offset = t;
+			threads[t] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int i = offset; i < 40000; i += 4)
+						map.add(i, Integer.toString(i));
+					for (int i = offset; i < 40000; i += 8)
+						map.remove(i);
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread thread : threads)
+			thread.join();
+		assertEquals(20000, map.size());
+		assertEquals(null, map.get(8));
+		assertEquals("12", map.get(12));
+	}
+
+	public void testConcurrentBSTChurn() throws InterruptedException {
+		final ConcurrentBSTMap map = new ConcurrentBSTMap();
+		final boolean[][] present = new boolean[4][];
+		final AtomicInteger wrong = new AtomicInteger();
+		Thread[] threads = new Thread[present.length];
+		for (int t = 0; t < threads.length; t++) {
+			final int offset = t;
+			present[t] = new boolean[2000];
+			threads[t] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					Random random = new Random(offset);
+					for (int i = 0; i < 50000; i++) {
+						int slot = random.nextInt(2000), key = slot * 4 + offset;
+						if (random.nextBoolean()) {
+							if (map.add(key, null) == present[offset][slot])
+								wrong.incrementAndGet();
+							present[offset][slot] = true;
+						} else {
+							if (map.remove(key) != present[offset][slot])
+								wrong.incrementAndGet();
+							present[offset][slot] = false;
+						}
+					}
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread thread : threads)
+			thread.join();
+		assertEquals(0, wrong.get());
+		List<Integer> expected = new ArrayList<Integer>();
+		for (int key = 0; key < 8000; key++)
+			if (present[key % 4][key / 4])
+				expected.add(key);
+		assertEquals(expected, map.traverseInOrder());
+		assertEquals(expected.size(), map.size());
+		for (int key = 0; key < 8000; key++)
+			assertEquals(present[key % 4][key / 4], map.contains(key));
+		assertEquals(null, map.get(expected.get(0)));
+	}
+
+	public void testPersistentBSTVersions() {
+		PersistentBSTMap v0 = new PersistentBSTMap();
+		PersistentBSTMap v1 = v0.add(1000, "Ljubljana").add(2000, "Maribor").add(3000, "Celje");
+		PersistentBSTMap v2 = v1.add(4000, "Kranj").remove(1000);
+		assertSame(v2, v2.add(4000, "Koper"));
+		assertSame(v2, v2.remove(1000));
+		assertEquals(0, v0.size());
+		assertEquals(Arrays.asList(2000, 1000, 3000), v1.traversePreOrder());
+		assertEquals("Ljubljana", v1.get(1000));
+		assertFalse(v1.contains(4000));
+		assertEquals(Arrays.asList(2000, 3000, 4000), v2.traverseInOrder());
+		assertEquals(null, v2.get(1000));
+	}
+
+	public void testCopyOnWriteBSTSnapshot() {
+		CopyOnWriteBSTMap map = new CopyOnWriteBSTMap();
+		map.add(1000, "Ljubljana");
+		map.add(2000, "Maribor");
+		PersistentBSTMap snapshot = map.snapshot();
+		map.remove(1000);
+		map.add(3000, "Celje");
+		assertEquals(Arrays.asList(1000, 2000), snapshot.traverseInOrder());
+		assertEquals("Ljubljana", snapshot.get(1000));
+		assertEquals(Arrays.asList(2000, 3000), map.traverseInOrder());
+	}
+
+	public void testBPlusTreeContainsGetRemove() {
+		BPlusTreeMap map = new BPlusTreeMap(3);
+		map.add(1000, "Ljubljana");
+		map.add(2000, "Maribor");
+		map.add(3000, "Celje");
+		map.add(4000, "Kranj");
+		map.add(5000, "Novo Mesto");
+		map.add(6000, "Koper");
+		assertFalse(map.add(6000, "Izola"));
+		assertEquals("Kranj", map.get(4000));
+		assertEquals(Arrays.asList(3000, 2000, 1000, 2000, 4000, 5000, 3000, 4000, 5000, 6000), map.traversePreOrder());
+		assertEquals(Arrays.asList(3000, 2000, 4000, 5000, 1000, 2000, 3000, 4000, 5000, 6000), map.traverseLevelOrder());
+		assertTrue(map.remove(4000));
+		assertFalse(map.contains(4000));
+		assertEquals(null, map.get(4000));
+		assertEquals(Arrays.asList(1000, 2000, 3000, 5000, 6000), map.traverseInOrder());
+		BPlusTreeMap.LeafIterator it = map.iteratorFrom(2500);
+		assertEquals(3000, it.nextInt());
+		assertEquals("Celje", it.value());
+		assertEquals(5000, it.nextInt());
+	}
+
+	public void testMappedBSTReopen() throws IOException {
+		Path path = Files.createTempFile("bstmap", ".nodes");
+		try {
+			MappedBSTMap map = new MappedBSTMap(path);
+			for (int i = 1; i <= 6; i++)
+				map.add(i * 1000, "Mesto " + i);
+			assertTrue(map.remove(2000));
+			assertEquals(Arrays.asList(4000, 3000, 1000, 5000, 6000), map.traversePreOrder());
+			map.checkpoint();
+			map.add(7000, "Bled");
+
+			MappedBSTMap reopened = new MappedBSTMap(path);
+			assertEquals(5, reopened.size());
+			assertFalse(reopened.contains(7000));
+			reopened.close();
+
+			map.close();
+			map = new MappedBSTMap(path);
+			assertEquals(6, map.size());
+			assertEquals("Bled", map.get(7000));
+			assertEquals("Mesto 3", map.get(3000));
+			assertEquals(null, map.get(2000));
+			map.resetCounter();
+			map.contains(4000);
+			assertEquals(1, map.getCounter());
+			map.close();
+		} finally {
+			Files.deleteIfExists(path);
+			Files.deleteIfExists(Paths.get(path + ".heap"));
+		}
+	}
+
+	public void testMappedBSTCompact() throws IOException {
+		Path path = Files.createTempFile("bstmap", ".nodes");
+		try {
+			MappedBSTMap map = new MappedBSTMap(path);
+			for (int i = 1; i <= 14; i++)
+				map.add(i * 1000, "Mesto " + i);
+			for (int i = 8; i <= 14; i++)
+				assertTrue(map.remove(i * 1000));
+			map.add(5000, "Kranj");
+			map.compact();
+			assertFalse(Files.exists(Paths.get(path + ".heap")));
+			assertTrue(Files.exists(Paths.get(path + ".heap.1")));
+			assertEquals(Arrays.asList(4000, 2000, 1000, 3000, 6000, 5000, 7000), map.traversePreOrder());
+			map.add(8000, "Bled");
+			map.close();
+
+			map = new MappedBSTMap(path);
+			assertEquals(8, map.size());
+			assertEquals("Mesto 5", map.get(5000));
+			assertEquals("Bled", map.get(8000));
+			assertEquals(null, map.get(9000));
+			assertEquals(Arrays.asList(1000, 2000, 3000, 4000, 5000, 6000, 7000, 8000), map.traverseInOrder());
+			map.close();
+		} finally {
+			Files.deleteIfExists(path);
+			Files.deleteIfExists(Paths.get(path + ".heap"));
+			Files.deleteIfExists(Paths.get(path + ".heap.1"));
+		}
+	}
+
+	public void testStats() {
+		BSTMap bst = new BSTMap(BSTMap.BalancingMethod.AVL);
+		for (int i = 1; i <= 7; i++)
+			bst.add(i, "Mesto " + i);
+		bst.resetStats();
+		bst.get(4);
+		bst.contains(1);
+		bst.contains(8);
+		BSTMapStats stats = bst.getStats();
+		assertEquals(7, stats.getSize());
+		assertEquals(3, stats.getHeight());
+		assertEquals(17.0 / 7, stats.getAveragePathLength(), 1e-9);
+		assertEquals(0, stats.getRootBalance());
+		assertEquals(1.0, stats.getBalanceFactor(), 1e-9);
+		long[] gets = stats.getGetHistogram();
+		assertEquals(1, gets[1]);
+		assertEquals(2, gets[3]);
+		assertEquals(3, BSTMapStats.percentile(gets, 1));
+		assertEquals(0, BSTMapStats.mean(stats.getAddHistogram()), 1e-9);
+
+		BSTMap list = new BSTMap();
+		for (int i = 1; i <= 5; i++)
+			list.add(i, "Mesto " + i);
+		list.remove(5);
+		stats = list.getStats();
+		assertEquals(4, stats.getHeight());
+		assertEquals(3, stats.getRootBalance());
+		assertEquals(1 + 2 + 3 + 4, BSTMapStats.mean(stats.getAddHistogram()) * 5, 1e-9);
+		assertEquals(1, stats.getRemoveHistogram()[5]);
+	}
+
+	public void testStatsPerMap() {
+		BSTMap a = new BSTMap(), b = new BSTMap();
+		for (int i = 1; i <= 5; i++) {
+			a.add(i, "Mesto " + i);
+			b.add(-i, "Mesto " + i);
+			b.add(i, "Mesto " + i);
+		}
+		a.get(5);
+		assertEquals(1 + 2 + 3 + 4, BSTMapStats.mean(a.getStats().getAddHistogram()) * 5, 1e-9);
+		assertEquals(1, a.getStats().getGetHistogram()[5]);
+		assertEquals(0, BSTMapStats.mean(b.getStats().getGetHistogram()), 1e-9);
+
+		// the shape kept up by rotations and removals equals the shape of a
+		// tree which is built by inserting the keys in preorder
+		Random random = new Random(42);
+		for (BSTMap.BalancingMethod method : BSTMap.BalancingMethod.values()) {
+			BSTMap bst = new BSTMap(method);
+			for (int i = 0; i < 2000; i++) {
+				int key = random.nextInt(500);
+				if (random.nextInt(3) == 0)
+					bst.remove(key);
+				else
+					bst.add(key, "Mesto " + key);
+			}
+			BSTMap copy = new BSTMap();
+			bst.traversePreOrder((int key) -> copy.add(key, ""));
+			BSTMapStats stats = bst.getStats(), expected = copy.getStats();
+			assertEquals(expected.getSize(), stats.getSize());
+			assertEquals(expected.getHeight(), stats.getHeight());
+			assertEquals(expected.getAveragePathLength(), stats.getAveragePathLength(), 1e-9);
+			assertEquals(expected.getRootBalance(), stats.getRootBalance());
+		}
+	}
 }
@@ -0,0 +1,506 @@
+package aps2.hashmap;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntFunction;
+
+/**
+ * Simple benchmarks for the hash maps. Run the main method with a warmed-up JVM,
+ * eg. java -Xmx4g aps2.hashmap.HashMapBenchmark [n] [benchmark]
+ */
+public class HashMapBenchmark {
+	private static interface Adder {
+		boolean add(int k, String v);
+	}
+
+	private static interface SharedMap extends Adder {
+		boolean remove(int k);
+
+		boolean contains(int k);
+	}
+
+	private static int[] randomKeys(int n, long seed) {
+		Random random = new Random(seed);
+		int[] keys = new int[n];
+		for (int i = 0; i < n; i++)
+			keys[i] = random.nextInt();
+		return keys;
+	}
+
+	private static int[] stridedKeys(int n, int stride) {
+		int[] keys = new int[n];
+		for (int i = 0; i < n; i++)
+			keys[i] = i * stride;
+		return keys;
+	}
+
+	private static void report(String name, int ops, long nanos) {
+		System.out.printf("%-40s %8.2f ns/op %10.1f Mops/s%n",
+				name, (double) nanos / ops, ops / 1e6 / (nanos / 1e9));
+	}
+
+	/**
+	 * Measures the cost of a single hash and how evenly each method spreads
+	 * sequential, strided (multiples of 1024) and random keys over a table of
+	 * prime-ish and power-of-two size. For the distribution, n = 8m keys are
+	 * hashed and the chi-square statistic divided by m is printed: it is close
+	 * to 1 for a uniform spread and grows with clustering.
+	 */
+	static void hashes(int n, int rounds) {
+		int[][] keySets = { stridedKeys(n, 1), stridedKeys(n, 1024), randomKeys(n, 42) };
+		String[] keyNames = { "sequential", "stride 1024", "random" };
+		int[] sizes = { 1000, 1024 };
+
+		for (int round = 0; round < rounds; round++) {
+			System.out.println("round " + round);
+			for (HashFunction.HashingMethod h : HashFunction.HashingMethod.values()) {
+				for (int m : sizes) {
+					int[] keys = keySets[2];
+					int sink = 0;
+					long start = System.nanoTime();
+					for (int k : keys)
+						sink += HashFunction.hash(h, k, m);
+					report(h + " m=" + m + (sink == 42 ? " " : ""), keys.length, System.nanoTime() - start);
+				}
+			}
+		}
+
+		System.out.printf("%-18s %6s %12s %12s %12s%n", "chi^2 / m", "m", keyNames[0], keyNames[1], keyNames[2]);
+		for (HashFunction.HashingMethod h : HashFunction.HashingMethod.values()) {
+			for (int m : sizes) {
+				System.out.printf("%-18s %6d", h, m);
+				for (int[] keys : keySets) {
+					int count = Math.min(keys.length, 8 * m);
+					int[] buckets = new int[m];
+					for (int i = 0; i < count; i++)
+						buckets[HashFunction.hash(h, keys[i], m)]++;
+					double expected = (double) count / m, chi = 0;
+					for (int b : buckets)
+						chi += (b - expected) * (b - expected) / expected;
+					System.out.printf(" %12.2f", chi / m);
+				}
+				System.out.println();
+			}
+		}
+	}
+
+	private static void fillAndLookup(String name, Adder add, IntFunction<String> get, int[] keys, int[] misses) {
+		long start = System.nanoTime();
+		for (int k : keys)
+			add.add(k, "");
+		report(name + " add", keys.length, System.nanoTime() - start);
+
+		int found = 0;
+		start = System.nanoTime();
+		for (int k : keys)
+			if (get.apply(k) != null)
+				found++;
+		report(name + " get hit", keys.length, System.nanoTime() - start);
+
+		start = System.nanoTime();
+		for (int k : misses)
+			if (get.apply(k) != null)
+				found++;
+		report(name + " get miss", misses.length, System.nanoTime() - start);
+
+		// latency of single lookups, including about 20 ns of timer overhead
+		long[] latencies = new long[keys.length];
+		for (int i = 0; i < keys.length; i++) {
+			start = System.nanoTime();
+			if (get.apply(i % 2 == 0 ? keys[i] : misses[i]) != null)
+				found++;
+			latencies[i] = System.nanoTime() - start;
+		}
+		Arrays.sort(latencies);
+		System.out.printf("%-40s p50 %5d ns  p99 %6d ns  p99.9 %6d ns%n", name + " get latency",
+				latencies[latencies.length / 2], latencies[(int) (latencies.length * 0.99)],
+				latencies[(int) (latencies.length * 0.999)]);
+		found -= (keys.length + 1) / 2;
+		if (found != keys.length)
+			throw new AssertionError(name + " found " + found + " of " + keys.length + " keys");
+	}
+
+	/**
+	 * Fills the open addressing maps to 85% of a power-of-two table with
+	 * random keys and measures adds, successful and unsuccessful lookups.
+	 */
+	static void maps(int n, int rounds) {
+		final int m = HashMapChaining.powerOfTwo(n);
+		// distinct keys, and misses which are none of them
+		int[] keys = randomKeys(m / 20 * 17, 42);
+		Arrays.sort(keys);
+		int unique = 1;
+		for (int i = 1; i < keys.length; i++)
+			if (keys[i] != keys[unique - 1])
+				keys[unique++] = keys[i];
+		keys = Arrays.copyOf(keys, unique);
+		int[] misses = randomKeys(keys.length, 43);
+		for (int i = 0; i < misses.length; i++)
+			while (Arrays.binarySearch(keys, misses[i]) >= 0)
+				misses[i]++;
+		Random random = new Random(44);
+		for (int i = keys.length - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1), t = keys[i];
+			keys[i] = keys[j];
+			keys[j] = t;
+		}
+
+		HashFunction.HashingMethod h = HashFunction.HashingMethod.FibonacciMethod;
+		for (int round = 0; round < rounds; round++) {
+			System.out.println("round " + round + ", " + keys.length + " keys in " + m + " slots");
+			for (HashMapOpenAddressing.CollisionProbeSequence c : HashMapOpenAddressing.CollisionProbeSequence.values()) {
+				HashMapOpenAddressing map = new HashMapOpenAddressing(m, h, c, 0.95);
+				fillAndLookup(c.toString(), map::add, map::get, keys, misses);
+			}
+			HashMapOpenAddressingFlat flat = new HashMapOpenAddressingFlat(m, h, HashMapOpenAddressing.CollisionProbeSequence.LinearProbing);
+			fillAndLookup("HashMapOpenAddressingFlat", flat::add, flat::get, keys, misses);
+			HashMapSwissTable swiss = new HashMapSwissTable(keys.length);
+			fillAndLookup("HashMapSwissTable", swiss::add, swiss::get, keys, misses);
+			System.out.printf("HashMapSwissTable load %.2f%n", (double) swiss.size() / swiss.capacity());
+			HashMapCuckoo cuckoo = new HashMapCuckoo(m);
+			fillAndLookup("HashMapCuckoo", cuckoo::add, cuckoo::get, keys, misses);
+			System.out.printf("HashMapCuckoo load %.2f, %d in stash%n", (double) cuckoo.size() / cuckoo.capacity(), cuckoo.stashSize());
+		}
+	}
+
+	/**
+	 * Compares single-key add and get with addAll and getAll in batches of
+	 * 256 random keys, on tables of 2n slots filled to one half, so that most
+	 * lookups miss the cache and are decided by their home slot.
+	 */
+	static void batch(int n, int rounds) {
+		final int batch = 256;
+		n -= n % batch;
+		int m = HashMapChaining.powerOfTwo(2 * n);
+		int[] keys = randomKeys(n, 42);
+		String[] values = new String[n];
+		Arrays.fill(values, "");
+		int[] batchKeys = new int[batch];
+		String[] batchValues = Arrays.copyOf(values, batch), out = new String[batch];
+		HashFunction.HashingMethod h = HashFunction.HashingMethod.FibonacciMethod;
+		HashMapOpenAddressing.CollisionProbeSequence c = HashMapOpenAddressing.CollisionProbeSequence.LinearProbing;
+
+		for (int round = 0; round < rounds; round++) {
+			System.out.println("round " + round + ", " + n + " keys in " + m + " slots");
+			HashMapOpenAddressing single = new HashMapOpenAddressing(m, h, c);
+			HashMapOpenAddressing batched = new HashMapOpenAddressing(m, h, c);
+			HashMapOpenAddressingFlat flatSingle = new HashMapOpenAddressingFlat(m, h, c);
+			HashMapOpenAddressingFlat flatBatched = new HashMapOpenAddressingFlat(m, h, c);
+
+			long start = System.nanoTime();
+			for (int key : keys)
+				single.add(key, "");
+			report("HashMapOpenAddressing add", n, System.nanoTime() - start);
+			start = System.nanoTime();
+			for (int i = 0; i < n; i += batch) {
+				System.arraycopy(keys, i, batchKeys, 0, batch);
+				batched.addAll(batchKeys, batchValues);
+			}
+			report("HashMapOpenAddressing addAll", n, System.nanoTime() - start);
+			start = System.nanoTime();
+			for (int key : keys)
+				flatSingle.add(key, "");
+			report("HashMapOpenAddressingFlat add", n, System.nanoTime() - start);
+			start = System.nanoTime();
+			for (int i = 0; i < n; i += batch) {
+				System.arraycopy(keys, i, batchKeys, 0, batch);
+				flatBatched.addAll(batchKeys, batchValues);
+			}
+			report("HashMapOpenAddressingFlat addAll", n, System.nanoTime() - start);
+
+			// look the keys up in a different order than they were added
+			int[] lookups = randomKeys(n, 43 + round);
+			for (int i = 0; i < n; i++)
+				lookups[i] = keys[(lookups[i] & Integer.MAX_VALUE) % n];
+			int found = 0;
+			start = System.nanoTime();
+			for (int key : lookups)
+				if (single.get(key) != null)
+					found++;
+			report("HashMapOpenAddressing get", n, System.nanoTime() - start);
+			start = System.nanoTime();
+			for (int i = 0; i < n; i += batch) {
+				System.arraycopy(lookups, i, batchKeys, 0, batch);
+				batched.getAll(batchKeys, out);
+				for (String value : out)
+					if (value != null)
+						found++;
+			}
+			report("HashMapOpenAddressing getAll", n, System.nanoTime() - start);
+			start = System.nanoTime();
+			for (int key : lookups)
+				if (flatSingle.get(key) != null)
+					found++;
+			report("HashMapOpenAddressingFlat get", n, System.nanoTime() - start);
+			start = System.nanoTime();
+			for (int i = 0; i < n; i += batch) {
+				System.arraycopy(lookups, i, batchKeys, 0, batch);
+				flatBatched.getAll(batchKeys, out);
+				for (String value : out)
+					if (value != null)
+						found++;
+			}
+			report("HashMapOpenAddressingFlat getAll", n, System.nanoTime() - start);
+			if (found != 4 * n)
+				throw new AssertionError("found " + found + " keys");
+		}
+	}
+
+	/**
+	 * Builds the perfect hash map of n random keys and compares its lookups
+	 * with the flat open addressing map at 85% load.
+	 */
+	static void perfect(int n, int rounds) {
+		int[] keys = randomKeys(n, 42);
+		Arrays.sort(keys);
+		int unique = 1;
+		for (int i = 1; i < keys.length; i++)
+			if (keys[i] != keys[unique - 1])
+				keys[unique++] = keys[i];
+		keys = Arrays.copyOf(keys, unique);
+		int[] lookups = randomKeys(keys.length, 43);
+		for (int i = 0; i < lookups.length; i++)
+			lookups[i] = keys[(lookups[i] & Integer.MAX_VALUE) % keys.length];
+
+		for (int round = 0; round < rounds; round++) {
+			long start = System.nanoTime();
+			PerfectHashMap.Builder builder = new PerfectHashMap.Builder();
+			for (int key : keys)
+				builder.add(key, "");
+			PerfectHashMap perfect = builder.build();
+			System.out.printf("%-40s %8.1f ms, %.2f index bits/key%n", "PerfectHashMap build",
+					(System.nanoTime() - start) / 1e6, perfect.indexBitsPerKey());
+			HashMapOpenAddressingFlat flat = new HashMapOpenAddressingFlat((int) (keys.length / 0.85),
+					HashFunction.HashingMethod.MurmurMethod, HashMapOpenAddressing.CollisionProbeSequence.LinearProbing);
+			for (int key : keys)
+				flat.add(key, "");
+
+			int found = 0;
+			start = System.nanoTime();
+			for (int key : lookups)
+				if (perfect.get(key) != null)
+					found++;
+			report("PerfectHashMap get", lookups.length, System.nanoTime() - start);
+			start = System.nanoTime();
+			for (int key : lookups)
+				if (flat.get(key) != null)
+					found++;
+			report("HashMapOpenAddressingFlat get", lookups.length, System.nanoTime() - start);
+			if (found != 2 * lookups.length)
+				throw new AssertionError("found " + found + " keys");
+		}
+	}
+
+	/**
+	 * Compares restoring a map of n elements from a snapshot with replaying
+	 * the adds into a new map.
+	 */
+	static void snapshot(int n, int rounds) throws IOException {
+		int[] keys = randomKeys(n, 42);
+		HashFunction.HashingMethod h = HashFunction.HashingMethod.MurmurMethod;
+		HashMapOpenAddressing.CollisionProbeSequence c = HashMapOpenAddressing.CollisionProbeSequence.LinearProbing;
+		HashMapOpenAddressing map = new HashMapOpenAddressing(16, h, c, 0.75);
+		for (int key : keys)
+			map.add(key, "Vrednost");
+		Path path = Files.createTempFile("hashmap", ".snapshot");
+		try {
+			for (int round = 0; round < rounds; round++) {
+				long start = System.nanoTime();
+				map.writeSnapshot(path);
+				System.out.printf("%-40s %8.1f ms, %d MB%n", "writeSnapshot",
+						(System.nanoTime() - start) / 1e6, Files.size(path) >> 20);
+				start = System.nanoTime();
+				HashMapOpenAddressing loaded = HashMapOpenAddressing.readSnapshot(path);
+				System.out.printf("%-40s %8.1f ms%n", "readSnapshot", (System.nanoTime() - start) / 1e6);
+				start = System.nanoTime();
+				HashMapOpenAddressing replayed = new HashMapOpenAddressing(16, h, c, 0.75);
+				for (int key : keys)
+					replayed.add(key, "Vrednost");
+				System.out.printf("%-40s %8.1f ms%n", "replayed adds", (System.nanoTime() - start) / 1e6);
+				if (loaded.size() != replayed.size())
+					throw new AssertionError("restored " + loaded.size() + " of " + replayed.size() + " elements");
+			}
+		} finally {
+			Files.deleteIfExists(path);
+		}
+	}
+
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++)
+			System.gc();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	/**
+	 * Prints the probe statistics of the open addressing map for every probe
+	 * sequence and a few hashing methods, on strided and random keys filled to
+	 * 3/4 of a fixed power-of-two table. Shows the clustering of the division
+	 * method on strided keys and the inserts which quadratic probing fails.
+	 */
+	static void probes(int n) {
+		n = Math.min(n, 1 << 14); // failed inserts probe the whole table
+		int m = HashMapChaining.powerOfTwo(n * 4 / 3);
+		int[][] keySets = { stridedKeys(n, 1024), randomKeys(n, 42) };
+		String[] keyNames = { "stride 1024", "random" };
+		HashFunction.HashingMethod[] methods = { HashFunction.HashingMethod.DivisionMethod,
+				HashFunction.HashingMethod.KnuthMethod, HashFunction.HashingMethod.MurmurMethod };
+
+		for (HashMapOpenAddressing.CollisionProbeSequence c : HashMapOpenAddressing.CollisionProbeSequence.values()) {
+			for (HashFunction.HashingMethod h : methods) {
+				for (int set = 0; set < keySets.length; set++) {
+					HashMapOpenAddressing map = new HashMapOpenAddressing(m, h, c);
+					for (int key : keySets[set])
+						map.add(key, "");
+					for (int key : keySets[set])
+						map.get(key);
+					System.out.println(c + " " + h + " " + keyNames[set] + ": " + map.getStats());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Compares the LinkedList chains with the index-linked chains: retained
+	 * heap without the values, and the cost of add, get and remove.
+	 */
+	static void chaining(int n, int rounds) {
+		int[] keys = randomKeys(n, 17);
+		HashFunction.HashingMethod h = HashFunction.HashingMethod.FibonacciMethod;
+
+		long heap = usedHeap();
+		HashMapChaining lists = new HashMapChaining(n, h);
+		for (int key : keys)
+			lists.add(key, null);
+		System.out.printf("%-40s %8.1f B/entry%n", "HashMapChaining heap", (double) (usedHeap() - heap) / n);
+		lists = null;
+
+		heap = usedHeap();
+		HashMapCompactChaining compact = new HashMapCompactChaining(n, h);
+		for (int key : keys)
+			compact.add(key, null);
+		System.out.printf("%-40s %8.1f B/entry%n", "HashMapCompactChaining heap", (double) (usedHeap() - heap) / n);
+		compact = null;
+
+		for (int round = 0; round < rounds; round++) {
+			// 4 elements per bucket, so that the chains matter
+			lists = new HashMapChaining(n / 4, h);
+			compact = new HashMapCompactChaining(n / 4, h);
+			long start = System.nanoTime();
+			for (int key : keys)
+				lists.add(key, "");
+			report("HashMapChaining add", n, System.nanoTime() - start);
+			start = System.nanoTime();
+			for (int key : keys)
+				compact.add(key, "");
+			report("HashMapCompactChaining add", n, System.nanoTime() - start);
+
+			start = System.nanoTime();
+			for (int key : keys)
+				lists.get(key);
+			report("HashMapChaining get", n, System.nanoTime() - start);
+			start = System.nanoTime();
+			for (int key : keys)
+				compact.get(key);
+			report("HashMapCompactChaining get", n, System.nanoTime() - start);
+
+			start = System.nanoTime();
+			for (int key : keys)
+				lists.remove(key);
+			report("HashMapChaining remove", n, System.nanoTime() - start);
+			start = System.nanoTime();
+			for (int key : keys)
+				compact.remove(key);
+			report("HashMapCompactChaining remove", n, System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Measures the throughput of a shared map with 1 to N threads, each
+	 * doing the given percentage of writes (half adds, half removes) and
+	 * lookups otherwise, on a map which keeps about n elements.
+	 */
+	static void concurrent(String name, final SharedMap map, final int n, final int writePercent, int maxThreads)
+			throws InterruptedException {
+		for (int key : randomKeys(n, 11))
+			map.add(Math.abs(key % (2 * n)), "");
+
+		for (int threads = 1; threads <= maxThreads; threads *= 2) {
+			final AtomicBoolean running = new AtomicBoolean(true);
+			final LongAdder ops = new LongAdder();
+			Thread[] workers = new Thread[threads];
+			for (int t = 0; t < threads; t++) {
+				final long seed = t;
+				workers[t] = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						Random random = new Random(seed);
+						long done = 0;
+						while (running.get()) {
+							for (int i = 0; i < 1000; i++) {
+								int key = random.nextInt(2 * n);
+								int op = random.nextInt(100);
+								if (op >= writePercent) map.contains(key);
+								else if ((op & 1) == 0) map.add(key, "");
+								else map.remove(key);
+							}
+							done += 1000;
+						}
+						ops.add(done);
+					}
+				});
+			}
+			long start = System.nanoTime();
+			for (Thread worker : workers)
+				worker.start();
+			Thread.sleep(2000);
+			running.set(false);
+			for (Thread worker : workers)
+				worker.join();
+			double seconds = (System.nanoTime() - start) / 1e9;
+			System.out.printf("%-40s %2d threads %6.2f Mops/s%n",
+					name + " " + writePercent + "% writes", threads, ops.sum() / seconds / 1e6);
+		}
+	}
+
+	/**
+	 * Compares ConcurrentHashMapChaining with HashMapChaining behind one
+	 * global lock, for a get-heavy and a put-heavy workload.
+	 */
+	static void concurrent(int n, int maxThreads) throws InterruptedException {
+		for (int writePercent : new int[] { 10, 50 }) {
+			final ConcurrentHashMapChaining lockFree = new ConcurrentHashMapChaining();
+			concurrent("ConcurrentHashMapChaining", new SharedMap() {
+				public boolean add(int k, String v) { return lockFree.add(k, v); }
+				public boolean remove(int k) { return lockFree.remove(k); }
+				public boolean contains(int k) { return lockFree.contains(k); }
+			}, n, writePercent, maxThreads);
+
+			final HashMapChaining locked = new HashMapChaining(16, HashFunction.HashingMethod.FibonacciMethod, 0.75);
+			concurrent("HashMapChaining, global lock", new SharedMap() {
+				public synchronized boolean add(int k, String v) { return locked.add(k, v); }
+				public synchronized boolean remove(int k) { return locked.remove(k); }
+				public synchronized boolean contains(int k) { return locked.contains(k); }
+			}, n, writePercent, maxThreads);
+		}
+	}
+
+	public static void main(String[] args) throws InterruptedException, IOException {
+		int n = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		String only = args.length > 1 ? args[1] : null;
+		if (only == null || only.equals("hashes")) hashes(n, 5);
+		if (only == null || only.equals("maps")) maps(n, 3);
+		if (only == null || only.equals("probes")) probes(n);
+		if (only == null || only.equals("chaining")) chaining(n, 3);
+		if (only == null || only.equals("batch")) batch(n, 3);
+		if (only == null || only.equals("perfect")) perfect(n, 3);
+		if (only == null || only.equals("snapshot")) snapshot(n, 3);
+		if (only == null || only.equals("concurrent"))
+			concurrent(n, Math.max(2, Runtime.getRuntime().availableProcessors()));
+	}
+}
@@ -0,0 +1,257 @@
+package aps2.hashmap;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread-safe hash map employing chaining on collisions.
+ *
+ * Chains are built from immutable nodes, and a bucket changes only by a
+ * compare-and-set of its head: add prepends a node, remove copies the nodes
+ * in front of the removed one. Readers therefore walk a chain without any
+ * locks, since a published chain never changes.
+ *
+ * When the number of elements exceeds 3/4 of the table size, the table
+ * doubles. Every thread which writes during the resize helps to move the
+ * buckets: it claims a range of old buckets, splits each of their chains
+ * into the two new buckets and replaces the old head with a forwarding node,
+ * which sends later operations on that bucket to the new table.
+ *
+ * A thread may install its resize of a table only after another thread has
+ * already finished resizing the same table. A resize is therefore valid only
+ * while its source is the current table. The current table cannot change
+ * while a resize is installed, so transfer checks this once and clears a
+ * stale resize instead of moving any buckets.
+ */
+public class ConcurrentHashMapChaining {
+    private static final int STRIDE = 16; // buckets claimed at once when resizing
+
+    static class Node {
+        final int key;
+        final String value;
+        final Node next;
+
+        Node(int key, String value, Node next) {
+            this.key = key;
+            this.value = value;
+            this.next = next;
+        }
+    }
+
+    /**
+     * Head of a bucket which was moved to the given table.
+     */
+    static final class Forward extends Node {
+        final AtomicReferenceArray<Node> table;
+
+        Forward(AtomicReferenceArray<Node> table) {
+            super(0, null, null);
+            this.table = table;
+        }
+    }
+
+    private static final class Resize {
+        final AtomicReferenceArray<Node> from, to;
+        final Forward forward;
+        final AtomicInteger claimed = new AtomicInteger(); // first bucket which is not claimed yet
+        final AtomicInteger moved = new AtomicInteger();
+
+        Resize(AtomicReferenceArray<Node> from) {
+            this.from = from;
+            this.to = new AtomicReferenceArray<Node>(from.length() * 2);
+            this.forward = new Forward(this.to);
+        }
+    }
+
+    private volatile AtomicReferenceArray<Node> table;
+    private final AtomicReference<Resize> resize = new AtomicReference<Resize>();
+    private final LongAdder size = new LongAdder();
+
+    public ConcurrentHashMapChaining() {
+        this(16);
+    }
+
+    /**
+     * @param m Initial table size, rounded up to a power of two
+     */
+    public ConcurrentHashMapChaining(int m) {
+        this.table = new AtomicReferenceArray<Node>(HashMapChaining.powerOfTwo(m));
+    }
+
+    private static int index(int k, int m) {
+        // the same low bits for every power-of-two size, so a chain splits in two on resize
+        return HashFunction.mix(k) & (m - 1);
+    }
+
+    /**
+     * @return Number of elements in the map.
+     */
+    public int size() {
+        return (int) this.size.sum();
+    }
+
+    /**
+     * @return Current table size.
+     */
+    public int capacity() {
+        return this.table.length();
+    }
+
+    /**
+     * If the element doesn't exist yet, inserts it into the set.
+     *
+     * @param k Element key
+     * @param v Element value
+     * @return true, if element was added; false otherwise.
+     */
+    public boolean add(int k, String v) {
+        AtomicReferenceArray<Node> t = this.table;
+        while (true) {
+            int id = index(k, t.length());
+            Node head = t.get(id);
+            if (head instanceof Forward) {
+                helpResize();
+                t = ((Forward) head).table;
+                continue;
+            }
+            for (Node n = head; n != null; n = n.next)
+                if (n.key == k)
+                    return false;
+            if (t.compareAndSet(id, head, new Node(k, v, head)))
+                break;
+        }
+        this.size.increment();
+        if (this.size.sum() > t.length() / 4 * 3)
+            startResize(t);
+        return true;
+    }
+
+    /**
+     * Removes the element from the set.
+     *
+     * @param k Element key
+     * @return true, if the element was removed; otherwise false
+     */
+    public boolean remove(int k) {
+        AtomicReferenceArray<Node> t = this.table;
+        while (true) {
+            int id = index(k, t.length());
+            Node head = t.get(id);
+            if (head instanceof Forward) {
+                helpResize();
+                t = ((Forward) head).table;
+                continue;
+            }
+            Node found = head;
+            while (found != null && found.key != k)
+                found = found.next;
+            if (found == null)
+                return false;
+            Node chain = found.next;
+            for (Node n = head; n != found; n = n.next)
+                chain = new Node(n.key, n.value, chain);
+            if (t.compareAndSet(id, head, chain)) {
+                this.size.decrement();
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Finds the element.
+     *
+     * @param k Element key
+     * @return true, if the element was found; false otherwise.
+     */
+    public boolean contains(int k) {
+        return find(k) != null;
+    }
+
+    /**
+     * Maps the given key to its value, if the key exists in the hash map.
+     *
+     * @param k Element key
+     * @return The value for the given key or null, if such a key does not exist.
+     */
+    public String get(int k) {
+        Node n = find(k);
+        return n != null ? n.value : null;
+    }
+
+    private Node find(int k) {
+        AtomicReferenceArray<Node> t = this.table;
+        Node n = t.get(index(k, t.length()));
+        while (n instanceof Forward) {
+            t = ((Forward) n).table;
+            n = t.get(index(k, t.length()));
+        }
+        for (; n != null; n = n.next)
+            if (n.key == k)
+                return n;
+        return null;
+    }
+
+    private void startResize(AtomicReferenceArray<Node> t) {
+        if (this.resize.get() != null || this.table != t || t.length() >= 1 << 30)
+            return;
+        Resize r = new Resize(t);
+        if (this.resize.compareAndSet(null, r))
+            transfer(r);
+    }
+
+    private void helpResize() {
+        Resize r = this.resize.get();
+        if (r != null)
+            transfer(r);
+    }
+
+    /**
+     * Moves claimed ranges of buckets until all are claimed. The thread
+     * which moves the last range publishes the new table.
+     */
+    private void transfer(Resize r) {
+        if (r.from != this.table) {
+            // another thread finished a resize of r.from before r was installed,
+            // or r itself is finished and its new table already published
+            this.resize.compareAndSet(r, null);
+            return;
+        }
+        int m = r.from.length();
+        while (true) {
+            int start = r.claimed.getAndAdd(STRIDE);
+            if (start >= m)
+                return;
+            int end = Math.min(start + STRIDE, m);
+            for (int id = start; id < end; id++)
+                move(r, id);
+            if (r.moved.addAndGet(end - start) == m) {
+                this.table = r.to;
+                this.resize.set(null);
+                return;
+            }
+        }
+    }
+
+    private static void move(Resize r, int id) {
+        int m = r.from.length();
+        while (true) {
+            Node head = r.from.get(id);
+            if (head instanceof Forward)
+                return; // moved already, the forwarding node is no element
+            Node lo = null, hi = null;
+            for (Node n = head; n != null; n = n.next) {
+                if ((HashFunction.mix(n.key) & m) == 0)
+                    lo = new Node(n.key, n.value, lo);
+                else
+                    hi = new Node(n.key, n.value, hi);
+            }
+            // the new buckets are reachable only through the forwarding node
+            r.to.set(id, lo);
+            r.to.set(id + m, hi);
+            if (r.from.compareAndSet(id, head, r.forward))
+                return;
+        }
+    }
+}
@@ -1,14 +1,49 @@
 package aps2.hashmap;
 
-import static java.lang.Math.floor;
-import static java.lang.Math.sqrt;
+import java.util.Random;
 
 public class HashFunction {
 	public static enum HashingMethod {
 		DivisionMethod,
-		KnuthMethod
+		KnuthMethod,
+		FibonacciMethod,  // Knuth's method in 32-bit fixed point
+		MurmurMethod,     // murmur3 finalizer, then reduction to [0, m)
+		TabulationMethod  // xor of random table entries for each key byte
 	};
-	
+
+	private static final double A = (Math.sqrt(5) - 1.0) / 2.0;
+	private static final int FIBONACCI = 0x9E3779B9; // 2^32 * A
+
+	// random tables of the tabulation hashing, fixed so that table layouts are reproducible
+	private static final int[][] TABULATION = new int[4][256];
+	static {
+		Random random = new Random(0x5DEECE66DL);
+		for (int[] table : TABULATION)
+			for (int i = 0; i < table.length; i++)
+				table[i] = random.nextInt();
+	}
+
+	/**
+	 * @param h Hashing method
+	 * @param k Key
+	 * @param m Table size
+	 * @return Index in the table of size m.
+	 */
+	public static int hash(HashingMethod h, int k, int m) {
+		switch (h) {
+			case DivisionMethod:
+				return DivisionMethod(k, m);
+			case KnuthMethod:
+				return KnuthMethod(k, m);
+			case FibonacciMethod:
+				return FibonacciMethod(k, m);
+			case MurmurMethod:
+				return MurmurMethod(k, m);
+			default:
+				return TabulationMethod(k, m);
+		}
+	}
+
 	/**
 	 * Hash function using division method.
 	 * If negative key is given, first multiply it by -1.
@@ -18,8 +53,9 @@ public class HashFunction {
 	 * @return Index in the table of size m.
 	 */
 	public static int DivisionMethod(int k, int m) {
-		if (k < 0) k = k * -1;
-		return k % m;
+		// |k| % m without negating k, which overflows for Integer.MIN_VALUE
+		int r = k % m;
+		return r < 0 ? -r : r;
 	}
 	
 	/**
@@ -35,8 +71,73 @@ public class HashFunction {
 	 * @return Index in the table of size m.
 	 */
 	public static int KnuthMethod(int k, int m) {
-		double A = (Math.sqrt(5) - 1.0) / 2.0;
-		if (k < 0) k *= -1;
-		return (int) (m * (k * A % 1));
+		long abs = Math.abs((long) k);
+		return (int) (m * (abs * A % 1));
+	}
+
+	/**
+	 * Multiplication method in 32-bit fixed point: k A mod 1 are the low 32
+	 * bits of k * 2^32 A, and multiplying them by m keeps the top bits, which
+	 * are the best mixed ones. For m = 2^p it is the multiply-shift
+	 * (k * 2^32 A) >>> (32 - p). Uses only integer multiplication, and works
+	 * for negative keys directly.
+	 * 
+	 * @param k Key
+	 * @param m Table size
+	 * @return Index in the table of size m.
+	 */
+	public static int FibonacciMethod(int k, int m) {
+		return reduce(k * FIBONACCI, m);
+	}
+
+	/**
+	 * Finalizer of the murmur3 hash, which makes every bit of the result
+	 * depend on every bit of the key, so that keys with common low or high
+	 * bits still spread over the whole table.
+	 * 
+	 * @param k Key
+	 * @param m Table size
+	 * @return Index in the table of size m.
+	 */
+	public static int MurmurMethod(int k, int m) {
+		return reduce(mix(k), m);
+	}
+
+	/**
+	 * @param k Key
+	 * @return 32-bit murmur3 finalizer of the key; a bijection, so distinct keys never collide.
+	 */
+	static int mix(int k) {
+		k ^= k >>> 16;
+		k *= 0x85ebca6b;
+		k ^= k >>> 13;
+		k *= 0xc2b2ae35;
+		k ^= k >>> 16;
+		return k;
+	}
+
+	/**
+	 * Simple tabulation hashing: xor of a random 32-bit value per key byte.
+	 * It is 3-independent, so probe lengths of linear probing are provably
+	 * constant in expectation for any key set.
+	 * 
+	 * @param k Key
+	 * @param m Table size
+	 * @return Index in the table of size m.
+	 */
+	public static int TabulationMethod(int k, int m) {
+		int h = TABULATION[0][k & 0xff]
+				^ TABULATION[1][(k >>> 8) & 0xff]
+				^ TABULATION[2][(k >>> 16) & 0xff]
+				^ TABULATION[3][k >>> 24];
+		return reduce(h, m);
+	}
+
+	/**
+	 * Maps a 32-bit hash uniformly to [0, m) with a multiplication instead
+	 * of the much slower division.
+	 */
+	static int reduce(int hash, int m) {
+		return (int) (((hash & 0xffffffffL) * m) >>> 32);
 	}
-}
\ No newline at end of file
+}
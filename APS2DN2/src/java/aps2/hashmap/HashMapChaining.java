@@ -1,26 +1,156 @@
 package aps2.hashmap;
 
+import java.util.Iterator;
 import java.util.LinkedList;
 
 /**
  * Hash map employing chaining on collisions.
+ *
+ * By default the table has a fixed size m. If a maximum load factor is
+ * given, the table size is rounded up to a power of two and doubled whenever
+ * the number of elements exceeds maxLoadFactor * m, and optionally halved
+ * (never below the initial size) when it drops under minLoadFactor * m.
+ * With incremental rehashing the old table is kept after a resize and a few
+ * of its buckets are moved to the new table on every operation, so no single
+ * add has to rehash the whole map.
  */
 public class HashMapChaining {
+    private static final int MIGRATE_STEP = 4; // old buckets moved per operation
+
     private LinkedList<Element> table[];
     private HashFunction.HashingMethod h;
+    private int size;
+
+    private double maxLoadFactor; // 0, if the table size is fixed
+    private double minLoadFactor; // 0, if the table never shrinks
+    private int initialCapacity;
+    private boolean incremental;
+    private LinkedList<Element> oldTable[]; // table being migrated, or null
+    private int migrated; // buckets of oldTable which were already moved
+
+    private final HashMapStats.Recorder stats = new HashMapStats.Recorder();
 
     public HashMapChaining(int m, HashFunction.HashingMethod h) {
         this.h = h;
-        this.table = new LinkedList[m];
+        this.table = newTable(m);
+    }
+
+    /**
+     * Creates a growing hash map.
+     *
+     * @param m Initial table size, rounded up to a power of two
+     * @param h Hashing method
+     * @param maxLoadFactor Average chain length at which the table doubles
+     */
+    public HashMapChaining(int m, HashFunction.HashingMethod h, double maxLoadFactor) {
+        this(m, h, maxLoadFactor, 0, false);
+    }
+
+    /**
+     * Creates a growing and shrinking hash map.
+     *
+     * @param m Initial table size, rounded up to a power of two
+     * @param h Hashing method
+     * @param maxLoadFactor Average chain length at which the table doubles
+     * @param minLoadFactor Average chain length at which the table halves; 0 to never shrink
+     * @param incremental true, to spread rehashing over the following operations
+     */
+    public HashMapChaining(int m, HashFunction.HashingMethod h, double maxLoadFactor, double minLoadFactor, boolean incremental) {
+        if (!(maxLoadFactor > 0))
+            throw new IllegalArgumentException("Maximum load factor must be positive: " + maxLoadFactor);
+        if (minLoadFactor < 0 || minLoadFactor * 2 >= maxLoadFactor)
+            throw new IllegalArgumentException("Minimum load factor must be below half of the maximum: " + minLoadFactor);
+        this.h = h;
+        this.maxLoadFactor = maxLoadFactor;
+        this.minLoadFactor = minLoadFactor;
+        this.incremental = incremental;
+        this.initialCapacity = powerOfTwo(m);
+        this.table = newTable(this.initialCapacity);
+    }
+
+    static int powerOfTwo(int m) {
+        if (m <= 1)
+            return 1;
+        if (m > 1 << 30)
+            throw new IllegalArgumentException("Table size too large: " + m);
+        return Integer.highestOneBit(m - 1) << 1;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static LinkedList<Element>[] newTable(int m) {
+        LinkedList<Element> table[] = new LinkedList[m];
         for (int i = 0; i < table.length; i++) {
             table[i] = new LinkedList<Element>();
         }
+        return table;
     }
 
     public LinkedList<Element>[] getTable() {
         return this.table;
     }
 
+    /**
+     * @return Number of elements in the map.
+     */
+    public int size() {
+        return this.size;
+    }
+
+    private int index(int k, int m) {
+        return HashFunction.hash(this.h, k, m);
+    }
+
+    /**
+     * @return Chain which holds or would hold the given key.
+     */
+    private LinkedList<Element> chain(int k) {
+        if (this.oldTable != null) {
+            int id = index(k, this.oldTable.length);
+            if (id >= this.migrated)
+                return this.oldTable[id];
+        }
+        return this.table[index(k, this.table.length)];
+    }
+
+    /**
+     * Moves the given number of buckets of the old table to the new one.
+     */
+    private void migrate(int buckets) {
+        for (; buckets > 0 && this.migrated < this.oldTable.length; buckets--, this.migrated++) {
+            for (Element e : this.oldTable[this.migrated])
+                this.table[index(e.key, this.table.length)].add(e);
+            this.oldTable[this.migrated] = null;
+        }
+        if (this.migrated == this.oldTable.length)
+            this.oldTable = null;
+    }
+
+    private void resize(int m) {
+        if (this.oldTable != null)
+            migrate(this.oldTable.length);
+        this.oldTable = this.table;
+        this.migrated = 0;
+        this.table = newTable(m);
+        if (!this.incremental)
+            migrate(this.oldTable.length);
+    }
+
+    /**
+     * Advances the incremental rehash and starts a new one, if the load
+     * factor left the allowed range.
+     */
+    private void maintain() {
+        if (this.oldTable != null)
+            migrate(MIGRATE_STEP);
+        if (this.maxLoadFactor == 0)
+            return;
+        int m = this.table.length;
+        if (this.size > this.maxLoadFactor * m && m <= 1 << 29)
+            resize(m * 2);
+        else if (this.size < this.minLoadFactor * m && m > this.initialCapacity)
+            resize(m / 2);
+    }
+
     /**
      * If the element doesn't exist yet, inserts it into the set.
      *
@@ -30,14 +160,13 @@ public class HashMapChaining {
      */
     public boolean add(int k, String v) {
         Element element = new Element(k, v);
-        int id;
-        if (this.h == HashFunction.HashingMethod.DivisionMethod)
-            id = HashFunction.DivisionMethod(k, this.table.length);
-        else id = HashFunction.KnuthMethod(k, this.table.length);
-        LinkedList<Element> linkedList = this.table[id];
-        if (linkedList.contains(element)) return false;
+        LinkedList<Element> linkedList = chain(k);
+        int found = linkedList.indexOf(element);
+        this.stats.record(HashMapStats.ADD, found >= 0 ? found + 1 : linkedList.size());
+        if (found >= 0) return false;
         linkedList.add(element);
-        this.table[id] = linkedList;
+        this.size++;
+        maintain();
         return true;
     }
 
@@ -48,19 +177,18 @@ public class HashMapChaining {
      * @return true, if the element was removed; otherwise false
      */
     public boolean remove(int k) {
-        int id;
-        if (this.h == HashFunction.HashingMethod.DivisionMethod)
-            id = HashFunction.DivisionMethod(k, this.table.length);
-        else id = HashFunction.KnuthMethod(k, this.table.length);
-
-        LinkedList<Element> linkedList = this.table[id];
-        for (int i = 0; i < linkedList.size(); i++){
-            if (linkedList.get(i).key == k){
-                linkedList.remove(i);
-                this.table[id] = linkedList;
+        int probes = 0;
+        for (Iterator<Element> it = chain(k).iterator(); it.hasNext(); ){
+            probes++;
+            if (it.next().key == k){
+                it.remove();
+                this.stats.record(HashMapStats.REMOVE, probes);
+                this.size--;
+                maintain();
                 return true;
             }
         }
+        this.stats.record(HashMapStats.REMOVE, probes);
         return false;
     }
 
@@ -71,15 +199,7 @@ public class HashMapChaining {
      * @return true, if the element was found; false otherwise.
      */
     public boolean contains(int k) {
-        int id;
-        if (this.h == HashFunction.HashingMethod.DivisionMethod)
-            id = HashFunction.DivisionMethod(k, this.table.length);
-        else id = HashFunction.KnuthMethod(k, this.table.length);
-
-        for (Element elt : this.table[id]) {
-            if (elt.key == k) return true;
-        }
-        return false;
+        return find(k) != null;
     }
 
     /**
@@ -89,15 +209,50 @@ public class HashMapChaining {
      * @return The value for the given key or null, if such a key does not exist.
      */
     public String get(int k) {
-        int id;
-        if (this.h == HashFunction.HashingMethod.DivisionMethod)
-            id = HashFunction.DivisionMethod(k, this.table.length);
-        else id = HashFunction.KnuthMethod(k, this.table.length);
+        Element elt = find(k);
+        return elt != null ? elt.value : null;
+    }
 
-        for (Element elt : this.table[id]) {
-            if (elt.key == k) return elt.value;
+    /**
+     * @return Element with the given key; null, if the key does not exist.
+     */
+    private Element find(int k) {
+        int probes = 0;
+        for (Element elt : chain(k)) {
+            probes++;
+            if (elt.key == k) {
+                this.stats.record(HashMapStats.GET, probes);
+                return elt;
+            }
         }
+        this.stats.record(HashMapStats.GET, probes);
         return null;
     }
-}
 
+    /**
+     * Returns the statistics of the table and of the operations since
+     * construction or the last resetStats. The probe histograms count the
+     * chain elements compared by every add, remove, get and contains; the
+     * chain lengths are counted by walking the table, including the buckets
+     * which an incremental rehash has not moved yet.
+     *
+     * @return Snapshot of the statistics.
+     */
+    public HashMapStats getStats() {
+        long chains[] = new long[HashMapStats.HISTOGRAM_BUCKETS];
+        for (LinkedList<Element> chain : this.table)
+            HashMapStats.count(chains, chain.size());
+        if (this.oldTable != null)
+            for (int id = this.migrated; id < this.oldTable.length; id++)
+                HashMapStats.count(chains, this.oldTable[id].size());
+        int m = this.table.length + (this.oldTable != null ? this.oldTable.length - this.migrated : 0);
+        return this.stats.snapshot(this.size, m, 0, chains);
+    }
+
+    /**
+     * Clears the probe histograms.
+     */
+    public void resetStats() {
+        this.stats.reset();
+    }
+}
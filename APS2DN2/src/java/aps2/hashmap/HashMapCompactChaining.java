@@ -0,0 +1,200 @@
+package aps2.hashmap;
+
+import java.util.Arrays;
+
+/**
+ * Hash map employing chaining on collisions, with chains linked by index.
+ *
+ * Instead of a LinkedList of Element objects per bucket, the elements are
+ * kept in parallel arrays (key, value, next) and chained by their index, so
+ * an element costs 12-16 bytes instead of the about 60 of a list node and an
+ * Element. Bucket heads hold index + 1, so that the zeroed array is empty and
+ * needs no initialization; it is allocated only by the first add. Slots of
+ * removed elements are kept on a free list, chained through next as well,
+ * and reused by add.
+ */
+public class HashMapCompactChaining {
+    private int heads[]; // index + 1 of the first element of every bucket; 0, if empty; null, until the first add
+    private int keys[];
+    private String values[];
+    private int next[]; // index + 1 of the next element in the chain or the free list; 0 at the end
+    private int used; // slots of the element arrays which were ever used
+    private int free; // index + 1 of the first free slot; 0, if there is none
+    private int size;
+    private int m;
+    private HashFunction.HashingMethod h;
+    private double maxLoadFactor; // 0, if the table size is fixed
+
+    public HashMapCompactChaining(int m, HashFunction.HashingMethod h) {
+        if (m <= 0)
+            throw new IllegalArgumentException("Table size must be positive: " + m);
+        this.m = m;
+        this.h = h;
+        this.keys = new int[4];
+        this.values = new String[4];
+        this.next = new int[4];
+    }
+
+    /**
+     * Creates a growing hash map.
+     *
+     * @param m Initial table size, rounded up to a power of two
+     * @param h Hashing method
+     * @param maxLoadFactor Average chain length at which the table doubles
+     */
+    public HashMapCompactChaining(int m, HashFunction.HashingMethod h, double maxLoadFactor) {
+        this(HashMapChaining.powerOfTwo(m), h);
+        if (!(maxLoadFactor > 0))
+            throw new IllegalArgumentException("Maximum load factor must be positive: " + maxLoadFactor);
+        this.maxLoadFactor = maxLoadFactor;
+    }
+
+    /**
+     * @return Number of elements in the map.
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * @return Number of buckets.
+     */
+    public int capacity() {
+        return this.m;
+    }
+
+    /**
+     * @param id Bucket index
+     * @return Keys in the bucket, from the most recently added on.
+     */
+    public int[] getChain(int id) {
+        int length = 0;
+        for (int e = this.heads != null ? this.heads[id] : 0; e != 0; e = this.next[e - 1])
+            length++;
+        int chain[] = new int[length];
+        length = 0;
+        for (int e = this.heads != null ? this.heads[id] : 0; e != 0; e = this.next[e - 1])
+            chain[length++] = this.keys[e - 1];
+        return chain;
+    }
+
+    private int index(int k, int m) {
+        return HashFunction.hash(this.h, k, m);
+    }
+
+    /**
+     * @return Index of the element with the given key; -1, if it does not exist.
+     */
+    private int find(int k) {
+        if (this.heads == null)
+            return -1;
+        for (int e = this.heads[index(k, this.m)]; e != 0; e = this.next[e - 1])
+            if (this.keys[e - 1] == k)
+                return e - 1;
+        return -1;
+    }
+
+    /**
+     * Links every element into a table of the given size. The elements stay
+     * where they are, only their next links change.
+     */
+    private void rehash(int m) {
+        int oldHeads[] = this.heads;
+        this.heads = new int[m];
+        this.m = m;
+        for (int b = 0; b < oldHeads.length; b++) {
+            for (int e = oldHeads[b]; e != 0; ) {
+                int following = this.next[e - 1];
+                int id = index(this.keys[e - 1], m);
+                this.next[e - 1] = this.heads[id];
+                this.heads[id] = e;
+                e = following;
+            }
+        }
+    }
+
+    /**
+     * If the element doesn't exist yet, inserts it into the set.
+     *
+     * @param k Element key
+     * @param v Element value
+     * @return true, if element was added; false otherwise.
+     */
+    public boolean add(int k, String v) {
+        if (find(k) >= 0)
+            return false;
+        if (this.heads == null)
+            this.heads = new int[this.m];
+
+        int e;
+        if (this.free != 0) {
+            e = this.free - 1;
+            this.free = this.next[e];
+        } else {
+            if (this.used == this.keys.length) {
+                int capacity = this.used + (this.used >> 1) + 1;
+                this.keys = Arrays.copyOf(this.keys, capacity);
+                this.values = Arrays.copyOf(this.values, capacity);
+                this.next = Arrays.copyOf(this.next, capacity);
+            }
+            e = this.used++;
+        }
+        int id = index(k, this.m);
+        this.keys[e] = k;
+        this.values[e] = v;
+        this.next[e] = this.heads[id];
+        this.heads[id] = e + 1;
+        this.size++;
+
+        if (this.maxLoadFactor > 0 && this.size > this.maxLoadFactor * this.m && this.m <= 1 << 29)
+            rehash(this.m * 2);
+        return true;
+    }
+
+    /**
+     * Removes the element from the set in a single pass over its chain.
+     *
+     * @param k Element key
+     * @return true, if the element was removed; otherwise false
+     */
+    public boolean remove(int k) {
+        if (this.heads == null)
+            return false;
+        int id = index(k, this.m);
+        for (int prev = 0, e = this.heads[id]; e != 0; prev = e, e = this.next[e - 1]) {
+            if (this.keys[e - 1] == k) {
+                if (prev == 0)
+                    this.heads[id] = this.next[e - 1];
+                else
+                    this.next[prev - 1] = this.next[e - 1];
+                this.values[e - 1] = null;
+                this.next[e - 1] = this.free;
+                this.free = e;
+                this.size--;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Finds the element.
+     *
+     * @param k Element key
+     * @return true, if the element was found; false otherwise.
+     */
+    public boolean contains(int k) {
+        return find(k) >= 0;
+    }
+
+    /**
+     * Maps the given key to its value, if the key exists in the hash map.
+     *
+     * @param k Element key
+     * @return The value for the given key or null, if such a key does not exist.
+     */
+    public String get(int k) {
+        int e = find(k);
+        return e >= 0 ? this.values[e] : null;
+    }
+}
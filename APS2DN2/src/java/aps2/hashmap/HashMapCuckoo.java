@@ -0,0 +1,276 @@
+package aps2.hashmap;
+
+import java.util.Arrays;
+
+/**
+ * Hash map employing bucketized cuckoo hashing.
+ *
+ * The table is split into two halves with their own hash function, and
+ * every key lives in one of its two candidate buckets of 4 slots, or in a
+ * small stash. A lookup therefore reads at most 2 * 4 + STASH slots, no
+ * matter how full the table is or how the keys collide. When both buckets
+ * of a new key are full, add evicts a key from one of them into its other
+ * bucket, which may evict another key, and so on. A key which is still
+ * homeless after MAX_KICKS evictions goes to the stash, and when the stash
+ * is full the table doubles. With 4 slots per bucket the table can be
+ * filled to about 95% before that happens, so it also doubles at 95% load
+ * to keep the eviction chains short.
+ */
+public class HashMapCuckoo {
+    private static final int SLOTS = 4; // slots per bucket
+    private static final int STASH = 8;
+    private static final int MAX_KICKS = 256;
+
+    private int keys[];
+    private String values[];
+    private byte fill[]; // occupied slots per bucket, always the first ones
+    private int buckets; // buckets per half
+    private int size;
+
+    private int stashKeys[] = new int[STASH];
+    private String stashValues[] = new String[STASH];
+    private int stashSize;
+
+    private int victim; // state of the eviction choice, so that kick chains do not cycle
+    private int homelessKey; // element left over by place
+    private String homelessValue;
+
+    public HashMapCuckoo() {
+        this(16);
+    }
+
+    /**
+     * @param m Expected number of elements
+     */
+    public HashMapCuckoo(int m) {
+        allocate(HashMapChaining.powerOfTwo(Math.max(1, (int) Math.min(1 << 27, (m + 2L * SLOTS - 1) / (2 * SLOTS)))));
+    }
+
+    private void allocate(int buckets) {
+        this.buckets = buckets;
+        this.keys = new int[2 * buckets * SLOTS];
+        this.values = new String[2 * buckets * SLOTS];
+        this.fill = new byte[2 * buckets];
+    }
+
+    /**
+     * @return Number of elements in the map.
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * @return Number of slots, without the stash.
+     */
+    public int capacity() {
+        return this.keys.length;
+    }
+
+    /**
+     * @return Number of elements which did not fit into their buckets.
+     */
+    public int stashSize() {
+        return this.stashSize;
+    }
+
+    private int bucket0(int k) {
+        return HashFunction.mix(k) & (this.buckets - 1);
+    }
+
+    private int bucket1(int k) {
+        // top bits of the Fibonacci hash, independent of the low bits of mix
+        return this.buckets + (int) (((k * 0x9E3779B9) & 0xffffffffL) * this.buckets >>> 32);
+    }
+
+    /**
+     * @return The other candidate bucket of the key stored in bucket b.
+     */
+    private int alternate(int k, int b) {
+        return b < this.buckets ? bucket1(k) : bucket0(k);
+    }
+
+    /**
+     * @return Slot holding the key in bucket b; -1, if the key is not there.
+     */
+    private int findInBucket(int k, int b) {
+        int first = b * SLOTS;
+        for (int slot = first, end = first + this.fill[b]; slot < end; slot++)
+            if (this.keys[slot] == k)
+                return slot;
+        return -1;
+    }
+
+    private int findInStash(int k) {
+        for (int i = 0; i < this.stashSize; i++)
+            if (this.stashKeys[i] == k)
+                return i;
+        return -1;
+    }
+
+    private boolean putInBucket(int b, int k, String v) {
+        if (this.fill[b] == SLOTS)
+            return false;
+        int slot = b * SLOTS + this.fill[b]++;
+        this.keys[slot] = k;
+        this.values[slot] = v;
+        return true;
+    }
+
+    /**
+     * Places the element into one of its buckets, evicting other elements
+     * if necessary.
+     *
+     * @return true, if all elements found a slot; false, if the element
+     *         left in homelessKey and homelessValue needs the stash.
+     */
+    private boolean place(int k, String v) {
+        int b0 = bucket0(k), b1 = bucket1(k);
+        if (putInBucket(this.fill[b0] <= this.fill[b1] ? b0 : b1, k, v)
+                || putInBucket(b0, k, v) || putInBucket(b1, k, v))
+            return true;
+
+        int b = b0;
+        for (int kick = 0; kick < MAX_KICKS; kick++) {
+            // swap with a slot of the full bucket, and move the evicted element on
+            this.victim = this.victim * 0x2C1B3C6D + 0x297A2D39;
+            int slot = b * SLOTS + (this.victim >>> 30); // top 2 bits choose one of the 4 slots
+            int evictedKey = this.keys[slot];
+            String evictedValue = this.values[slot];
+            this.keys[slot] = k;
+            this.values[slot] = v;
+            k = evictedKey;
+            v = evictedValue;
+            b = alternate(k, b);
+            if (putInBucket(b, k, v))
+                return true;
+        }
+        this.homelessKey = k;
+        this.homelessValue = v;
+        return false;
+    }
+
+    /**
+     * Doubles the table and inserts all elements again.
+     */
+    private void grow() {
+        int oldKeys[] = this.keys;
+        String oldValues[] = this.values;
+        byte oldFill[] = this.fill;
+        int oldStashKeys[] = this.stashKeys.clone();
+        String oldStashValues[] = this.stashValues.clone();
+        int oldStashSize = this.stashSize;
+        if (this.buckets >= 1 << 27)
+            throw new IllegalStateException("Hash table cannot grow beyond " + (1 << 30) + " slots");
+        allocate(this.buckets * 2);
+        this.stashSize = 0;
+        Arrays.fill(this.stashValues, null);
+
+        for (int b = 0; b < oldFill.length; b++)
+            for (int slot = b * SLOTS; slot < b * SLOTS + oldFill[b]; slot++)
+                insert(oldKeys[slot], oldValues[slot]);
+        for (int i = 0; i < oldStashSize; i++)
+            insert(oldStashKeys[i], oldStashValues[i]);
+    }
+
+    /**
+     * Inserts a key which does not exist in the map yet.
+     */
+    private void insert(int k, String v) {
+        while (!place(k, v)) {
+            k = this.homelessKey;
+            v = this.homelessValue;
+            this.homelessValue = null;
+            if (this.stashSize < STASH) {
+                this.stashKeys[this.stashSize] = k;
+                this.stashValues[this.stashSize++] = v;
+                return;
+            }
+            grow();
+        }
+    }
+
+    /**
+     * If the element doesn't exist yet, inserts it into the set.
+     *
+     * @param k Element key
+     * @param v Element value
+     * @return true, if element was added; false otherwise.
+     */
+    public boolean add(int k, String v) {
+        if (contains(k))
+            return false;
+        if (this.size >= this.keys.length * 19L / 20)
+            grow();
+        insert(k, v);
+        this.size++;
+        return true;
+    }
+
+    /**
+     * Removes the element from the set.
+     *
+     * @param k Element key
+     * @return true, if the element was removed; otherwise false
+     */
+    public boolean remove(int k) {
+        int b = bucket0(k), slot = findInBucket(k, b);
+        if (slot < 0)
+            slot = findInBucket(k, b = bucket1(k));
+        if (slot >= 0) {
+            // keep the occupied slots of the bucket at its start
+            int last = b * SLOTS + --this.fill[b];
+            this.keys[slot] = this.keys[last];
+            this.values[slot] = this.values[last];
+            this.values[last] = null;
+            // the freed slot may take back an element from the stash
+            for (int i = 0; i < this.stashSize; i++) {
+                int key = this.stashKeys[i];
+                if ((bucket0(key) == b || bucket1(key) == b) && putInBucket(b, key, this.stashValues[i])) {
+                    removeFromStash(i);
+                    break;
+                }
+            }
+        } else {
+            int i = findInStash(k);
+            if (i < 0)
+                return false;
+            removeFromStash(i);
+        }
+        this.size--;
+        return true;
+    }
+
+    private void removeFromStash(int i) {
+        this.stashSize--;
+        this.stashKeys[i] = this.stashKeys[this.stashSize];
+        this.stashValues[i] = this.stashValues[this.stashSize];
+        this.stashValues[this.stashSize] = null;
+    }
+
+    /**
+     * Finds the element.
+     *
+     * @param k Element key
+     * @return true, if the element was found; false otherwise.
+     */
+    public boolean contains(int k) {
+        return findInBucket(k, bucket0(k)) >= 0 || findInBucket(k, bucket1(k)) >= 0 || findInStash(k) >= 0;
+    }
+
+    /**
+     * Maps the given key to its value, if the key exists in the hash map.
+     *
+     * @param k Element key
+     * @return The value for the given key or null, if such a key does not exist.
+     */
+    public String get(int k) {
+        int slot = findInBucket(k, bucket0(k));
+        if (slot < 0)
+            slot = findInBucket(k, bucket1(k));
+        if (slot >= 0)
+            return this.values[slot];
+        int i = findInStash(k);
+        return i >= 0 ? this.stashValues[i] : null;
+    }
+}
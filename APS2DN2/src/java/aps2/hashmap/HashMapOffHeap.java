@@ -0,0 +1,297 @@
+package aps2.hashmap;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hash map with open addressing, stored outside of the Java heap.
+ *
+ * The slots and the values live in direct ByteBuffers, so the garbage
+ * collector sees a few dozen buffer objects however many elements the map
+ * holds. A slot is 12 bytes: the key and a reference to the value, which is
+ * a length-prefixed UTF-8 string in one of the value chunks. The slots are
+ * split into segments of 2^20, so the table is not limited by the 2 GB of a
+ * single buffer. Keys are placed by linear probing and removed by shifting
+ * the rest of the cluster back, so no tombstones are needed; the table
+ * doubles at 3/4 load. Values of removed elements stay in their chunk until
+ * they make up more than half of the value bytes, when the live values are
+ * copied into new chunks.
+ *
+ * close() drops the buffers, and their memory is returned when the garbage
+ * collector finds them unreachable; Java 8 has no public API to free a
+ * direct buffer at once. Any later operation throws IllegalStateException.
+ */
+public class HashMapOffHeap implements Closeable {
+    private static final int SLOT = 12; // key, value reference
+    private static final int S_KEY = 0, S_VALUE = 4;
+    private static final int SEGMENT_BITS = 20; // slots per segment
+    private static final int CHUNK = 1 << 24; // default size of a value chunk
+
+    // value reference: 0 in an empty slot, 1 for a null value, otherwise chunk << 32 | position + 2
+    private static final long EMPTY = 0, NULL = 1;
+
+    private ByteBuffer segments[];
+    private int mask; // number of slots - 1
+    private int size;
+
+    private List<ByteBuffer> chunks = new ArrayList<ByteBuffer>();
+    private long valueBytes; // bytes used in the chunks, including removed values
+    private long garbage;    // bytes of removed values
+
+    public HashMapOffHeap() {
+        this(16);
+    }
+
+    /**
+     * @param m Expected number of elements
+     */
+    public HashMapOffHeap(int m) {
+        this.segments = allocate(HashMapChaining.powerOfTwo((int) Math.min(1 << 30, Math.max(m, 1) * 4L / 3 + 1)));
+    }
+
+    private ByteBuffer[] allocate(int slots) {
+        int perSegment = Math.min(slots, 1 << SEGMENT_BITS);
+        ByteBuffer segments[] = new ByteBuffer[slots / perSegment];
+        for (int i = 0; i < segments.length; i++)
+            segments[i] = ByteBuffer.allocateDirect(perSegment * SLOT); // zeroed, so every slot is empty
+        this.mask = slots - 1;
+        return segments;
+    }
+
+    private void ensureOpen() {
+        if (this.segments == null)
+            throw new IllegalStateException("Map is closed");
+    }
+
+    /**
+     * @return Number of elements in the map.
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * @return Number of slots.
+     */
+    public int capacity() {
+        return this.mask + 1;
+    }
+
+    /**
+     * @return Bytes allocated outside of the heap for slots and values.
+     */
+    public long offHeapBytes() {
+        long bytes = 0;
+        if (this.segments != null)
+            for (ByteBuffer segment : this.segments)
+                bytes += segment.capacity();
+        for (ByteBuffer chunk : this.chunks)
+            bytes += chunk.capacity();
+        return bytes;
+    }
+
+    /*
+     * Slot accessors
+     */
+
+    private static ByteBuffer segment(ByteBuffer segments[], int slot) {
+        return segments[slot >>> SEGMENT_BITS];
+    }
+
+    private static int position(int slot) {
+        return (slot & ((1 << SEGMENT_BITS) - 1)) * SLOT;
+    }
+
+    private int key(int slot) {
+        return segment(this.segments, slot).getInt(position(slot) + S_KEY);
+    }
+
+    private long value(int slot) {
+        return segment(this.segments, slot).getLong(position(slot) + S_VALUE);
+    }
+
+    private static void set(ByteBuffer segments[], int slot, int key, long value) {
+        ByteBuffer segment = segment(segments, slot);
+        segment.putInt(position(slot) + S_KEY, key);
+        segment.putLong(position(slot) + S_VALUE, value);
+    }
+
+    private int home(int k) {
+        return HashFunction.mix(k) & this.mask;
+    }
+
+    /*
+     * Value chunks
+     */
+
+    private long putString(String value) {
+        if (value == null)
+            return NULL;
+        byte bytes[] = value.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer chunk = this.chunks.isEmpty() ? null : this.chunks.get(this.chunks.size() - 1);
+        if (chunk == null || chunk.remaining() < 4 + bytes.length) {
+            chunk = ByteBuffer.allocateDirect(Math.max(CHUNK, 4 + bytes.length));
+            this.chunks.add(chunk);
+        }
+        long reference = ((long) (this.chunks.size() - 1) << 32 | chunk.position()) + 2;
+        chunk.putInt(bytes.length);
+        chunk.put(bytes);
+        this.valueBytes += 4 + bytes.length;
+        return reference;
+    }
+
+    private static String getString(List<ByteBuffer> chunks, long reference) {
+        if (reference == NULL)
+            return null;
+        reference -= 2;
+        ByteBuffer chunk = chunks.get((int) (reference >>> 32)).duplicate();
+        chunk.position((int) reference);
+        byte bytes[] = new byte[chunk.getInt()];
+        chunk.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private int stringBytes(long reference) {
+        if (reference == NULL)
+            return 0;
+        reference -= 2;
+        return 4 + this.chunks.get((int) (reference >>> 32)).getInt((int) reference);
+    }
+
+    /**
+     * Copies the values of all elements into new chunks, dropping the
+     * values of removed elements.
+     */
+    private void compactValues() {
+        List<ByteBuffer> old = this.chunks;
+        this.chunks = new ArrayList<ByteBuffer>();
+        this.valueBytes = 0;
+        this.garbage = 0;
+        for (int slot = 0; slot <= this.mask; slot++) {
+            long reference = value(slot);
+            if (reference == EMPTY || reference == NULL)
+                continue;
+            set(this.segments, slot, key(slot), putString(getString(old, reference)));
+        }
+    }
+
+    /*
+     * Table
+     */
+
+    /**
+     * @return Slot holding the key; -1, if the key does not exist.
+     */
+    private int find(int k) {
+        for (int slot = home(k); ; slot = (slot + 1) & this.mask) {
+            long value = value(slot);
+            if (value == EMPTY)
+                return -1;
+            if (key(slot) == k)
+                return slot;
+        }
+    }
+
+    private void grow() {
+        ByteBuffer old[] = this.segments;
+        int oldSlots = this.mask + 1;
+        if (oldSlots >= 1 << 30)
+            throw new IllegalStateException("Hash table cannot grow beyond " + (1 << 30) + " slots");
+        this.segments = allocate(oldSlots * 2);
+        for (int slot = 0; slot < oldSlots; slot++) {
+            long value = segment(old, slot).getLong(position(slot) + S_VALUE);
+            if (value == EMPTY)
+                continue;
+            int key = segment(old, slot).getInt(position(slot) + S_KEY);
+            int id = home(key);
+            while (value(id) != EMPTY)
+                id = (id + 1) & this.mask;
+            set(this.segments, id, key, value);
+        }
+    }
+
+    /**
+     * If the element doesn't exist yet, inserts it into the set.
+     *
+     * @param k Element key
+     * @param v Element value
+     * @return true, if element was added; false otherwise.
+     */
+    public boolean add(int k, String v) {
+        ensureOpen();
+        if (find(k) >= 0)
+            return false;
+        if (this.size + 1 > (this.mask + 1L) / 4 * 3)
+            grow();
+        int slot = home(k);
+        while (value(slot) != EMPTY)
+            slot = (slot + 1) & this.mask;
+        set(this.segments, slot, k, putString(v));
+        this.size++;
+        return true;
+    }
+
+    /**
+     * Removes the element from the set.
+     *
+     * @param k Element key
+     * @return true, if the element was removed; otherwise false
+     */
+    public boolean remove(int k) {
+        ensureOpen();
+        int slot = find(k);
+        if (slot < 0)
+            return false;
+        this.garbage += stringBytes(value(slot));
+
+        // move the following keys of the cluster back, as far as their home slots allow
+        for (int j = (slot + 1) & this.mask; value(j) != EMPTY; j = (j + 1) & this.mask) {
+            if (((j - home(key(j))) & this.mask) >= ((j - slot) & this.mask)) {
+                set(this.segments, slot, key(j), value(j));
+                slot = j;
+            }
+        }
+        set(this.segments, slot, 0, EMPTY);
+        this.size--;
+
+        if (this.garbage > CHUNK && this.garbage * 2 > this.valueBytes)
+            compactValues();
+        return true;
+    }
+
+    /**
+     * Finds the element.
+     *
+     * @param k Element key
+     * @return true, if the element was found; false otherwise.
+     */
+    public boolean contains(int k) {
+        ensureOpen();
+        return find(k) >= 0;
+    }
+
+    /**
+     * Maps the given key to its value, if the key exists in the hash map.
+     *
+     * @param k Element key
+     * @return The value for the given key or null, if such a key does not exist.
+     */
+    public String get(int k) {
+        ensureOpen();
+        int slot = find(k);
+        return slot >= 0 ? getString(this.chunks, value(slot)) : null;
+    }
+
+    /**
+     * Drops all buffers. The map cannot be used afterwards.
+     */
+    @Override
+    public void close() {
+        this.segments = null;
+        this.chunks = new ArrayList<ByteBuffer>();
+        this.size = 0;
+    }
+}
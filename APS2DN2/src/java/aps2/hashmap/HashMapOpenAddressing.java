@@ -1,60 +1,548 @@
 package aps2.hashmap;
 
+import java.io.IOException;
+import java.nio.file.Path;
+
 /**
  * Hash map with open addressing.
+ *
+ * By default the table has a fixed size m and add fails once no free slot
+ * can be found. If a maximum load factor is given, the table size is rounded
+ * up to a power of two and doubled whenever the number of elements exceeds
+ * maxLoadFactor * m, and optionally halved (never below the initial size)
+ * when it drops under minLoadFactor * m. With incremental rehashing the old
+ * table is kept after a resize and a few of its slots are moved to the new
+ * table on every operation, so no single add has to rehash the whole map.
+ *
+ * On power-of-two tables i^2 and i*h(k) only reach a fraction of the slots,
+ * so growing tables probe with the triangular numbers i(i+1)/2 for
+ * quadratic probing and with the odd step h(k)|1 for double hashing; both
+ * visit every slot.
+ *
+ * Removal keeps the probe sequences of the remaining keys intact. With
+ * linear and Robin Hood probing the following keys of the cluster are
+ * shifted back into the freed slot, so no tombstones are left behind. With
+ * quadratic probing and double hashing the slot is replaced by a tombstone,
+ * which lookups skip and add reuses; growing tables rehash in place once
+ * tombstones push the load over the maximum. Any table is also rehashed
+ * into a new one of the same size once the tombstones outnumber the free
+ * slots, so that unsuccessful lookups don't probe through most of it.
+ *
+ * Robin Hood probing is linear probing in which a key that is further from
+ * its home slot takes the slot of a key that is closer to its own. This
+ * keeps the variance of probe lengths low even above 90% load, and lets an
+ * unsuccessful lookup stop as soon as it meets a key closer to home than
+ * the searched one would be.
+ *
+ * getAll and addAll hash a batch of keys and load the home slot of every
+ * key before resolving the first one, so the cache misses of the batch
+ * overlap. Keys whose home slot decides the outcome are resolved from the
+ * loaded slots; the others take the usual path.
  */
 public class HashMapOpenAddressing {
+    private static final int MIGRATE_STEP = 8; // old slots moved per operation
+    private static final int BATCH = 16; // keys whose home slots are loaded together
+    private static final int MIN_REBUILD = 16; // inverse of the least share of tombstones worth a rebuild
+
     private Element table[]; // table content, if element is not present, use Integer.MIN_VALUE for Element's key
     private HashFunction.HashingMethod h;
     private CollisionProbeSequence c;
+    private int size;
+    private int tombstones; // tombstones in table
+    private int rebuildAt; // tombstones at which a failed rebuild in place is retried
+
+    // shared marker of removed elements, empty for the getTable readers
+    private static final Element TOMBSTONE = new Element(Integer.MIN_VALUE, null);
+
+    private double maxLoadFactor; // 0, if the table size is fixed
+    private double minLoadFactor; // 0, if the table never shrinks
+    private int initialCapacity;
+    private boolean incremental;
+    private Element oldTable[]; // table being migrated, or null
+    private int migrated; // slots of oldTable which were already moved
+
+    private int probes; // slots inspected by the current operation
+    private final HashMapStats.Recorder stats = new HashMapStats.Recorder();
 
     public static enum CollisionProbeSequence {
         LinearProbing,    // new h(k) = (h(k) + i) mod m
         QuadraticProbing, // new h(k) = (h(k) + i^2) mod m
-        DoubleHashing     // new h(k) = (h(k) + i*h(k)) mod m
+        DoubleHashing,    // new h(k) = (h(k) + i*h(k)) mod m
+        RobinHoodProbing  // linear probing, keys which are further from home displace the others
     }
 
     ;
 
     private int linearProbing(int k, int i, int m) {
-        if (this.h == HashFunction.HashingMethod.DivisionMethod) {
-            return (HashFunction.DivisionMethod(k, m) + i) % Math.abs(m);
-        } else {
-            return (HashFunction.KnuthMethod(k, m) + i) % Math.abs(m);
-        }
+        return (index(k, m) + i) % Math.abs(m);
     }
 
     private int quadraticProbing(int k, int i, int m) {
-        if (this.h == HashFunction.HashingMethod.DivisionMethod) {
-            return (HashFunction.DivisionMethod(k, m) + i * i) % Math.abs(m);
+        if (this.maxLoadFactor > 0) {
+            return (int) ((index(k, m) + (long) i * (i + 1) / 2) & (m - 1));
         } else {
-            return (HashFunction.KnuthMethod(k, m) + i * i) % Math.abs(m);
+            return (index(k, m) + i * i) % Math.abs(m);
         }
     }
 
     private int doubleHashing(int k, int i, int m) {
-        if (this.h == HashFunction.HashingMethod.DivisionMethod) {
-            return (HashFunction.DivisionMethod(k, m) + i * HashFunction.DivisionMethod(k, m)) % Math.abs(m);
+        if (this.maxLoadFactor > 0) {
+            int id = index(k, m);
+            return (id + i * (id | 1)) & (m - 1);
         } else {
-            return (HashFunction.KnuthMethod(k, m) + i * HashFunction.KnuthMethod(k, m)) % Math.abs(m);
+            return (index(k, m) + i * index(k, m)) % Math.abs(m);
+        }
+    }
+
+    private int index(int k, int m) {
+        return HashFunction.hash(this.h, k, m);
+    }
+
+    /**
+     * @return Slot of the i-th probe for key k in a table of size m.
+     */
+    private int probe(int k, int i, int m) {
+        switch (this.c) {
+            case LinearProbing:
+            case RobinHoodProbing:
+                return linearProbing(k, i, m);
+            case QuadraticProbing:
+                return quadraticProbing(k, i, m);
+            default:
+                return doubleHashing(k, i, m);
         }
     }
 
     public HashMapOpenAddressing(int m, HashFunction.HashingMethod h, CollisionProbeSequence c) {
-        this.table = new Element[m];
+        this.table = newTable(m);
         this.h = h;
         this.c = c;
+    }
+
+    /**
+     * Creates a growing hash map.
+     *
+     * @param m Initial table size, rounded up to a power of two
+     * @param h Hashing method
+     * @param c Probe sequence
+     * @param maxLoadFactor Share of occupied slots at which the table doubles, at most 1
+     */
+    public HashMapOpenAddressing(int m, HashFunction.HashingMethod h, CollisionProbeSequence c, double maxLoadFactor) {
+        this(m, h, c, maxLoadFactor, 0, false);
+    }
 
+    /**
+     * Creates a growing and shrinking hash map.
+     *
+     * @param m Initial table size, rounded up to a power of two
+     * @param h Hashing method
+     * @param c Probe sequence
+     * @param maxLoadFactor Share of occupied slots at which the table doubles, at most 1
+     * @param minLoadFactor Share of occupied slots at which the table halves; 0 to never shrink
+     * @param incremental true, to spread rehashing over the following operations
+     */
+    public HashMapOpenAddressing(int m, HashFunction.HashingMethod h, CollisionProbeSequence c,
+            double maxLoadFactor, double minLoadFactor, boolean incremental) {
+        if (!(maxLoadFactor > 0 && maxLoadFactor <= 1))
+            throw new IllegalArgumentException("Maximum load factor must be in (0, 1]: " + maxLoadFactor);
+        if (minLoadFactor < 0 || minLoadFactor * 2 >= maxLoadFactor)
+            throw new IllegalArgumentException("Minimum load factor must be below half of the maximum: " + minLoadFactor);
+        this.h = h;
+        this.c = c;
+        this.maxLoadFactor = maxLoadFactor;
+        this.minLoadFactor = minLoadFactor;
+        this.incremental = incremental;
+        this.initialCapacity = HashMapChaining.powerOfTwo(m);
+        this.table = newTable(this.initialCapacity);
+    }
+
+    private static Element[] newTable(int m) {
+        Element table[] = new Element[m];
         // init empty slot as MIN_VALUE
         for (int i = 0; i < m; i++) {
             table[i] = new Element(Integer.MIN_VALUE, "");
         }
+        return table;
     }
 
     public Element[] getTable() {
         return this.table;
     }
 
+    /**
+     * @return Number of elements in the map.
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * @return Number of linear probing steps from the home slot of key k to slot id.
+     */
+    private int distance(int k, int id, int m) {
+        int d = id - index(k, m);
+        return d < 0 ? d + m : d;
+    }
+
+    /**
+     * Puts the element into the first free (empty or deleted) slot of its
+     * probe sequence. The key must not exist in the table yet.
+     *
+     * @return true, if the element was placed; false, if there is no free slot.
+     */
+    private boolean place(Element[] table, Element element) {
+        int m = table.length;
+        if (this.c == CollisionProbeSequence.RobinHoodProbing)
+            return placeRobinHood(table, element);
+        for (int i = 0; i < m; i++) {
+            int id = probe(element.key, i, m);
+            if (table[id].key == Integer.MIN_VALUE) {
+                if (table[id] == TOMBSTONE && table == this.table)
+                    this.tombstones--;
+                table[id] = element;
+                this.probes += i + 1;
+                return true;
+            }
+        }
+        this.probes += m;
+        return false;
+    }
+
+    private boolean placeRobinHood(Element[] table, Element element) {
+        int m = table.length;
+        int home = index(element.key, m);
+        // displaced keys move on towards the end of the cluster, so make sure it ends
+        int end = home;
+        for (int i = 0; table[end].key != Integer.MIN_VALUE; i++) {
+            if (i == m - 1) {
+                this.probes += m;
+                return false;
+            }
+            end = end + 1 < m ? end + 1 : 0;
+        }
+        this.probes += (end - home < 0 ? end - home + m : end - home) + 1;
+        for (int id = home, dist = 0; id != end; id = id + 1 < m ? id + 1 : 0, dist++) {
+            int d = distance(table[id].key, id, m);
+            if (d < dist) {
+                Element displaced = table[id];
+                table[id] = element;
+                element = displaced;
+                dist = d;
+            }
+        }
+        table[end] = element;
+        return true;
+    }
+
+    /**
+     * @return Slot holding the key; -1, if the key does not exist in the table.
+     */
+    private int find(Element[] table, int k) {
+        int m = table.length;
+        if (this.c == CollisionProbeSequence.RobinHoodProbing) {
+            for (int i = 0, id = index(k, m); i < m; i++, id = id + 1 < m ? id + 1 : 0) {
+                Element element = table[id];
+                if (element.key == k) {
+                    this.probes += i + 1;
+                    return id;
+                }
+                if (element == TOMBSTONE)
+                    continue;
+                if (element.key == Integer.MIN_VALUE || distance(element.key, id, m) < i) {
+                    this.probes += i + 1;
+                    return -1;
+                }
+            }
+            this.probes += m;
+            return -1;
+        }
+        for (int i = 0; i < m; i++) {
+            int id = probe(k, i, m);
+            Element element = table[id];
+            if (element.key == k || (element.key == Integer.MIN_VALUE && element != TOMBSTONE)) {
+                this.probes += i + 1;
+                return element.key == k ? id : -1;
+            }
+        }
+        this.probes += m;
+        return -1;
+    }
+
+    /**
+     * Frees the slot of the current table by moving the following keys of
+     * its cluster back, as far as their home slots allow.
+     */
+    private void shiftBack(int id) {
+        Element table[] = this.table;
+        int m = table.length;
+        Element empty = table[id];
+        empty.key = Integer.MIN_VALUE;
+        empty.value = null;
+        for (int j = id + 1 < m ? id + 1 : 0; table[j].key != Integer.MIN_VALUE; j = j + 1 < m ? j + 1 : 0) {
+            int gap = j - id < 0 ? j - id + m : j - id;
+            if (distance(table[j].key, j, m) >= gap) {
+                table[id] = table[j];
+                table[j] = empty;
+                id = j;
+            } else if (this.c == CollisionProbeSequence.RobinHoodProbing) {
+                break; // the rest of the cluster is ordered by home slot
+            }
+        }
+    }
+
+    /**
+     * Moves the given number of slots of the old table to the new one. An
+     * element which does not fit forces a full rehash into a larger table.
+     */
+    private void migrate(int slots) {
+        for (; slots > 0 && this.migrated < this.oldTable.length; slots--, this.migrated++) {
+            Element element = this.oldTable[this.migrated];
+            if (element.key == Integer.MIN_VALUE)
+                continue;
+            if (!place(this.table, element)) {
+                rebuild(this.table.length * 2);
+                return;
+            }
+            // keys which are not migrated yet may probe past this slot
+            this.oldTable[this.migrated] = TOMBSTONE;
+        }
+        if (this.migrated == this.oldTable.length)
+            this.oldTable = null;
+    }
+
+    /**
+     * Rehashes all elements at once into a table of at least m slots,
+     * doubling it until every element finds a free slot.
+     */
+    private void rebuild(int m) {
+        Element[][] sources = this.oldTable != null
+                ? new Element[][] { this.table, this.oldTable } : new Element[][] { this.table };
+        this.oldTable = null;
+        retry:
+        while (true) {
+            if (m > 1 << 30)
+                throw new IllegalStateException("Hash table cannot grow beyond " + (1 << 30) + " slots");
+            Element[] next = newTable(m);
+            for (Element[] source : sources) {
+                for (Element element : source) {
+                    if (element.key != Integer.MIN_VALUE && !place(next, element)) {
+                        m *= 2;
+                        continue retry;
+                    }
+                }
+            }
+            this.table = next;
+            this.tombstones = 0;
+            this.rebuildAt = 0;
+            return;
+        }
+    }
+
+    private void resize(int m) {
+        if (!this.incremental) {
+            rebuild(m);
+            return;
+        }
+        if (this.oldTable != null)
+            migrate(this.oldTable.length);
+        if (this.oldTable != null)
+            return; // migration ended in a full rebuild
+        this.oldTable = this.table;
+        this.migrated = 0;
+        this.table = newTable(m);
+        this.tombstones = 0;
+        this.rebuildAt = 0;
+    }
+
+    /**
+     * Rehashes the elements into a new table of the same size, which drops
+     * the tombstones. Quadratic probing does not reach every slot; if an
+     * element finds no free slot in the new table, the table keeps its
+     * tombstones and the next attempt waits for m / MIN_REBUILD more of
+     * them, so rebuilds cost amortized O(1) per remove.
+     */
+    private void rebuildInPlace() {
+        int m = this.table.length;
+        Element next[] = newTable(m);
+        for (Element element : this.table) {
+            if (element.key != Integer.MIN_VALUE && !place(next, element)) {
+                this.rebuildAt = this.tombstones + m / MIN_REBUILD;
+                return;
+            }
+        }
+        this.table = next;
+        this.tombstones = 0;
+        this.rebuildAt = 0;
+    }
+
+    /**
+     * Advances the incremental rehash and starts a new one, if the load
+     * factor left the allowed range. Tombstones which outnumber the free
+     * slots are dropped by a rebuild, whatever the load factor.
+     */
+    private void maintain() {
+        if (this.oldTable != null)
+            migrate(MIGRATE_STEP);
+        int m = this.table.length;
+        if (this.maxLoadFactor != 0) {
+            if (this.size > this.maxLoadFactor * m && m <= 1 << 29)
+                resize(m * 2);
+            else if (this.size < this.minLoadFactor * m && m > this.initialCapacity)
+                resize(m / 2);
+            else if (this.size + this.tombstones > this.maxLoadFactor * m)
+                rebuild(m);
+        }
+        // during a migration the size also counts the elements of the old table
+        if (this.oldTable == null && this.tombstones > m - this.size - this.tombstones
+                && this.tombstones >= Math.max(m / MIN_REBUILD, this.rebuildAt))
+            rebuildInPlace();
+    }
+
+    /**
+     * @return Element with the given key; null, if the key does not exist.
+     */
+    private Element find(int k) {
+        if (k == Integer.MIN_VALUE)
+            return null; // marks empty slots
+        int id = find(this.table, k);
+        if (id >= 0)
+            return this.table[id];
+        if (this.oldTable != null && (id = find(this.oldTable, k)) >= 0)
+            return this.oldTable[id];
+        return null;
+    }
+
+    /**
+     * Finds the element and records the probes of the lookup.
+     */
+    private Element lookup(int k) {
+        this.probes = 0;
+        Element element = find(k);
+        this.stats.record(HashMapStats.GET, this.probes);
+        return element;
+    }
+
+    /**
+     * Returns the statistics of the table and of the operations since
+     * construction or the last resetStats. The probe histograms are updated
+     * on every add, remove, get and contains, which costs an array increment
+     * per operation; the clusters are counted by walking the table.
+     *
+     * @return Snapshot of the statistics.
+     */
+    public HashMapStats getStats() {
+        long clusters[] = new long[HashMapStats.HISTOGRAM_BUCKETS];
+        Element table[] = this.table;
+        int m = table.length;
+        int start = 0;
+        while (start < m && (table[start].key != Integer.MIN_VALUE || table[start] == TOMBSTONE))
+            start++;
+        if (start == m) {
+            HashMapStats.count(clusters, m); // no empty slot, a single cluster
+        } else {
+            // start at an empty slot, so that a cluster wrapping around the end is counted once
+            int length = 0;
+            for (int i = 1; i <= m; i++) {
+                Element element = table[(start + i) % m];
+                if (element.key != Integer.MIN_VALUE || element == TOMBSTONE) {
+                    length++;
+                } else if (length > 0) {
+                    HashMapStats.count(clusters, length);
+                    length = 0;
+                }
+            }
+        }
+        return this.stats.snapshot(this.size, m, this.tombstones, clusters);
+    }
+
+    /**
+     * Clears the probe histograms and the failed insert count.
+     */
+    public void resetStats() {
+        this.stats.reset();
+    }
+
+    /**
+     * Writes the table into a snapshot file, from which readSnapshot restores
+     * the map without rehashing. The snapshot holds a single table, so a
+     * running incremental rehash is finished first: writing a snapshot moves
+     * the remaining slots of the old table like a series of operations would,
+     * and the map must not be used by other threads meanwhile. The statistics
+     * are not saved.
+     *
+     * @param path Snapshot file, replaced if it exists
+     * @throws IOException if the file cannot be written
+     */
+    public void writeSnapshot(Path path) throws IOException {
+        if (this.oldTable != null)
+            migrate(this.oldTable.length);
+        Element table[] = this.table;
+        int m = table.length;
+        int keys[] = new int[m];
+        long tombstones[] = new long[(m + 63) >>> 6];
+        for (int i = 0; i < m; i++) {
+            keys[i] = table[i].key;
+            if (table[i] == TOMBSTONE)
+                tombstones[i >>> 6] |= 1L << i;
+        }
+        try (HashMapSnapshot out = HashMapSnapshot.create(path, HashMapSnapshot.OPEN_ADDRESSING)) {
+            out.putEnum(this.h);
+            out.putEnum(this.c);
+            out.putDouble(this.maxLoadFactor);
+            out.putDouble(this.minLoadFactor);
+            out.putInt(this.initialCapacity);
+            out.putInt(this.incremental ? 1 : 0);
+            out.putInt(this.size);
+            out.putInt(this.tombstones);
+            out.putInt(m);
+            out.putInts(keys);
+            out.putLongs(tombstones);
+            for (Element element : table)
+                if (element.key != Integer.MIN_VALUE)
+                    out.putString(element.value);
+            out.finish();
+        }
+    }
+
+    /**
+     * Restores a map written by writeSnapshot, with the same table layout.
+     *
+     * @param path Snapshot file
+     * @return The restored map.
+     * @throws IOException if the file cannot be read, or is not a valid snapshot
+     */
+    public static HashMapOpenAddressing readSnapshot(Path path) throws IOException {
+        try (HashMapSnapshot in = HashMapSnapshot.open(path, HashMapSnapshot.OPEN_ADDRESSING)) {
+            HashMapOpenAddressing map = new HashMapOpenAddressing(0,
+                    in.getEnum(HashFunction.HashingMethod.class), in.getEnum(CollisionProbeSequence.class));
+            map.maxLoadFactor = in.getDouble();
+            map.minLoadFactor = in.getDouble();
+            map.initialCapacity = in.getInt();
+            map.incremental = in.getInt() != 0;
+            map.size = in.getInt();
+            map.tombstones = in.getInt();
+            int m = in.getInt();
+            in.expect(4L * m);
+            int keys[] = new int[m];
+            long tombstones[] = new long[(m + 63) >>> 6];
+            in.getInts(keys);
+            in.getLongs(tombstones);
+
+            Element table[] = new Element[m];
+            for (int i = 0; i < m; i++) {
+                if (keys[i] != Integer.MIN_VALUE)
+                    table[i] = new Element(keys[i], in.getString());
+                else if ((tombstones[i >>> 6] & (1L << i)) != 0)
+                    table[i] = TOMBSTONE;
+                else
+                    table[i] = new Element(Integer.MIN_VALUE, "");
+            }
+            in.verify();
+            map.table = table;
+            return map;
+        }
+    }
+
     /**
      * If the element doesn't exist yet, inserts it into the set.
      *
@@ -63,33 +551,70 @@ public class HashMapOpenAddressing {
      * @return true, if element was added; false otherwise.
      */
     public boolean add(int k, String v) {
-        int id;
-        for (int i = 0; i < this.table.length; i++) {
-            switch (this.c) {
-                case LinearProbing:
-                    id = linearProbing(k, i, this.table.length);
-                    if (this.table[id].key == Integer.MIN_VALUE) {
-                        this.table[id] = new Element(k, v);
-                        return true;
-                    }
-                    break;
-                case QuadraticProbing:
-                    id = quadraticProbing(k, i, this.table.length);
-                    if (this.table[id].key == Integer.MIN_VALUE) {
-                        this.table[id] = new Element(k, v);
-                        return true;
-                    }
-                    break;
-                case DoubleHashing:
-                    id = doubleHashing(k, i, this.table.length);
-                    if (this.table[id].key == Integer.MIN_VALUE) {
-                        this.table[id] = new Element(k, v);
-                        return true;
+        if (k == Integer.MIN_VALUE)
+            return false;
+        this.probes = 0;
+        if (find(k) != null) {
+            this.stats.record(HashMapStats.ADD, this.probes);
+            return false;
+        }
+        this.probes = 0;
+        Element element = new Element(k, v);
+        if (!place(this.table, element)) {
+            if (this.maxLoadFactor == 0) {
+                this.stats.record(HashMapStats.ADD, this.probes);
+                this.stats.failedInserts++;
+                return false;
+            }
+            rebuild(this.table.length * 2);
+            this.probes = 0;
+            place(this.table, element);
+        }
+        this.stats.record(HashMapStats.ADD, this.probes);
+        this.size++;
+        maintain();
+        return true;
+    }
+
+    /**
+     * Inserts the elements whose keys don't exist yet, in the given order.
+     *
+     * @param keys Element keys
+     * @param values Element values, at the same indices as the keys
+     * @return Number of elements which were added.
+     */
+    public int addAll(int[] keys, String[] values) {
+        int homes[] = new int[BATCH];
+        int slotKeys[] = new int[BATCH];
+        int added = 0;
+        for (int start = 0; start < keys.length; start += BATCH) {
+            int n = Math.min(BATCH, keys.length - start);
+            Element table[] = this.table;
+            for (int i = 0; i < n; i++)
+                homes[i] = index(keys[start + i], table.length);
+            for (int i = 0; i < n; i++)
+                slotKeys[i] = table[homes[i]].key;
+            for (int i = 0; i < n; i++) {
+                int k = keys[start + i];
+                // an empty home slot ends every probe sequence, so the key is new, unless the
+                // table was resized or an earlier key of the batch took the slot meanwhile
+                if (slotKeys[i] == Integer.MIN_VALUE && k != Integer.MIN_VALUE
+                        && this.table == table && this.oldTable == null) {
+                    Element slot = table[homes[i]];
+                    if (slot.key == Integer.MIN_VALUE && slot != TOMBSTONE) {
+                        table[homes[i]] = new Element(k, values[start + i]);
+                        this.stats.record(HashMapStats.ADD, 1);
+                        this.size++;
+                        maintain();
+                        added++;
+                        continue;
                     }
-                    break;
+                }
+                if (add(k, values[start + i]))
+                    added++;
             }
         }
-        return false;
+        return added;
     }
 
     /**
@@ -99,36 +624,28 @@ public class HashMapOpenAddressing {
      * @return true, if the element was removed; otherwise false
      */
     public boolean remove(int k) {
-        int id;
-        for (int i = 0; i < this.table.length; i++) {
-            switch (this.c) {
-                case LinearProbing:
-                    id = linearProbing(k, i, this.table.length);
-                    if (this.table[id].key == k) {
-                        this.table[id].key = Integer.MIN_VALUE;
-                        this.table[id].value = null;
-                        return true;
-                    }
-                    break;
-                case QuadraticProbing:
-                    id = quadraticProbing(k, i, this.table.length);
-                    if (this.table[id].key == k) {
-                        this.table[id].key = Integer.MIN_VALUE;
-                        this.table[id].value = null;
-                        return true;
-                    }
-                    break;
-                case DoubleHashing:
-                    id = doubleHashing(k, i, this.table.length);
-                    if (this.table[id].key == k) {
-                        this.table[id].key = Integer.MIN_VALUE;
-                        this.table[id].value = null;
-                        return true;
-                    }
-                    break;
+        if (k == Integer.MIN_VALUE)
+            return false;
+        this.probes = 0;
+        int id = find(this.table, k);
+        if (id >= 0) {
+            if (this.c == CollisionProbeSequence.LinearProbing || this.c == CollisionProbeSequence.RobinHoodProbing) {
+                shiftBack(id);
+            } else {
+                this.table[id] = TOMBSTONE;
+                this.tombstones++;
             }
+        } else if (this.oldTable != null && (id = find(this.oldTable, k)) >= 0) {
+            // shifting could move keys into the migrated part of the old table
+            this.oldTable[id] = TOMBSTONE;
+        } else {
+            this.stats.record(HashMapStats.REMOVE, this.probes);
+            return false;
         }
-        return false;
+        this.stats.record(HashMapStats.REMOVE, this.probes);
+        this.size--;
+        maintain();
+        return true;
     }
 
     /**
@@ -138,30 +655,7 @@ public class HashMapOpenAddressing {
      * @return true, if the element was found; false otherwise.
      */
     public boolean contains(int k) {
-        int id;
-        for (int i = 0; i < this.table.length; i++) {
-            switch (this.c) {
-                case LinearProbing:
-                    id = linearProbing(k, i, this.table.length);
-                    if (this.table[id].key == k) {
-                        return true;
-                    }
-                    break;
-                case QuadraticProbing:
-                    id = quadraticProbing(k, i, this.table.length);
-                    if (this.table[id].key == k) {
-                        return true;
-                    }
-                    break;
-                case DoubleHashing:
-                    id = doubleHashing(k, i, this.table.length);
-                    if (this.table[id].key == k) {
-                        return true;
-                    }
-                    break;
-            }
-        }
-        return false;
+        return lookup(k) != null;
     }
 
     /**
@@ -171,30 +665,43 @@ public class HashMapOpenAddressing {
      * @return The value for the given key or null, if such a key does not exist.
      */
     public String get(int k) {
-        int id;
-        for (int i = 0; i < this.table.length; i++) {
-            switch (this.c) {
-                case LinearProbing:
-                    id = linearProbing(k, i, this.table.length);
-                    if (this.table[id].key == k) {
-                        return this.table[id].value;
-                    }
-                    break;
-                case QuadraticProbing:
-                    id = quadraticProbing(k, i, this.table.length);
-                    if (this.table[id].key == k) {
-                        return this.table[id].value;
-                    }
-                    break;
-                case DoubleHashing:
-                    id = doubleHashing(k, i, this.table.length);
-                    if (this.table[id].key == k) {
-                        return this.table[id].value;
-                    }
-                    break;
+        Element element = lookup(k);
+        return element != null ? element.value : null;
+    }
+
+    /**
+     * Maps every key to its value, as get does.
+     *
+     * @param keys Element keys
+     * @param out Receives the value of keys[i], or null, at index i
+     */
+    public void getAll(int[] keys, String[] out) {
+        int homes[] = new int[BATCH];
+        Element slots[] = new Element[BATCH];
+        int slotKeys[] = new int[BATCH];
+        Element table[] = this.table;
+        for (int start = 0; start < keys.length; start += BATCH) {
+            int n = Math.min(BATCH, keys.length - start);
+            for (int i = 0; i < n; i++)
+                homes[i] = index(keys[start + i], table.length);
+            for (int i = 0; i < n; i++) {
+                slots[i] = table[homes[i]];
+                slotKeys[i] = slots[i].key;
+            }
+            for (int i = 0; i < n; i++) {
+                int k = keys[start + i];
+                if (this.oldTable != null || k == Integer.MIN_VALUE) {
+                    out[start + i] = get(k);
+                } else if (slotKeys[i] == k) {
+                    out[start + i] = slots[i].value;
+                    this.stats.record(HashMapStats.GET, 1);
+                } else if (slotKeys[i] == Integer.MIN_VALUE && slots[i] != TOMBSTONE) {
+                    out[start + i] = null;
+                    this.stats.record(HashMapStats.GET, 1);
+                } else {
+                    out[start + i] = get(k);
+                }
             }
         }
-        return null;
     }
 }
-
@@ -0,0 +1,381 @@
+package aps2.hashmap;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Hash map with open addressing, stored in flat primitive arrays.
+ *
+ * Unlike HashMapOpenAddressing, which keeps an Element object in every slot,
+ * keys live in an int[] and values in a parallel String[], so a probe reads
+ * consecutive ints instead of following a pointer per slot, and neither
+ * add nor the lookups allocate. The state of the slots is kept in two
+ * bitmaps, so every int, including Integer.MIN_VALUE, can be used as a key:
+ * a slot is free, occupied, or deleted. A deleted slot (tombstone) can be
+ * reused by add, but does not end a probe sequence, so keys inserted after
+ * a collision stay reachable when the colliding key is removed. Once the
+ * tombstones outnumber the free slots, so that unsuccessful lookups would
+ * probe through most of the table, remove rehashes the keys into fresh
+ * arrays of the same size. Robin Hood probing needs to reorder the slots,
+ * which this table doesn't do, so it is rejected.
+ *
+ * getAll and addAll work on batches of keys: they hash a whole batch and
+ * load the home slot of every key before resolving the first one. These
+ * loads do not depend on each other, so the processor overlaps their cache
+ * misses instead of waiting for one per key.
+ */
+public class HashMapOpenAddressingFlat {
+    private static final int BATCH = 16; // keys whose home slots are loaded together
+    private static final int FREE = 0, OCCUPIED = 1, DELETED = 2; // slot states in a batch
+    private static final int MIN_REBUILD = 16; // inverse of the least share of tombstones worth a rebuild
+
+    private int keys[];
+    private String values[];
+    private long occupied[]; // bit i set, if slot i holds a key
+    private long deleted[];  // bit i set, if slot i held a key which was removed
+    private int size;
+    private int tombstones; // deleted slots
+    private int rebuildAt; // tombstones at which a failed rebuild is retried
+    private HashFunction.HashingMethod h;
+    private HashMapOpenAddressing.CollisionProbeSequence c;
+
+    public HashMapOpenAddressingFlat(int m, HashFunction.HashingMethod h, HashMapOpenAddressing.CollisionProbeSequence c) {
+        if (m <= 0)
+            throw new IllegalArgumentException("Table size must be positive: " + m);
+        if (c == HashMapOpenAddressing.CollisionProbeSequence.RobinHoodProbing)
+            throw new IllegalArgumentException("Robin Hood probing is not supported by the flat table");
+        this.keys = new int[m];
+        this.values = new String[m];
+        this.occupied = new long[(m + 63) >>> 6];
+        this.deleted = new long[(m + 63) >>> 6];
+        this.h = h;
+        this.c = c;
+    }
+
+    /**
+     * @return Keys by slot; the arrays are replaced when remove rebuilds the table.
+     */
+    public int[] getKeys() {
+        return this.keys;
+    }
+
+    public String[] getValues() {
+        return this.values;
+    }
+
+    /**
+     * @param id Slot index
+     * @return true, if the slot holds a key; false, if it is free or deleted.
+     */
+    public boolean isOccupied(int id) {
+        return (occupied[id >>> 6] & (1L << id)) != 0;
+    }
+
+    private boolean isDeleted(int id) {
+        return (deleted[id >>> 6] & (1L << id)) != 0;
+    }
+
+    private int state(int id) {
+        return (int) (occupied[id >>> 6] >>> id & 1) | (int) (deleted[id >>> 6] >>> id & 1) << 1;
+    }
+
+    /**
+     * @return Number of elements in the map.
+     */
+    public int size() {
+        return this.size;
+    }
+
+    private int hash(int k) {
+        return HashFunction.hash(this.h, k, this.keys.length);
+    }
+
+    /**
+     * Step of the double hashing probe sequence. It is never 0, so the
+     * sequence does not get stuck on the home slot, and it visits every slot
+     * when m is prime.
+     */
+    private int step(int k) {
+        int m = this.keys.length;
+        return m > 1 ? 1 + (int) ((k & 0xffffffffL) % (m - 1)) : 1;
+    }
+
+    /**
+     * @param home Home slot of the key
+     * @param step Step for double hashing
+     * @param id Slot of the i-1-th probe
+     * @param i Number of the probe, at least 1
+     * @return Slot of the i-th probe
+     */
+    private int next(int home, int step, int id, int i) {
+        int m = this.keys.length;
+        switch (this.c) {
+            case LinearProbing:
+                return id + 1 < m ? id + 1 : 0;
+            case QuadraticProbing:
+                return (int) ((home + (long) i * i) % m);
+            default:
+                return id + step < m ? id + step : id + step - m;
+        }
+    }
+
+    /**
+     * @param k Element key
+     * @param home Home slot of the key
+     * @return Slot holding the key; -1, if the key does not exist.
+     */
+    private int find(int k, int home) {
+        int step = this.c == HashMapOpenAddressing.CollisionProbeSequence.DoubleHashing ? step(k) : 0;
+        int id = home;
+        for (int i = 1; i <= this.keys.length; i++) {
+            if (isOccupied(id)) {
+                if (this.keys[id] == k)
+                    return id;
+            } else if (!isDeleted(id)) {
+                return -1;
+            }
+            id = next(home, step, id, i);
+        }
+        return -1;
+    }
+
+    /**
+     * If the element doesn't exist yet, inserts it into the set.
+     *
+     * @param k Element key
+     * @param v Element value
+     * @return true, if element was added; false, if it exists or the table is full.
+     */
+    public boolean add(int k, String v) {
+        return add(k, v, hash(k));
+    }
+
+    private boolean add(int k, String v, int home) {
+        int step = this.c == HashMapOpenAddressing.CollisionProbeSequence.DoubleHashing ? step(k) : 0;
+        int id = home, free = -1;
+        for (int i = 1; i <= this.keys.length; i++) {
+            if (isOccupied(id)) {
+                if (this.keys[id] == k)
+                    return false;
+            } else if (isDeleted(id)) {
+                // reuse the first tombstone, but the key may still follow it
+                if (free < 0)
+                    free = id;
+            } else {
+                if (free < 0)
+                    free = id;
+                break;
+            }
+            id = next(home, step, id, i);
+        }
+        if (free < 0)
+            return false;
+        insert(free, k, v);
+        return true;
+    }
+
+    private void insert(int id, int k, String v) {
+        if (isDeleted(id)) {
+            this.deleted[id >>> 6] &= ~(1L << id);
+            this.tombstones--;
+        }
+        this.keys[id] = k;
+        this.values[id] = v;
+        this.occupied[id >>> 6] |= 1L << id;
+        this.size++;
+    }
+
+    /**
+     * Inserts the elements whose keys don't exist yet, in the given order.
+     *
+     * @param keys Element keys
+     * @param values Element values, at the same indices as the keys
+     * @return Number of elements which were added.
+     */
+    public int addAll(int[] keys, String[] values) {
+        int homes[] = new int[BATCH];
+        int slotKeys[] = new int[BATCH];
+        int states[] = new int[BATCH];
+        int added = 0;
+        for (int start = 0; start < keys.length; start += BATCH) {
+            int n = Math.min(BATCH, keys.length - start);
+            for (int i = 0; i < n; i++)
+                homes[i] = hash(keys[start + i]);
+            for (int i = 0; i < n; i++) {
+                slotKeys[i] = this.keys[homes[i]];
+                states[i] = state(homes[i]);
+            }
+            for (int i = 0; i < n; i++) {
+                int home = homes[i];
+                if (states[i] == OCCUPIED && slotKeys[i] == keys[start + i])
+                    continue; // adds never free a slot, so the key still exists
+                // a never used home slot ends the probe sequence, so the key is new;
+                // an earlier key of the batch may have taken the slot meanwhile
+                if (states[i] == FREE && state(home) == FREE) {
+                    insert(home, keys[start + i], values[start + i]);
+                    added++;
+                } else if (add(keys[start + i], values[start + i], home)) {
+                    added++;
+                }
+            }
+        }
+        return added;
+    }
+
+    /**
+     * Writes the arrays of the table into a snapshot file, from which
+     * readSnapshot restores the map without rehashing.
+     *
+     * @param path Snapshot file, replaced if it exists
+     * @throws IOException if the file cannot be written
+     */
+    public void writeSnapshot(Path path) throws IOException {
+        try (HashMapSnapshot out = HashMapSnapshot.create(path, HashMapSnapshot.OPEN_ADDRESSING_FLAT)) {
+            out.putEnum(this.h);
+            out.putEnum(this.c);
+            out.putInt(this.size);
+            out.putInt(this.keys.length);
+            out.putInts(this.keys);
+            out.putLongs(this.occupied);
+            out.putLongs(this.deleted);
+            for (int id = 0; id < this.keys.length; id++)
+                if (isOccupied(id))
+                    out.putString(this.values[id]);
+            out.finish();
+        }
+    }
+
+    /**
+     * Restores a map written by writeSnapshot, with the same table layout.
+     *
+     * @param path Snapshot file
+     * @return The restored map.
+     * @throws IOException if the file cannot be read, or is not a valid snapshot
+     */
+    public static HashMapOpenAddressingFlat readSnapshot(Path path) throws IOException {
+        try (HashMapSnapshot in = HashMapSnapshot.open(path, HashMapSnapshot.OPEN_ADDRESSING_FLAT)) {
+            HashFunction.HashingMethod h = in.getEnum(HashFunction.HashingMethod.class);
+            HashMapOpenAddressing.CollisionProbeSequence c = in.getEnum(HashMapOpenAddressing.CollisionProbeSequence.class);
+            if (c == HashMapOpenAddressing.CollisionProbeSequence.RobinHoodProbing)
+                throw new IOException(path + " is corrupt, unsupported probe sequence " + c);
+            int size = in.getInt();
+            int m = in.getInt();
+            if (m <= 0)
+                throw new IOException(path + " is corrupt, table size " + m);
+            in.expect(4L * m);
+            HashMapOpenAddressingFlat map = new HashMapOpenAddressingFlat(m, h, c);
+            in.getInts(map.keys);
+            in.getLongs(map.occupied);
+            in.getLongs(map.deleted);
+            for (int id = 0; id < m; id++)
+                if (map.isOccupied(id))
+                    map.values[id] = in.getString();
+            in.verify();
+            map.size = size;
+            for (long word : map.deleted)
+                map.tombstones += Long.bitCount(word);
+            return map;
+        }
+    }
+
+    /**
+     * Removes the element from the set.
+     *
+     * @param k Element key
+     * @return true, if the element was removed; otherwise false
+     */
+    public boolean remove(int k) {
+        int id = find(k, hash(k));
+        if (id < 0)
+            return false;
+        this.values[id] = null;
+        this.occupied[id >>> 6] &= ~(1L << id);
+        this.deleted[id >>> 6] |= 1L << id;
+        this.size--;
+        this.tombstones++;
+        int m = this.keys.length;
+        if (this.tombstones > m - this.size - this.tombstones
+                && this.tombstones >= Math.max(m / MIN_REBUILD, this.rebuildAt))
+            rebuild();
+        return true;
+    }
+
+    /**
+     * Rehashes the keys into fresh arrays of the same size, which drops the
+     * tombstones. Quadratic probing does not reach every slot; if a key finds
+     * no free slot in the new layout, the table keeps its tombstones and the
+     * next attempt waits for m / MIN_REBUILD more of them. Attempts are thus
+     * at least m / MIN_REBUILD removals apart and cost amortized O(1) per
+     * remove.
+     */
+    private void rebuild() {
+        int m = this.keys.length;
+        HashMapOpenAddressingFlat fresh = new HashMapOpenAddressingFlat(m, this.h, this.c);
+        for (int id = 0; id < m; id++)
+            if (isOccupied(id) && !fresh.add(this.keys[id], this.values[id])) {
+                this.rebuildAt = this.tombstones + m / MIN_REBUILD;
+                return;
+            }
+        this.keys = fresh.keys;
+        this.values = fresh.values;
+        this.occupied = fresh.occupied;
+        this.deleted = fresh.deleted;
+        this.tombstones = 0;
+        this.rebuildAt = 0;
+    }
+
+    /**
+     * Finds the element.
+     *
+     * @param k Element key
+     * @return true, if the element was found; false otherwise.
+     */
+    public boolean contains(int k) {
+        return find(k, hash(k)) >= 0;
+    }
+
+    /**
+     * Maps the given key to its value, if the key exists in the hash map.
+     *
+     * @param k Element key
+     * @return The value for the given key or null, if such a key does not exist.
+     */
+    public String get(int k) {
+        int id = find(k, hash(k));
+        return id >= 0 ? this.values[id] : null;
+    }
+
+    /**
+     * Maps every key to its value, as get does.
+     *
+     * @param keys Element keys
+     * @param out Receives the value of keys[i], or null, at index i
+     */
+    public void getAll(int[] keys, String[] out) {
+        int homes[] = new int[BATCH];
+        int slotKeys[] = new int[BATCH];
+        int states[] = new int[BATCH];
+        for (int start = 0; start < keys.length; start += BATCH) {
+            int n = Math.min(BATCH, keys.length - start);
+            for (int i = 0; i < n; i++)
+                homes[i] = hash(keys[start + i]);
+            for (int i = 0; i < n; i++) {
+                int home = homes[i];
+                slotKeys[i] = this.keys[home];
+                states[i] = state(home);
+                out[start + i] = this.values[home];
+            }
+            for (int i = 0; i < n; i++) {
+                int k = keys[start + i];
+                if (states[i] == OCCUPIED && slotKeys[i] == k)
+                    continue; // found in the home slot, the value is in place
+                if (states[i] == FREE) {
+                    out[start + i] = null;
+                } else {
+                    int id = find(k, homes[i]);
+                    out[start + i] = id >= 0 ? this.values[id] : null;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,298 @@
+package aps2.hashmap;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Binary snapshot file of a hash map.
+ *
+ * The file starts with a header holding the magic number, the format
+ * version, the kind of map, and the length and CRC32 checksum of the body.
+ * The body is written and read sequentially by the map, mostly as whole
+ * arrays of the table, through a direct buffer, and the checksum is
+ * computed on the way. The header is written last, so a snapshot which was
+ * not finished is never valid, and a reader checks the checksum before it
+ * returns the map.
+ *
+ * A new snapshot is written into a temporary file next to the target,
+ * forced to disk and then renamed over the target in one atomic step, so
+ * a crash while writing leaves the previous snapshot intact.
+ */
+final class HashMapSnapshot implements Closeable {
+	private static final int MAGIC = 0x484D5331; // "HMS1"
+	private static final int VERSION = 1;
+
+	static final int OPEN_ADDRESSING = 1, OPEN_ADDRESSING_FLAT = 2;
+
+	// header layout
+	private static final int HEADER = 32;
+	private static final int H_MAGIC = 0, H_VERSION = 4, H_KIND = 8, H_BODY = 16, H_CRC = 24;
+
+	private static final int BUFFER = 1 << 20;
+
+	private final Path path;   // file of the channel
+	private final Path target; // file replaced by finish; null when reading
+	private final FileChannel channel;
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER);
+	private final CRC32 crc = new CRC32();
+	private final int kind;
+	private long body; // bytes of the body written, or still to be read
+	private long checksum; // of the body, from the header when reading
+	private boolean finished;
+
+	private HashMapSnapshot(Path path, Path target, FileChannel channel, int kind) {
+		this.path = path;
+		this.target = target;
+		this.channel = channel;
+		this.kind = kind;
+	}
+
+	/**
+	 * Creates a temporary snapshot file next to the given one, which replaces
+	 * the given file on finish.
+	 */
+	static HashMapSnapshot create(Path path, int kind) throws IOException {
+		Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+		FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.WRITE);
+		channel.position(HEADER);
+		return new HashMapSnapshot(temporary, path, channel, kind);
+	}
+
+	/**
+	 * Opens the snapshot file and checks its header.
+	 *
+	 * @throws IOException if the file is not a snapshot of the given kind and of the current version
+	 */
+	static HashMapSnapshot open(Path path, int kind) throws IOException {
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+		HashMapSnapshot snapshot = new HashMapSnapshot(path, null, channel, kind);
+		try {
+			ByteBuffer header = ByteBuffer.allocate(HEADER);
+			while (header.hasRemaining())
+				if (channel.read(header) < 0)
+					throw new IOException(path + " is not a hash map snapshot");
+			if (header.getInt(H_MAGIC) != MAGIC || header.getInt(H_VERSION) != VERSION || header.getInt(H_KIND) != kind)
+				throw new IOException(path + " is not a hash map snapshot of version " + VERSION + " and kind " + kind);
+			snapshot.body = header.getLong(H_BODY);
+			if (snapshot.body != channel.size() - HEADER)
+				throw new IOException(path + " is truncated");
+			snapshot.checksum = header.getLong(H_CRC);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+		snapshot.buffer.limit(0);
+		return snapshot;
+	}
+
+	/*
+	 * Writing
+	 */
+
+	private void flush() throws IOException {
+		this.buffer.flip();
+		this.crc.update(this.buffer.duplicate());
+		this.body += this.buffer.remaining();
+		while (this.buffer.hasRemaining())
+			this.channel.write(this.buffer);
+		this.buffer.clear();
+	}
+
+	private ByteBuffer room(int bytes) throws IOException {
+		if (this.buffer.remaining() < bytes)
+			flush();
+		return this.buffer;
+	}
+
+	void putInt(int value) throws IOException {
+		room(4).putInt(value);
+	}
+
+	void putDouble(double value) throws IOException {
+		room(8).putDouble(value);
+	}
+
+	void putInts(int[] values) throws IOException {
+		for (int i = 0; i < values.length; ) {
+			int count = Math.min(room(4).remaining() / 4, values.length - i);
+			this.buffer.asIntBuffer().put(values, i, count);
+			this.buffer.position(this.buffer.position() + count * 4);
+			i += count;
+		}
+	}
+
+	void putLongs(long[] values) throws IOException {
+		for (int i = 0; i < values.length; ) {
+			int count = Math.min(room(8).remaining() / 8, values.length - i);
+			this.buffer.asLongBuffer().put(values, i, count);
+			this.buffer.position(this.buffer.position() + count * 8);
+			i += count;
+		}
+	}
+
+	/**
+	 * Writes a length-prefixed UTF-8 string; length -1 stands for null.
+	 */
+	void putString(String value) throws IOException {
+		if (value == null) {
+			putInt(-1);
+			return;
+		}
+		byte bytes[] = value.getBytes(StandardCharsets.UTF_8);
+		putInt(bytes.length);
+		for (int i = 0; i < bytes.length; ) {
+			int count = Math.min(room(1).remaining(), bytes.length - i);
+			this.buffer.put(bytes, i, count);
+			i += count;
+		}
+	}
+
+	void putEnum(Enum<?> value) throws IOException {
+		putString(value.name());
+	}
+
+	/**
+	 * Writes the rest of the body and then the header, which makes the
+	 * snapshot valid, forces the file to disk and moves it over the target.
+	 */
+	void finish() throws IOException {
+		flush();
+		ByteBuffer header = ByteBuffer.allocate(HEADER);
+		header.putInt(H_MAGIC, MAGIC);
+		header.putInt(H_VERSION, VERSION);
+		header.putInt(H_KIND, this.kind);
+		header.putLong(H_BODY, this.body);
+		header.putLong(H_CRC, this.crc.getValue());
+		for (long position = 0; header.hasRemaining(); )
+			position += this.channel.write(header, position);
+		this.channel.force(true);
+		this.channel.close();
+		Files.move(this.path, this.target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		this.finished = true;
+	}
+
+	/*
+	 * Reading
+	 */
+
+	/**
+	 * Makes sure that the given number of bytes, at most the size of the
+	 * buffer, can be read from it.
+	 */
+	private ByteBuffer available(int bytes) throws IOException {
+		if (this.buffer.remaining() >= bytes)
+			return this.buffer;
+		this.buffer.compact();
+		while (this.buffer.position() < bytes) {
+			int start = this.buffer.position();
+			if (this.body == 0)
+				throw new EOFException(this.path + " ends before the end of the map");
+			if (this.body < this.buffer.remaining())
+				this.buffer.limit(start + (int) this.body);
+			int read = this.channel.read(this.buffer);
+			if (read < 0)
+				throw new EOFException(this.path + " ends before the end of the map");
+			ByteBuffer chunk = this.buffer.duplicate();
+			chunk.position(start);
+			chunk.limit(start + read);
+			this.crc.update(chunk);
+			this.body -= read;
+			this.buffer.limit(this.buffer.capacity());
+		}
+		this.buffer.flip();
+		return this.buffer;
+	}
+
+	int getInt() throws IOException {
+		return available(4).getInt();
+	}
+
+	double getDouble() throws IOException {
+		return available(8).getDouble();
+	}
+
+	void getInts(int[] values) throws IOException {
+		for (int i = 0; i < values.length; ) {
+			int count = Math.min(Math.max(this.buffer.remaining() / 4, 1), values.length - i);
+			available(count * 4).asIntBuffer().get(values, i, count);
+			this.buffer.position(this.buffer.position() + count * 4);
+			i += count;
+		}
+	}
+
+	void getLongs(long[] values) throws IOException {
+		for (int i = 0; i < values.length; ) {
+			int count = Math.min(Math.max(this.buffer.remaining() / 8, 1), values.length - i);
+			available(count * 8).asLongBuffer().get(values, i, count);
+			this.buffer.position(this.buffer.position() + count * 8);
+			i += count;
+		}
+	}
+
+	/**
+	 * Checks that the body holds at least the given number of bytes more,
+	 * before they are allocated.
+	 *
+	 * @throws IOException if the snapshot is shorter
+	 */
+	void expect(long bytes) throws IOException {
+		if (bytes < 0 || bytes > this.body + this.buffer.remaining())
+			throw new IOException(this.path + " is corrupt, " + bytes + " bytes expected");
+	}
+
+	String getString() throws IOException {
+		int length = getInt();
+		if (length < 0)
+			return null;
+		expect(length);
+		byte bytes[] = new byte[length];
+		for (int i = 0; i < length; ) {
+			int count = Math.min(Math.max(this.buffer.remaining(), 1), length - i);
+			available(count).get(bytes, i, count);
+			i += count;
+		}
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	<E extends Enum<E>> E getEnum(Class<E> type) throws IOException {
+		String name = getString();
+		try {
+			return Enum.valueOf(type, name);
+		} catch (IllegalArgumentException | NullPointerException e) {
+			throw new IOException(this.path + " has an unknown " + type.getSimpleName() + ": " + name);
+		}
+	}
+
+	/**
+	 * Checks that the map used the whole body and that it matches the checksum.
+	 *
+	 * @throws IOException if the snapshot is corrupt
+	 */
+	void verify() throws IOException {
+		if (this.body != 0 || this.buffer.hasRemaining())
+			throw new IOException(this.path + " has data after the end of the map");
+		if (this.crc.getValue() != this.checksum)
+			throw new IOException(this.path + " is corrupt, checksum mismatch");
+	}
+
+	/**
+	 * Closes the file. A snapshot which was not finished is deleted, and the
+	 * previous one stays in place.
+	 */
+	@Override
+	public void close() throws IOException {
+		this.channel.close();
+		if (this.target != null && !this.finished)
+			Files.deleteIfExists(this.path);
+	}
+}
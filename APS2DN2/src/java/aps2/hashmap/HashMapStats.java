@@ -0,0 +1,217 @@
+package aps2.hashmap;
+
+import java.util.Arrays;
+
+/**
+ * Snapshot of the occupancy and the probe statistics of a hash map.
+ *
+ * The probe histograms are collected on every operation: bucket i counts
+ * the operations which inspected i slots (open addressing) or i chain
+ * elements (chaining), the last bucket collects everything from
+ * HISTOGRAM_BUCKETS - 1 up; the exact maximum is kept separately. The chain
+ * length histogram is computed when the snapshot is taken. For chaining it
+ * counts buckets by the number of their elements; for open addressing it
+ * counts clusters, runs of slots which are not empty, by their length, which
+ * is what linear probing pays for.
+ */
+public class HashMapStats {
+	public static final int HISTOGRAM_BUCKETS = 64;
+
+	static final int ADD = 0, GET = 1, REMOVE = 2;
+
+	/**
+	 * Probe counters of a map, updated on the hot path.
+	 */
+	static final class Recorder {
+		final long[][] histograms = new long[3][HISTOGRAM_BUCKETS];
+		final int[] max = new int[3];
+		long failedInserts;
+
+		void record(int operation, int probes) {
+			histograms[operation][Math.min(probes, HISTOGRAM_BUCKETS - 1)]++;
+			if (probes > max[operation])
+				max[operation] = probes;
+		}
+
+		void reset() {
+			for (long[] histogram : histograms)
+				Arrays.fill(histogram, 0);
+			Arrays.fill(max, 0);
+			failedInserts = 0;
+		}
+
+		HashMapStats snapshot(int size, int capacity, int tombstones, long[] chainHistogram) {
+			return new HashMapStats(size, capacity, tombstones, failedInserts, chainHistogram, histograms, max);
+		}
+	}
+
+	/**
+	 * Adds a chain or cluster of the given length to the histogram.
+	 */
+	static void count(long[] histogram, int length) {
+		histogram[Math.min(length, HISTOGRAM_BUCKETS - 1)]++;
+	}
+
+	private final int size;
+	private final int capacity;
+	private final int tombstones;
+	private final long failedInserts;
+	private final long[] chainHistogram;
+	private final long[] addHistogram, getHistogram, removeHistogram;
+	private final int maxAdd, maxGet, maxRemove;
+
+	private HashMapStats(int size, int capacity, int tombstones, long failedInserts, long[] chainHistogram,
+			long[][] histograms, int[] max) {
+		this.size = size;
+		this.capacity = capacity;
+		this.tombstones = tombstones;
+		this.failedInserts = failedInserts;
+		this.chainHistogram = chainHistogram;
+		this.addHistogram = histograms[ADD].clone();
+		this.getHistogram = histograms[GET].clone();
+		this.removeHistogram = histograms[REMOVE].clone();
+		this.maxAdd = max[ADD];
+		this.maxGet = max[GET];
+		this.maxRemove = max[REMOVE];
+	}
+
+	/**
+	 * @return Number of elements.
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * @return Number of slots or buckets of the table.
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return Elements per slot or bucket.
+	 */
+	public double getLoadFactor() {
+		return capacity > 0 ? (double) size / capacity : 0;
+	}
+
+	/**
+	 * @return Number of slots holding a tombstone; 0 for chaining.
+	 */
+	public int getTombstones() {
+		return tombstones;
+	}
+
+	/**
+	 * @return Share of the slots holding a tombstone.
+	 */
+	public double getTombstoneRatio() {
+		return capacity > 0 ? (double) tombstones / capacity : 0;
+	}
+
+	/**
+	 * @return Number of adds which found no free slot in a fixed-size table.
+	 */
+	public long getFailedInserts() {
+		return failedInserts;
+	}
+
+	/**
+	 * @return Histogram of chain lengths, or cluster lengths for open addressing.
+	 */
+	public long[] getChainLengthHistogram() {
+		return chainHistogram.clone();
+	}
+
+	/**
+	 * @return Histogram of probes per successful or failed add.
+	 */
+	public long[] getAddHistogram() {
+		return addHistogram.clone();
+	}
+
+	/**
+	 * @return Histogram of probes per get or contains.
+	 */
+	public long[] getGetHistogram() {
+		return getHistogram.clone();
+	}
+
+	/**
+	 * @return Histogram of probes per successful or failed remove.
+	 */
+	public long[] getRemoveHistogram() {
+		return removeHistogram.clone();
+	}
+
+	/**
+	 * @return Longest probe sequence of an add.
+	 */
+	public int getMaxAddProbes() {
+		return maxAdd;
+	}
+
+	/**
+	 * @return Longest probe sequence of a get or contains.
+	 */
+	public int getMaxGetProbes() {
+		return maxGet;
+	}
+
+	/**
+	 * @return Longest probe sequence of a remove.
+	 */
+	public int getMaxRemoveProbes() {
+		return maxRemove;
+	}
+
+	/**
+	 * @param histogram One of the histograms
+	 * @return Mean probes per operation or mean length; 0, if the histogram is empty.
+	 */
+	public static double mean(long[] histogram) {
+		long count = 0, sum = 0;
+		for (int i = 0; i < histogram.length; i++) {
+			count += histogram[i];
+			sum += i * histogram[i];
+		}
+		return count > 0 ? (double) sum / count : 0;
+	}
+
+	/**
+	 * @param histogram One of the histograms
+	 * @param p Percentile between 0 and 1
+	 * @return Smallest value which is not exceeded by the given share of the counts.
+	 */
+	public static int percentile(long[] histogram, double p) {
+		long count = 0;
+		for (long c : histogram)
+			count += c;
+		long threshold = (long) Math.ceil(p * count), seen = 0;
+		for (int i = 0; i < histogram.length; i++) {
+			seen += histogram[i];
+			if (seen >= threshold && seen > 0)
+				return i;
+		}
+		return 0;
+	}
+
+	@Override
+	public String toString() {
+		return "size=" + size + " capacity=" + capacity
+				+ String.format(" load=%.2f tombstones=%.2f", getLoadFactor(), getTombstoneRatio())
+				+ " failedInserts=" + failedInserts
+				+ String.format(" chain=%.2f", mean(chainHistogram))
+				+ " maxChain=" + maxBucket(chainHistogram)
+				+ String.format(" add=%.2f get=%.2f remove=%.2f", mean(addHistogram), mean(getHistogram), mean(removeHistogram))
+				+ " maxAdd=" + maxAdd + " maxGet=" + maxGet + " maxRemove=" + maxRemove;
+	}
+
+	private static int maxBucket(long[] histogram) {
+		for (int i = histogram.length - 1; i >= 0; i--)
+			if (histogram[i] > 0)
+				return i;
+		return 0;
+	}
+}
@@ -0,0 +1,220 @@
+package aps2.hashmap;
+
+import java.util.Arrays;
+
+/**
+ * Hash map with open addressing in the style of Google's SwissTable.
+ *
+ * Slots are grouped by 8, and every slot has a control byte: EMPTY, DELETED,
+ * or for a full slot the low 7 bits of the hash of its key (the tag). The
+ * control bytes of a group are packed into one long, so a probe compares
+ * the tag with all 8 slots of the group at once using SWAR (SIMD within a
+ * register) bit tricks, and only reads the keys of the slots whose tag
+ * matches, which is 1/128 of the others. The remaining hash bits choose the
+ * first group; further groups are probed quadratically. A lookup ends at
+ * the first group with an empty slot, so tables stay fast up to the
+ * maximum load of 7/8, after which they double.
+ */
+public class HashMapSwissTable {
+    private static final int GROUP = 8; // slots per group, one control byte each
+    private static final long EMPTY = 0x80;
+    private static final long DELETED = 0xFE;
+    private static final long LSBS = 0x0101010101010101L;
+    private static final long MSBS = 0x8080808080808080L;
+
+    private long ctrl[]; // control bytes, one long per group
+    private int keys[];
+    private String values[];
+    private int size;
+    private int growthLeft; // EMPTY slots which can still be filled before the table is rehashed
+
+    public HashMapSwissTable() {
+        this(16);
+    }
+
+    /**
+     * @param m Expected number of elements
+     */
+    public HashMapSwissTable(int m) {
+        long slots = (Math.max(m, 1) * 8L + 6) / 7;
+        allocate(HashMapChaining.powerOfTwo((int) ((slots + GROUP - 1) / GROUP)));
+    }
+
+    private void allocate(int groups) {
+        this.ctrl = new long[groups];
+        Arrays.fill(this.ctrl, EMPTY * LSBS);
+        this.keys = new int[groups * GROUP];
+        this.values = new String[groups * GROUP];
+        this.growthLeft = groups * GROUP / 8 * 7 - this.size;
+    }
+
+    /**
+     * @return Number of elements in the map.
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * @return Number of slots.
+     */
+    public int capacity() {
+        return this.keys.length;
+    }
+
+    /**
+     * @return Bit 7 of every byte of the group, which is equal to tag.
+     */
+    private static long match(long group, int tag) {
+        // a zero byte in x borrows in x - LSBS; false positives above a real match are checked with the key
+        long x = group ^ (tag * LSBS);
+        return (x - LSBS) & ~x & MSBS;
+    }
+
+    /**
+     * @return Bit 7 of every EMPTY byte of the group.
+     */
+    private static long matchEmpty(long group) {
+        // EMPTY and DELETED have bit 7 set, but only DELETED has bit 1
+        return group & ~(group << 6) & MSBS;
+    }
+
+    /**
+     * @return Bit 7 of every EMPTY or DELETED byte of the group.
+     */
+    private static long matchFree(long group) {
+        return group & MSBS;
+    }
+
+    private long ctrlAt(int slot) {
+        return (this.ctrl[slot >>> 3] >>> ((slot & (GROUP - 1)) << 3)) & 0xFF;
+    }
+
+    private void setCtrl(int slot, long b) {
+        int shift = (slot & (GROUP - 1)) << 3;
+        this.ctrl[slot >>> 3] = (this.ctrl[slot >>> 3] & ~(0xFFL << shift)) | (b << shift);
+    }
+
+    /**
+     * @return Slot holding the key; -1, if the key does not exist.
+     */
+    private int find(int k) {
+        int hash = HashFunction.mix(k), tag = hash & 0x7F;
+        int mask = this.ctrl.length - 1;
+        for (int g = (hash >>> 7) & mask, i = 1; ; g = (g + i++) & mask) {
+            long group = this.ctrl[g];
+            for (long bits = match(group, tag); bits != 0; bits &= bits - 1) {
+                int slot = g * GROUP + (Long.numberOfTrailingZeros(bits) >>> 3);
+                if (this.keys[slot] == k)
+                    return slot;
+            }
+            if (matchEmpty(group) != 0 || i > mask)
+                return -1;
+        }
+    }
+
+    /**
+     * @return First EMPTY or DELETED slot on the probe sequence of the hash.
+     */
+    private int findFree(int hash) {
+        int mask = this.ctrl.length - 1;
+        for (int g = (hash >>> 7) & mask, i = 1; ; g = (g + i++) & mask) {
+            long bits = matchFree(this.ctrl[g]);
+            if (bits != 0)
+                return g * GROUP + (Long.numberOfTrailingZeros(bits) >>> 3);
+        }
+    }
+
+    /**
+     * Rehashes into a table twice as large, or of the same size, if most of
+     * the used slots are tombstones.
+     */
+    private void rehash() {
+        long oldCtrl[] = this.ctrl;
+        int oldKeys[] = this.keys;
+        String oldValues[] = this.values;
+        int groups = this.size * 16L > oldKeys.length * 7L ? oldCtrl.length * 2 : oldCtrl.length;
+        if (groups > 1 << 27)
+            throw new IllegalStateException("Hash table cannot grow beyond " + (1 << 30) + " slots");
+        allocate(groups);
+        for (int slot = 0; slot < oldKeys.length; slot++) {
+            if (((oldCtrl[slot >>> 3] >>> ((slot & (GROUP - 1)) << 3)) & 0x80) == 0) { // full
+                int hash = HashFunction.mix(oldKeys[slot]);
+                int id = findFree(hash);
+                setCtrl(id, hash & 0x7F);
+                this.keys[id] = oldKeys[slot];
+                this.values[id] = oldValues[slot];
+            }
+        }
+    }
+
+    /**
+     * If the element doesn't exist yet, inserts it into the set.
+     *
+     * @param k Element key
+     * @param v Element value
+     * @return true, if element was added; false otherwise.
+     */
+    public boolean add(int k, String v) {
+        if (find(k) >= 0)
+            return false;
+        int hash = HashFunction.mix(k);
+        int id = findFree(hash);
+        boolean empty = ctrlAt(id) == EMPTY;
+        if (empty && this.growthLeft == 0) {
+            rehash();
+            id = findFree(hash);
+            empty = true;
+        }
+        if (empty)
+            this.growthLeft--;
+        setCtrl(id, hash & 0x7F);
+        this.keys[id] = k;
+        this.values[id] = v;
+        this.size++;
+        return true;
+    }
+
+    /**
+     * Removes the element from the set.
+     *
+     * @param k Element key
+     * @return true, if the element was removed; otherwise false
+     */
+    public boolean remove(int k) {
+        int id = find(k);
+        if (id < 0)
+            return false;
+        // probes for other keys stop at this group anyway, if it has an empty slot
+        if (matchEmpty(this.ctrl[id >>> 3]) != 0) {
+            setCtrl(id, EMPTY);
+            this.growthLeft++;
+        } else {
+            setCtrl(id, DELETED);
+        }
+        this.values[id] = null;
+        this.size--;
+        return true;
+    }
+
+    /**
+     * Finds the element.
+     *
+     * @param k Element key
+     * @return true, if the element was found; false otherwise.
+     */
+    public boolean contains(int k) {
+        return find(k) >= 0;
+    }
+
+    /**
+     * Maps the given key to its value, if the key exists in the hash map.
+     *
+     * @param k Element key
+     * @return The value for the given key or null, if such a key does not exist.
+     */
+    public String get(int k) {
+        int id = find(k);
+        return id >= 0 ? this.values[id] : null;
+    }
+}
@@ -0,0 +1,260 @@
+package aps2.hashmap;
+
+import java.util.Arrays;
+
+/**
+ * Read-only hash map over a fixed key set, built with a minimal perfect
+ * hash function (CHD, compress hash and displace).
+ *
+ * The keys are hashed into buckets of LAMBDA keys on average. Starting with
+ * the largest bucket, every bucket searches for the smallest displacement d
+ * which sends all its keys to free slots, through a hash of the key mixed
+ * with d. The table has exactly one slot per key, and a lookup computes
+ * the bucket, reads its displacement and checks the single slot it leads
+ * to; there are no collisions to resolve.
+ *
+ * The displacements are packed with the width which minimizes the index
+ * size. The few which do not fit, mostly of the last buckets placed into
+ * an almost full table, are stored in a sorted overflow array. This gives
+ * about 2 - 3 bits of index per key, besides the keys and the values.
+ */
+public class PerfectHashMap {
+    private static final int LAMBDA = 5; // average keys per bucket
+
+    private final int seed;
+    private final int buckets;
+    private final int width; // bits of a packed displacement
+    private final long displacements[];
+    private final int overflowBuckets[]; // sorted, buckets whose displacement does not fit the width
+    private final int overflowDisplacements[];
+    private final int keys[];
+    private final String values[];
+
+    /**
+     * Collects the elements of a PerfectHashMap.
+     */
+    public static class Builder {
+        private int keys[] = new int[16];
+        private String values[] = new String[16];
+        private int size;
+
+        /**
+         * @param k Element key, which must not be added twice
+         * @param v Element value
+         * @return This builder.
+         */
+        public Builder add(int k, String v) {
+            if (this.size == this.keys.length) {
+                this.keys = Arrays.copyOf(this.keys, this.size * 2);
+                this.values = Arrays.copyOf(this.values, this.size * 2);
+            }
+            this.keys[this.size] = k;
+            this.values[this.size++] = v;
+            return this;
+        }
+
+        /**
+         * @return Map of the added elements.
+         * @throws IllegalArgumentException if a key was added twice
+         */
+        public PerfectHashMap build() {
+            int sorted[] = Arrays.copyOf(this.keys, this.size);
+            Arrays.sort(sorted);
+            for (int i = 1; i < sorted.length; i++)
+                if (sorted[i] == sorted[i - 1])
+                    throw new IllegalArgumentException("Duplicate key: " + sorted[i]);
+            return new PerfectHashMap(Arrays.copyOf(this.keys, this.size), Arrays.copyOf(this.values, this.size));
+        }
+    }
+
+    private PerfectHashMap(int[] keys, String[] values) {
+        int n = keys.length;
+        this.buckets = Math.max(1, (n + LAMBDA - 1) / LAMBDA);
+        int found[] = null;
+        int seed = 0;
+        for (int attempt = 1; found == null; attempt++) {
+            // a bucket which finds no displacement is extremely unlikely; another seed fixes it
+            seed = HashFunction.mix(attempt * 0x9E3779B9);
+            found = displace(keys, seed);
+        }
+        this.seed = seed;
+
+        this.keys = new int[n];
+        this.values = new String[n];
+        for (int i = 0; i < n; i++) {
+            int h = HashFunction.mix(keys[i] ^ seed);
+            int slot = slot(h, found[HashFunction.reduce(h, this.buckets)], n);
+            this.keys[slot] = keys[i];
+            this.values[slot] = values[i];
+        }
+
+        // pack the displacements with the width which needs the fewest bits, all ones marks overflow
+        long best = Long.MAX_VALUE;
+        int width = 1;
+        for (int w = 1; w <= 32; w++) {
+            long escape = (1L << w) - 1, overflow = 0;
+            for (int d : found)
+                if (d >= escape)
+                    overflow++;
+            long bits = (long) this.buckets * w + overflow * 64;
+            if (bits < best) {
+                best = bits;
+                width = w;
+            }
+        }
+        this.width = width;
+        this.displacements = new long[(int) (((long) this.buckets * width + 63) >>> 6)];
+        int overflow = 0;
+        for (int b = 0; b < this.buckets; b++)
+            if (found[b] >= (1L << width) - 1)
+                overflow++;
+        this.overflowBuckets = new int[overflow];
+        this.overflowDisplacements = new int[overflow];
+        overflow = 0;
+        for (int b = 0; b < this.buckets; b++) {
+            long d = found[b];
+            if (d >= (1L << width) - 1) {
+                this.overflowBuckets[overflow] = b;
+                this.overflowDisplacements[overflow++] = found[b];
+                d = (1L << width) - 1;
+            }
+            long bit = (long) b * width;
+            int word = (int) (bit >>> 6), shift = (int) (bit & 63);
+            this.displacements[word] |= d << shift;
+            if (shift + width > 64)
+                this.displacements[word + 1] |= d >>> (64 - shift);
+        }
+    }
+
+    /**
+     * Finds a displacement for every bucket, from the largest bucket on.
+     *
+     * @return Displacement of every bucket; null, if a bucket found none.
+     */
+    private int[] displace(int[] keys, int seed) {
+        int n = keys.length;
+        int hashes[] = new int[n];
+        int start[] = new int[this.buckets + 1]; // hashes of the keys of bucket b are members[start[b]] to members[start[b + 1] - 1]
+        for (int i = 0; i < n; i++) {
+            hashes[i] = HashFunction.mix(keys[i] ^ seed);
+            start[HashFunction.reduce(hashes[i], this.buckets) + 1]++;
+        }
+        int maxSize = 0;
+        for (int b = 0; b < this.buckets; b++) {
+            maxSize = Math.max(maxSize, start[b + 1]);
+            start[b + 1] += start[b];
+        }
+        int members[] = new int[n];
+        int fill[] = Arrays.copyOf(start, this.buckets);
+        for (int i = 0; i < n; i++)
+            members[fill[HashFunction.reduce(hashes[i], this.buckets)]++] = hashes[i];
+
+        // buckets by decreasing size
+        int bySize[] = new int[maxSize + 2];
+        for (int b = 0; b < this.buckets; b++)
+            bySize[maxSize - (start[b + 1] - start[b]) + 1]++;
+        for (int s = 0; s <= maxSize; s++)
+            bySize[s + 1] += bySize[s];
+        int order[] = new int[this.buckets];
+        for (int b = 0; b < this.buckets; b++)
+            order[bySize[maxSize - (start[b + 1] - start[b])]++] = b;
+
+        int found[] = new int[this.buckets];
+        long taken[] = new long[(n + 63) >>> 6];
+        int slots[] = new int[maxSize];
+        int maxTrials = (int) Math.min(Integer.MAX_VALUE, 64L * n + 1024);
+        for (int b : order) {
+            int first = start[b], size = start[b + 1] - first;
+            if (size == 0)
+                break; // the rest are empty too
+            search:
+            for (int d = 0; ; d++) {
+                if (d == maxTrials)
+                    return null;
+                for (int j = 0; j < size; j++) {
+                    int slot = slot(members[first + j], d, n);
+                    if ((taken[slot >>> 6] & (1L << slot)) != 0)
+                        continue search;
+                    for (int i = 0; i < j; i++)
+                        if (slots[i] == slot)
+                            continue search;
+                    slots[j] = slot;
+                }
+                for (int j = 0; j < size; j++)
+                    taken[slots[j] >>> 6] |= 1L << slots[j];
+                found[b] = d;
+                break;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @param h Hash of the key
+     * @param d Displacement of its bucket
+     * @param n Number of slots
+     * @return Slot of the key.
+     */
+    private static int slot(int h, int d, int n) {
+        return HashFunction.reduce(HashFunction.mix(h ^ HashFunction.mix(d)), n);
+    }
+
+    private int displacement(int b) {
+        long bit = (long) b * this.width;
+        int word = (int) (bit >>> 6), shift = (int) (bit & 63);
+        long packed = this.displacements[word] >>> shift;
+        if (shift + this.width > 64)
+            packed |= this.displacements[word + 1] << (64 - shift);
+        long mask = (1L << this.width) - 1;
+        if ((packed & mask) == mask)
+            return this.overflowDisplacements[Arrays.binarySearch(this.overflowBuckets, b)];
+        return (int) (packed & mask);
+    }
+
+    /**
+     * @return Slot which holds the key, if the map contains it; -1 for an empty map.
+     */
+    private int find(int k) {
+        if (this.keys.length == 0)
+            return -1;
+        int h = HashFunction.mix(k ^ this.seed);
+        return slot(h, displacement(HashFunction.reduce(h, this.buckets)), this.keys.length);
+    }
+
+    /**
+     * @return Number of elements in the map.
+     */
+    public int size() {
+        return this.keys.length;
+    }
+
+    /**
+     * @return Bits of the displacements per key, without the keys and the values.
+     */
+    public double indexBitsPerKey() {
+        long bits = this.displacements.length * 64L + this.overflowBuckets.length * 64L;
+        return this.keys.length > 0 ? (double) bits / this.keys.length : 0;
+    }
+
+    /**
+     * Finds the element.
+     *
+     * @param k Element key
+     * @return true, if the element was found; false otherwise.
+     */
+    public boolean contains(int k) {
+        int slot = find(k);
+        return slot >= 0 && this.keys[slot] == k;
+    }
+
+    /**
+     * Maps the given key to its value, if the key exists in the hash map.
+     *
+     * @param k Element key
+     * @return The value for the given key or null, if such a key does not exist.
+     */
+    public String get(int k) {
+        int slot = find(k);
+        return slot >= 0 && this.keys[slot] == k ? this.values[slot] : null;
+    }
+}
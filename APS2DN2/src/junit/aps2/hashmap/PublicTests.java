@@ -1,7 +1,14 @@
 package aps2.hashmap;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
 import java.util.LinkedList;
+import java.util.Random;
 import junit.framework.TestCase;
 
 public class PublicTests extends TestCase {
@@ -18,6 +25,19 @@ public class PublicTests extends TestCase {
 		assertEquals(1, HashFunction.KnuthMethod(15, 5));
 	}
 	
+	public void testHashFunctionIntegerMethods() {
+		assertEquals(2, HashFunction.DivisionMethod(Integer.MIN_VALUE, 6));
+		assertTrue(HashFunction.KnuthMethod(Integer.MIN_VALUE, 6) >= 0);
+		assertEquals(HashFunction.KnuthMethod(1, 1024), HashFunction.FibonacciMethod(1, 1024));
+		assertEquals(632, HashFunction.FibonacciMethod(1, 1024));
+		for (HashFunction.HashingMethod h : HashFunction.HashingMethod.values()) {
+			for (int k : new int[] { 0, 1, -1, 1000, Integer.MIN_VALUE, Integer.MAX_VALUE }) {
+				int id = HashFunction.hash(h, k, 7);
+				assertTrue(h + " " + k, id >= 0 && id < 7);
+			}
+		}
+	}
+
 	public void testHashMapChainingAdd() {
 		HashMapChaining hm = new HashMapChaining(6, HashFunction.HashingMethod.DivisionMethod);
 		hm.add(4000, "Kranj");
@@ -79,4 +99,591 @@ public class PublicTests extends TestCase {
 		assertFalse(hm.contains(11));
 		assertEquals("F", hm.get(6));
 	}
+
+	public void testHashMapOpenAddressingFlat() {
+		HashMapOpenAddressingFlat hm =
+			new HashMapOpenAddressingFlat(
+				7,
+				HashFunction.HashingMethod.DivisionMethod,
+				HashMapOpenAddressing.CollisionProbeSequence.LinearProbing
+			);
+
+		assertTrue(hm.add(1, "B"));
+		assertTrue(hm.add(8, "H"));
+		assertTrue(hm.add(15, "O"));
+		assertFalse(hm.add(8, "X"));
+		assertTrue(hm.add(Integer.MIN_VALUE, "MIN"));
+
+		int keys[] = hm.getKeys();
+		assertFalse(hm.isOccupied(0));
+		assertEquals(1, keys[1]);
+		assertEquals(8, keys[2]);
+		assertEquals(15, keys[3]);
+		assertEquals(4, hm.size());
+
+		// 15 stays reachable after removing the key it collided with
+		assertTrue(hm.remove(8));
+		assertFalse(hm.remove(8));
+		assertTrue(hm.contains(15));
+		assertEquals("O", hm.get(15));
+		assertEquals(null, hm.get(8));
+		assertEquals("MIN", hm.get(Integer.MIN_VALUE));
+
+		// the tombstone is reused
+		assertTrue(hm.add(22, "V"));
+		assertEquals(22, keys[2]);
+		assertEquals(4, hm.size());
+	}
+
+	public void testHashMapOpenAddressingFlatTombstones() {
+		for (HashMapOpenAddressing.CollisionProbeSequence c : HashMapOpenAddressing.CollisionProbeSequence.values()) {
+			if (c == HashMapOpenAddressing.CollisionProbeSequence.RobinHoodProbing) {
+				try {
+					new HashMapOpenAddressingFlat(7, HashFunction.HashingMethod.DivisionMethod, c);
+					fail("Robin Hood probing should be rejected");
+				} catch (IllegalArgumentException e) {
+				}
+				continue;
+			}
+			// a sliding window of keys leaves tombstones all over the table,
+			// which are dropped by rebuilds
+			HashMapOpenAddressingFlat hm = new HashMapOpenAddressingFlat(1009, HashFunction.HashingMethod.DivisionMethod, c);
+			for (int k = 0; k < 20000; k++) {
+				assertTrue(hm.add(k, "V" + k));
+				if (k >= 300)
+					assertTrue(hm.remove(k - 300));
+			}
+			assertEquals(300, hm.size());
+			int occupied = 0;
+			for (int id = 0; id < 1009; id++)
+				if (hm.isOccupied(id))
+					occupied++;
+			assertEquals(300, occupied);
+			for (int k = 19700; k < 20000; k++)
+				assertEquals("V" + k, hm.get(k));
+			assertFalse(hm.contains(19699));
+		}
+	}
+
+	public void testHashMapOpenAddressingFlatFailedRebuild() {
+		// quadratic probing reaches 9 of 17 slots; after these steps the
+		// rehashed keys do not fit the same table, so it keeps its layout
+		HashMapOpenAddressingFlat hm = new HashMapOpenAddressingFlat(17, HashFunction.HashingMethod.DivisionMethod,
+				HashMapOpenAddressing.CollisionProbeSequence.QuadraticProbing);
+		int[][] steps = { { 3, 33, 45, 64 }, { 64 }, { 34, 16, 15, 50, 0, 42, 58, 66, 31 }, { 3 }, { 29 }, { 45 } };
+		for (int i = 0; i < steps.length; i++)
+			for (int k : steps[i])
+				assertTrue(i % 2 == 0 ? hm.add(k, "V" + k) : hm.remove(k));
+		int[] keys = hm.getKeys();
+		assertTrue(hm.remove(15));
+		assertSame(keys, hm.getKeys());
+		int[] live = { 33, 34, 16, 50, 0, 42, 58, 66, 31, 29 };
+		assertEquals(live.length, hm.size());
+		for (int k : live)
+			assertEquals("V" + k, hm.get(k));
+		assertFalse(hm.contains(15));
+
+		// the retry waits for m / 16 more tombstones, and then the keys fit
+		assertTrue(hm.remove(live[0]));
+		assertNotSame(keys, hm.getKeys());
+		for (int i = 0; i < live.length; i++)
+			assertEquals(i == 0 ? null : "V" + live[i], hm.get(live[i]));
+	}
+
+	public void testHashMapOpenAddressingGetAll() {
+		Random random = new Random(42);
+		int keys[] = new int[100]; // several batches of home slots
+		String out[] = new String[keys.length];
+		for (HashMapOpenAddressing.CollisionProbeSequence c : HashMapOpenAddressing.CollisionProbeSequence.values()) {
+			// the same operations on two growing maps; getAll runs right after
+			// every resize, while the old table is still being migrated
+			HashMapOpenAddressing batched = new HashMapOpenAddressing(16, HashFunction.HashingMethod.DivisionMethod, c, 0.75, 0, true);
+			HashMapOpenAddressing single = new HashMapOpenAddressing(16, HashFunction.HashingMethod.DivisionMethod, c, 0.75, 0, true);
+			int resizes = 0;
+			for (int k = 0; k < 3000; k += 3) {
+				int m = batched.getTable().length;
+				assertTrue(batched.add(k, "V" + k));
+				assertTrue(single.add(k, "V" + k));
+				if (k % 5 == 0 && k >= 150) {
+					assertTrue(batched.remove(k - 150));
+					assertTrue(single.remove(k - 150));
+				}
+				if (batched.getTable().length == m && k % 300 != 0)
+					continue;
+				if (batched.getTable().length != m)
+					resizes++;
+				for (int i = 0; i < keys.length; i++)
+					keys[i] = i % 10 == 0 ? Integer.MIN_VALUE : random.nextInt(k + 10);
+				batched.getAll(keys, out);
+				for (int i = 0; i < keys.length; i++)
+					assertEquals(single.get(keys[i]), out[i]);
+			}
+			assertTrue(resizes >= 5);
+		}
+
+		HashMapOpenAddressingFlat flat = new HashMapOpenAddressingFlat(1009, HashFunction.HashingMethod.DivisionMethod,
+				HashMapOpenAddressing.CollisionProbeSequence.DoubleHashing);
+		for (int k = 0; k < 600; k++)
+			assertTrue(flat.add(k * 7, "V" + k));
+		for (int k = 0; k < 600; k += 4)
+			assertTrue(flat.remove(k * 7));
+		for (int i = 0; i < keys.length; i++)
+			keys[i] = random.nextInt(600 * 7);
+		keys[0] = Integer.MIN_VALUE;
+		flat.getAll(keys, out);
+		int hits = 0;
+		for (int i = 0; i < keys.length; i++) {
+			assertEquals(flat.get(keys[i]), out[i]);
+			if (out[i] != null)
+				hits++;
+		}
+		assertTrue(hits > 0 && hits < keys.length);
+	}
+
+	public void testHashMapOpenAddressingAddAll() {
+		// 200 keys with 150 distinct ones; key 70 exists before the batch
+		int keys[] = new int[200];
+		String values[] = new String[keys.length];
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = i % 150 * 7;
+			values[i] = "V" + i;
+		}
+		for (HashMapOpenAddressing.CollisionProbeSequence c : HashMapOpenAddressing.CollisionProbeSequence.values()) {
+			for (boolean incremental : new boolean[] { false, true }) {
+				HashMapOpenAddressing hm = new HashMapOpenAddressing(16, HashFunction.HashingMethod.DivisionMethod, c, 0.75, 0, incremental);
+				assertTrue(hm.add(70, "old"));
+				assertEquals(149, hm.addAll(keys, values));
+				assertEquals(150, hm.size());
+				// the table grew several times in the middle of the batch
+				assertEquals(256, hm.getTable().length);
+				assertEquals("old", hm.get(70));
+				assertEquals("V5", hm.get(35));
+				for (int i = 0; i < 150; i++)
+					assertTrue(hm.contains(i * 7));
+				assertFalse(hm.contains(150 * 7));
+				assertEquals(0, hm.addAll(keys, values));
+			}
+		}
+
+		HashMapOpenAddressingFlat flat = new HashMapOpenAddressingFlat(1009, HashFunction.HashingMethod.DivisionMethod,
+				HashMapOpenAddressing.CollisionProbeSequence.LinearProbing);
+		assertTrue(flat.add(70, "old"));
+		assertTrue(flat.add(1009 * 7, "collides with 0"));
+		assertTrue(flat.remove(1009 * 7));
+		assertEquals(149, flat.addAll(keys, values));
+		assertEquals(150, flat.size());
+		assertEquals("old", flat.get(70));
+		assertEquals("V0", flat.get(0));
+		assertEquals("V5", flat.get(35));
+		for (int i = 0; i < 150; i++)
+			assertTrue(flat.contains(i * 7));
+		assertEquals(0, flat.addAll(keys, values));
+		assertEquals(150, flat.size());
+	}
+
+	public void testHashMapResizing() {
+		HashMapChaining chaining = new HashMapChaining(3, HashFunction.HashingMethod.KnuthMethod, 1.0, 0.25, true);
+		HashMapOpenAddressing open =
+			new HashMapOpenAddressing(
+				3,
+				HashFunction.HashingMethod.KnuthMethod,
+				HashMapOpenAddressing.CollisionProbeSequence.QuadraticProbing,
+				0.75, 0.25, false
+			);
+		assertEquals(4, chaining.getTable().length);
+		assertEquals(4, open.getTable().length);
+
+		for (int k = 1; k <= 100; k++) {
+			assertTrue(chaining.add(k, "V" + k));
+			assertTrue(open.add(k, "V" + k));
+		}
+		assertEquals(100, chaining.size());
+		assertEquals(128, chaining.getTable().length);
+		assertEquals(256, open.getTable().length);
+		for (int k = 1; k <= 100; k++) {
+			assertEquals("V" + k, chaining.get(k));
+			assertEquals("V" + k, open.get(k));
+		}
+
+		for (int k = 1; k <= 95; k++) {
+			assertTrue(chaining.remove(k));
+			assertTrue(open.remove(k));
+		}
+		assertEquals(16, chaining.getTable().length);
+		assertEquals(16, open.getTable().length);
+		assertTrue(chaining.contains(100));
+		assertTrue(open.contains(100));
+		assertFalse(open.contains(95));
+	}
+
+	public void testHashMapOpenAddressingRemove() {
+		HashMapOpenAddressing linear =
+			new HashMapOpenAddressing(
+				7,
+				HashFunction.HashingMethod.DivisionMethod,
+				HashMapOpenAddressing.CollisionProbeSequence.LinearProbing
+			);
+		linear.add(1, "B");
+		linear.add(8, "H");
+		linear.add(15, "O");
+		assertFalse(linear.add(8, "X"));
+		assertTrue(linear.remove(8));
+		Element table[] = linear.getTable();
+		assertEquals(15, table[2].key);
+		assertEquals(Integer.MIN_VALUE, table[3].key);
+		assertEquals("O", linear.get(15));
+
+		HashMapOpenAddressing quadratic =
+			new HashMapOpenAddressing(
+				7,
+				HashFunction.HashingMethod.DivisionMethod,
+				HashMapOpenAddressing.CollisionProbeSequence.QuadraticProbing
+			);
+		quadratic.add(1, "B");
+		quadratic.add(8, "H");
+		quadratic.add(15, "O");
+		assertTrue(quadratic.remove(8));
+		assertTrue(quadratic.contains(15));
+		assertFalse(quadratic.contains(8));
+		assertTrue(quadratic.add(22, "V"));
+		assertEquals(22, quadratic.getTable()[2].key);
+		assertEquals(3, quadratic.size());
+
+		HashMapOpenAddressing robinHood =
+			new HashMapOpenAddressing(
+				7,
+				HashFunction.HashingMethod.DivisionMethod,
+				HashMapOpenAddressing.CollisionProbeSequence.RobinHoodProbing
+			);
+		robinHood.add(2, "C");
+		robinHood.add(9, "J");
+		robinHood.add(3, "D");
+		robinHood.add(16, "Q");
+		table = robinHood.getTable();
+		assertEquals(16, table[4].key);
+		assertEquals(3, table[5].key);
+		assertTrue(robinHood.remove(9));
+		assertEquals(16, table[3].key);
+		assertEquals(3, table[4].key);
+		assertEquals(Integer.MIN_VALUE, table[5].key);
+		assertFalse(robinHood.contains(23));
+		assertEquals("D", robinHood.get(3));
+	}
+
+	public void testHashMapOpenAddressingChurn() {
+		// a sliding window of keys on fixed tables leaves tombstones all over
+		// them, which are dropped by rebuilds in place
+		HashMapOpenAddressing.CollisionProbeSequence[] sequences = {
+			HashMapOpenAddressing.CollisionProbeSequence.QuadraticProbing,
+			HashMapOpenAddressing.CollisionProbeSequence.DoubleHashing
+		};
+		for (HashMapOpenAddressing.CollisionProbeSequence c : sequences) {
+			HashMapOpenAddressing hm = new HashMapOpenAddressing(1009, HashFunction.HashingMethod.DivisionMethod, c);
+			for (int k = 0; k < 20000; k++) {
+				assertTrue(hm.add(k * 7, "V" + k));
+				if (k >= 250)
+					assertTrue(hm.remove((k - 250) * 7));
+				if (k % 1000 == 999) {
+					HashMapStats stats = hm.getStats();
+					assertEquals(1009, stats.getCapacity());
+					assertTrue(stats.getTombstones() <= (1009 - 250) / 2 + 1);
+				}
+			}
+			assertEquals(250, hm.size());
+			for (int k = 19750; k < 20000; k++)
+				assertEquals("V" + k, hm.get(k * 7));
+			hm.resetStats();
+			for (int k = 0; k < 1000; k++)
+				assertFalse(hm.contains(k * 7 + 3));
+			assertTrue(HashMapStats.mean(hm.getStats().getGetHistogram()) < 8);
+		}
+	}
+
+	public void testHashMapSwissTable() {
+		HashMapSwissTable hm = new HashMapSwissTable(7);
+		assertEquals(8, hm.capacity());
+		for (int k = 0; k < 1000; k++)
+			assertTrue(hm.add(k * 1024, "V" + k));
+		assertFalse(hm.add(0, "X"));
+		assertEquals(1000, hm.size());
+		assertEquals(2048, hm.capacity());
+		for (int k = 0; k < 1000; k += 2)
+			assertTrue(hm.remove(k * 1024));
+		assertFalse(hm.remove(0));
+		assertEquals(500, hm.size());
+		for (int k = 0; k < 1000; k++) {
+			assertEquals(k % 2 == 1, hm.contains(k * 1024));
+			assertEquals(k % 2 == 1 ? "V" + k : null, hm.get(k * 1024));
+		}
+		assertTrue(hm.add(Integer.MIN_VALUE, "MIN"));
+		assertEquals("MIN", hm.get(Integer.MIN_VALUE));
+	}
+
+	public void testHashMapCuckoo() {
+		HashMapCuckoo hm = new HashMapCuckoo(8);
+		assertEquals(8, hm.capacity());
+		for (int k = 0; k < 1000; k++)
+			assertTrue(hm.add(k * 1024, "V" + k));
+		assertFalse(hm.add(1024, "X"));
+		assertEquals(1000, hm.size());
+		assertTrue(hm.size() <= 0.95 * hm.capacity() + hm.stashSize());
+		for (int k = 0; k < 1000; k += 2)
+			assertTrue(hm.remove(k * 1024));
+		assertFalse(hm.remove(0));
+		assertEquals(500, hm.size());
+		for (int k = 0; k < 1000; k++) {
+			assertEquals(k % 2 == 1, hm.contains(k * 1024));
+			assertEquals(k % 2 == 1 ? "V" + k : null, hm.get(k * 1024));
+		}
+	}
+
+	public void testConcurrentHashMapChaining() throws InterruptedException {
+		final ConcurrentHashMapChaining hm = new ConcurrentHashMapChaining(2);
+		Thread[] workers = new Thread[4];
+		for (int t = 0; t < workers.length; t++) {
+			final int first = t * 10000;
+			workers[t] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int k = first; k < first + 10000; k++)
+						hm.add(k, "V" + k);
+					for (int k = first; k < first + 10000; k += 2)
+						hm.remove(k);
+				}
+			});
+			workers[t].start();
+		}
+		for (Thread worker : workers)
+			worker.join();
+
+		assertEquals(20000, hm.size());
+		assertTrue(hm.capacity() >= 32768);
+		for (int k = 0; k < 40000; k++)
+			assertEquals(k % 2 == 1 ? "V" + k : null, hm.get(k));
+		assertFalse(hm.add(1, "X"));
+		assertTrue(hm.remove(1));
+		assertFalse(hm.contains(1));
+	}
+
+	public void testConcurrentHashMapChainingResizes() throws InterruptedException {
+		// adds and removes interleave with many back-to-back resizes of small
+		// tables; key 0 is never added, so a forwarding node read as an element shows up
+		for (int round = 0; round < 50; round++) {
+			final ConcurrentHashMapChaining hm = new ConcurrentHashMapChaining(2);
+			Thread[] workers = new Thread[4];
+			for (int t = 0; t < workers.length; t++) {
+				final int first = 1 + t * 1000;
+				workers[t] = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						for (int k = first; k < first + 1000; k++) {
+							hm.add(k, "V" + k);
+							if (k % 3 == 0 && k > first)
+								assertTrue(hm.remove(k - 1));
+							if (k % 64 == 0)
+								Thread.yield();
+						}
+					}
+				});
+				workers[t].start();
+			}
+			for (Thread worker : workers)
+				worker.join();
+
+			int expected = 0;
+			for (int k = 1; k <= 4000; k++) {
+				boolean present = (k + 1) % 3 != 0 || k % 1000 == 0;
+				assertEquals(present ? "V" + k : null, hm.get(k));
+				if (present)
+					expected++;
+			}
+			assertFalse(hm.contains(0));
+			assertEquals(expected, hm.size());
+		}
+	}
+
+	public void testHashMapCompactChaining() {
+		HashMapCompactChaining hm = new HashMapCompactChaining(6, HashFunction.HashingMethod.DivisionMethod);
+		assertTrue(hm.add(4000, "Kranj"));
+		assertTrue(hm.add(6000, "Koper"));
+		assertTrue(hm.add(8000, "Novo mesto"));
+		assertTrue(hm.add(10000, "Zagreb"));
+		assertFalse(hm.add(4000, "Kranj"));
+
+		assertTrue(Arrays.equals(new int[] { 6000 }, hm.getChain(0)));
+		assertTrue(Arrays.equals(new int[] {}, hm.getChain(1)));
+		assertTrue(Arrays.equals(new int[] { 10000, 4000 }, hm.getChain(4)));
+
+		assertTrue(hm.remove(10000));
+		assertFalse(hm.remove(10000));
+		assertTrue(Arrays.equals(new int[] { 4000 }, hm.getChain(4)));
+		assertEquals("Kranj", hm.get(4000));
+		assertEquals(null, hm.get(10000));
+		assertEquals(3, hm.size());
+
+		// the slot of the removed element is reused
+		assertTrue(hm.add(16, "Sixteen"));
+		assertTrue(Arrays.equals(new int[] { 16, 4000 }, hm.getChain(4)));
+
+		HashMapCompactChaining growing = new HashMapCompactChaining(3, HashFunction.HashingMethod.FibonacciMethod, 1.0);
+		for (int k = 0; k < 100; k++)
+			growing.add(k, "V" + k);
+		assertEquals(128, growing.capacity());
+		for (int k = 0; k < 100; k++)
+			assertEquals("V" + k, growing.get(k));
+	}
+
+	public void testHashMapOffHeap() {
+		HashMapOffHeap hm = new HashMapOffHeap(8);
+		assertEquals(16, hm.capacity());
+		for (int k = 0; k < 1000; k++)
+			assertTrue(hm.add(k * 1024, "Vrednost " + k));
+		assertTrue(hm.add(-1, "\u0160umnik \u010d\u0107\u017e"));
+		assertTrue(hm.add(7, null));
+		assertFalse(hm.add(0, "X"));
+		assertEquals(1002, hm.size());
+		assertEquals(2048, hm.capacity());
+		for (int k = 0; k < 1000; k += 2)
+			assertTrue(hm.remove(k * 1024));
+		assertFalse(hm.remove(0));
+		assertEquals(502, hm.size());
+		for (int k = 0; k < 1000; k++) {
+			assertEquals(k % 2 == 1, hm.contains(k * 1024));
+			assertEquals(k % 2 == 1 ? "Vrednost " + k : null, hm.get(k * 1024));
+		}
+		assertEquals("\u0160umnik \u010d\u0107\u017e", hm.get(-1));
+		assertTrue(hm.contains(7));
+		assertEquals(null, hm.get(7));
+
+		hm.close();
+		try {
+			hm.get(1024);
+			fail("Closed map should not be readable");
+		} catch (IllegalStateException e) {
+		}
+	}
+
+	public void testHashMapStats() {
+		HashMapChaining chaining = new HashMapChaining(3, HashFunction.HashingMethod.DivisionMethod);
+		for (int k : new int[] { 0, 3, 6, 1 })
+			assertTrue(chaining.add(k, "V" + k));
+		assertEquals("V6", chaining.get(6));
+		assertFalse(chaining.contains(9));
+		assertTrue(chaining.contains(1));
+		HashMapStats stats = chaining.getStats();
+		assertEquals(4, stats.getSize());
+		assertEquals(4.0 / 3, stats.getLoadFactor(), 1e-9);
+		assertEquals(1, stats.getAddHistogram()[2]);
+		assertEquals(3, stats.getMaxGetProbes());
+		assertEquals(7.0 / 3, HashMapStats.mean(stats.getGetHistogram()), 1e-9);
+		long[] chains = stats.getChainLengthHistogram();
+		assertEquals(1, chains[0]);
+		assertEquals(1, chains[1]);
+		assertEquals(1, chains[3]);
+		chaining.resetStats();
+		assertEquals(0, chaining.getStats().getMaxGetProbes());
+
+		// i^2 mod 4 only reaches two slots of the probe sequence
+		HashMapOpenAddressing oa = new HashMapOpenAddressing(4, HashFunction.HashingMethod.DivisionMethod,
+				HashMapOpenAddressing.CollisionProbeSequence.QuadraticProbing);
+		assertTrue(oa.add(0, "A"));
+		assertTrue(oa.add(4, "B"));
+		assertFalse(oa.add(8, "C"));
+		assertTrue(oa.remove(0));
+		stats = oa.getStats();
+		assertEquals(1, stats.getFailedInserts());
+		assertEquals(4, stats.getMaxAddProbes());
+		assertEquals(1, stats.getTombstones());
+		assertEquals(0.25, stats.getTombstoneRatio(), 1e-9);
+		assertEquals(1, stats.getChainLengthHistogram()[2]);
+		assertEquals("B", oa.get(4));
+		assertEquals(2, oa.getStats().getMaxGetProbes());
+	}
+
+	public void testPerfectHashMap() {
+		PerfectHashMap.Builder builder = new PerfectHashMap.Builder();
+		for (int k = 0; k < 5000; k++)
+			builder.add(k * 1024, "V" + k);
+		PerfectHashMap hm = builder.build();
+		assertEquals(5000, hm.size());
+		for (int k = 0; k < 5000; k++) {
+			assertTrue(hm.contains(k * 1024));
+			assertEquals("V" + k, hm.get(k * 1024));
+			assertFalse(hm.contains(k * 1024 + 1));
+			assertEquals(null, hm.get(k * 1024 + 1));
+		}
+		assertTrue(hm.indexBitsPerKey() < 4);
+
+		assertFalse(new PerfectHashMap.Builder().build().contains(0));
+		try {
+			new PerfectHashMap.Builder().add(1, "A").add(1, "B").build();
+			fail("Duplicate keys should be rejected");
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	public void testHashMapSnapshot() throws IOException {
+		Path path = Files.createTempFile("hashmap", ".snapshot");
+		Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+		try {
+			HashMapOpenAddressing hm = new HashMapOpenAddressing(8, HashFunction.HashingMethod.MurmurMethod,
+					HashMapOpenAddressing.CollisionProbeSequence.QuadraticProbing, 0.75);
+			for (int k = 0; k < 100000; k++)
+				hm.add(k * 3, k % 7 == 0 ? null : "Vrednost " + k);
+			for (int k = 0; k < 100000; k += 2)
+				hm.remove(k * 3);
+			hm.writeSnapshot(path);
+
+			HashMapOpenAddressing loaded = HashMapOpenAddressing.readSnapshot(path);
+			assertEquals(hm.size(), loaded.size());
+			assertEquals(hm.getTable().length, loaded.getTable().length);
+			for (int i = 0; i < hm.getTable().length; i++)
+				assertEquals(hm.getTable()[i].key, loaded.getTable()[i].key);
+			for (int k = 0; k < 100000; k++)
+				assertEquals(hm.get(k * 3), loaded.get(k * 3));
+			assertTrue(loaded.add(1, "Novo"));
+			assertEquals("Novo", loaded.get(1));
+
+			HashMapOpenAddressingFlat flat = new HashMapOpenAddressingFlat(1009, HashFunction.HashingMethod.DivisionMethod,
+					HashMapOpenAddressing.CollisionProbeSequence.LinearProbing);
+			for (int k = 0; k < 500; k++)
+				flat.add(k * 1009 + k % 3, "V" + k);
+			assertTrue(flat.remove(0));
+			flat.writeSnapshot(path);
+			HashMapOpenAddressingFlat loadedFlat = HashMapOpenAddressingFlat.readSnapshot(path);
+			assertTrue(Arrays.equals(flat.getKeys(), loadedFlat.getKeys()));
+			assertTrue(Arrays.equals(flat.getValues(), loadedFlat.getValues()));
+			assertEquals(499, loadedFlat.size());
+			assertFalse(loadedFlat.contains(0));
+			assertEquals("V2", loadedFlat.get(2 * 1009 + 2));
+			assertFalse(Files.exists(temporary));
+
+			// a snapshot which cannot be written leaves the previous one in place
+			Files.createDirectory(temporary);
+			try {
+				hm.writeSnapshot(path);
+				fail("Snapshot should not be written over a directory");
+			} catch (IOException e) {
+			}
+			assertEquals(499, HashMapOpenAddressingFlat.readSnapshot(path).size());
+			Files.delete(temporary);
+
+			try {
+				HashMapOpenAddressing.readSnapshot(path);
+				fail("Snapshot of another map should be rejected");
+			} catch (IOException e) {
+			}
+			try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+				channel.write(ByteBuffer.wrap(new byte[] { 42 }), channel.size() - 1);
+			}
+			try {
+				HashMapOpenAddressingFlat.readSnapshot(path);
+				fail("Corrupt snapshot should be rejected");
+			} catch (IOException e) {
+			}
+		} finally {
+			Files.deleteIfExists(path);
+			Files.deleteIfExists(temporary);
+		}
+	}
 }
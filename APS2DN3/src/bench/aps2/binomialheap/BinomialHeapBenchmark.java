@@ -0,0 +1,52 @@
+package aps2.binomialheap;
+
+import java.util.Random;
+
+/**
+ * Simple benchmarks for the binomial heap. Run the main method with a warmed-up JVM,
+ * eg. java -Xmx4g aps2.binomialheap.BinomialHeapBenchmark [n]
+ */
+public class BinomialHeapBenchmark {
+	private static void report(String name, int ops, long nanos) {
+		System.out.printf("%-40s %8.2f ns/op %10.1f Mops/s%n",
+				name, (double) nanos / ops, ops / 1e6 / (nanos / 1e9));
+	}
+
+	/**
+	 * Inserts n random keys into a heap of the given mode, then removes the
+	 * minimum n / 10 times.
+	 */
+	static void inserts(int n, boolean indexed) {
+		Random random = new Random(42);
+		int[] keys = new int[n];
+		for (int i = 0; i < n; i++)
+			keys[i] = random.nextInt();
+		String mode = indexed ? "indexed" : "sorted roots";
+
+		BinomialHeap heap = new BinomialHeap(indexed);
+		long start = System.nanoTime();
+		for (int key : keys)
+			heap.insert(key);
+		report(mode + " insert", n, System.nanoTime() - start);
+
+		start = System.nanoTime();
+		long sum = 0;
+		for (int i = 0; i < n / 10; i++) {
+			sum += heap.getMin();
+			heap.delMin();
+		}
+		report(mode + " getMin + delMin", n / 10, System.nanoTime() - start);
+		if (heap.n != n - n / 10)
+			throw new AssertionError(mode + " has " + heap.n + " elements, checksum " + sum);
+	}
+
+	public static void main(String[] args) {
+		int n = args.length > 0 ? Integer.parseInt(args[0]) : 10000000;
+		for (int round = 0; round < 3; round++) {
+			System.out.println("round " + round + ", " + n + " keys");
+			inserts(n, true);
+			// the sorted roots are slow enough to need far fewer keys
+			inserts(Math.min(n, 100000), false);
+		}
+	}
+}
@@ -1,19 +1,72 @@
 package aps2.binomialheap;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.Vector;
 
 /**
  * This class is an implementation of the Binomial min-heap.
+ *
+ * By default the roots are kept in data, sorted by key. In the indexed mode
+ * the roots are kept in an array indexed by degree instead, which holds at
+ * most one tree per degree, like the bits of a binary counter hold n. Insert
+ * adds a tree of degree 0 and merges carries upwards, which costs O(log n)
+ * in the worst case and O(1) amortized; the minimum key is cached, so getMin
+ * is O(1).
  */
 public class BinomialHeap {
 	Vector<BinomialNode> data; // list of root nodes
 	int n;                     // number of elements
+
+	private BinomialNode[] roots; // indexed mode: root of degree d or null, else null
+	private int min = Integer.MAX_VALUE; // indexed mode: smallest key
 	
 	BinomialHeap(){
 		data = new Vector<BinomialNode>();
 	}
+
+	/**
+	 * @param indexed True, to keep the roots in an array indexed by degree
+	 */
+	BinomialHeap(boolean indexed) {
+		this();
+		if (indexed)
+			roots = new BinomialNode[1];
+	}
+
+	/**
+	 * Adds the trees to the roots of the indexed heap in a single pass, like
+	 * the binary addition of two numbers.
+	 *
+	 * @param trees Tree of degree d or null at index d
+	 */
+	private void meld(BinomialNode[] trees) {
+		if (roots.length <= trees.length)
+			roots = Arrays.copyOf(roots, trees.length + 1);
+		BinomialNode carry = null;
+		for (int d = 0; d < roots.length && (d < trees.length || carry != null); d++) {
+			BinomialNode tree = d < trees.length ? trees[d] : null;
+			if (tree == null) {
+				if (carry == null)
+					continue;
+				tree = carry;
+				carry = null;
+			}
+			if (carry != null) {
+				carry = mergeTrees(tree, carry); // a root of degree d stays
+			} else if (roots[d] == null) {
+				roots[d] = tree;
+			} else {
+				carry = mergeTrees(roots[d], tree);
+				roots[d] = null;
+			}
+		}
+		if (carry != null) {
+			roots = Arrays.copyOf(roots, roots.length + 1);
+			roots[roots.length - 1] = carry;
+		}
+	}
 	
 	/**
 	 * Inserts a new key to the binomial heap and consolidates the heap.
@@ -23,6 +76,20 @@ public class BinomialHeap {
 	 * @return True, if the insertion was successful; False otherwise.
 	 */
 	public boolean insert(int key) {
+		if (roots != null) {
+			BinomialNode carry = new BinomialNode(key);
+			int d = 0;
+			for (; d < roots.length && roots[d] != null; d++) {
+				carry = mergeTrees(roots[d], carry);
+				roots[d] = null;
+			}
+			if (d == roots.length)
+				roots = Arrays.copyOf(roots, d + 1);
+			roots[d] = carry;
+			min = Math.min(min, key);
+			this.n++;
+			return true;
+		}
 		BinomialNode node = new BinomialNode(key);
 		this.data.add(node);
 		sortData();
@@ -38,6 +105,7 @@ public class BinomialHeap {
 	 * @return The minimum element in the heap or the maximum integer value, if the heap is empty.
 	 */
 	public int getMin() {
+		if (roots != null) return min;
 		if (this.data.isEmpty()) return Integer.MAX_VALUE;
 		return this.data.get(0).getKey();
 	}
@@ -49,6 +117,22 @@ public class BinomialHeap {
 	 * @return True, if the element was deleted; False otherwise.
 	 */
 	public boolean delMin() {
+		if (roots != null) {
+			if (this.n == 0) return false;
+			int d = 0;
+			while (roots[d] == null || roots[d].getKey() != min)
+				d++;
+			BinomialNode root = roots[d];
+			roots[d] = null;
+			// the child at index i has degree i
+			meld(root.getChildren().toArray(new BinomialNode[0]));
+			this.n--;
+			min = Integer.MAX_VALUE;
+			for (BinomialNode tree : roots)
+				if (tree != null)
+					min = Math.min(min, tree.getKey());
+			return true;
+		}
 		if (this.data.isEmpty()) return false;
 		this.data.addAll(this.data.get(0).getChildren());
 		this.data.remove(0);
@@ -57,6 +141,29 @@ public class BinomialHeap {
 		return true;
 	}
 	
+	/**
+	 * Moves all elements of the other heap into this one and consolidates
+	 * the heap. The other heap is empty afterwards.
+	 * 
+	 * @param other Heap to be merged, in the same mode as this one
+	 */
+	public void merge(BinomialHeap other) {
+		if ((roots != null) != (other.roots != null))
+			throw new IllegalArgumentException("Heaps of different modes cannot be merged");
+		if (roots != null) {
+			meld(other.roots);
+			min = Math.min(min, other.min);
+			other.roots = new BinomialNode[1];
+			other.min = Integer.MAX_VALUE;
+		} else {
+			this.data.addAll(other.data);
+			other.data.clear();
+			consolidate();
+		}
+		this.n += other.n;
+		other.n = 0;
+	}
+
 	/**
 	 * Merges two binomial trees.
 	 * 
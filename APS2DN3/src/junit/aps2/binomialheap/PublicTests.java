@@ -1,5 +1,7 @@
 package aps2.binomialheap;
 
+import java.util.Arrays;
+import java.util.Random;
 import junit.framework.TestCase;
 import org.junit.Test;
 
@@ -73,6 +75,52 @@ public class PublicTests extends TestCase {
 		assertEquals(-17, heap.getMin());
 	}
 
+	public void testIndexed() {
+		BinomialHeap indexed = new BinomialHeap(true);
+		assertEquals(Integer.MAX_VALUE, indexed.getMin());
+		assertFalse(indexed.delMin());
+		Random random = new Random(42);
+		int[] keys = new int[1000];
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = random.nextInt(2000) - 1000;
+			indexed.insert(keys[i]);
+		}
+		assertEquals(1000, indexed.n);
+		Arrays.sort(keys);
+		for (int key : keys) {
+			assertEquals(key, indexed.getMin());
+			assertTrue(indexed.delMin());
+		}
+		assertEquals(0, indexed.n);
+		assertEquals(Integer.MAX_VALUE, indexed.getMin());
+	}
+	
+	public void testIndexedMerge() {
+		BinomialHeap first = new BinomialHeap(true), second = new BinomialHeap(true);
+		for (int i = 0; i < 13; i++)
+			first.insert(i * 2);
+		for (int i = 0; i < 7; i++)
+			second.insert(i * 2 + 1);
+		second.insert(-5);
+		first.merge(second);
+		assertEquals(21, first.n);
+		assertEquals(0, second.n);
+		assertEquals(-5, first.getMin());
+		assertTrue(first.delMin());
+		for (int i = 0; i < 14; i++) {
+			assertEquals(i, first.getMin());
+			assertTrue(first.delMin());
+		}
+		assertEquals(14, first.getMin());
+		
+		heap.insert(3);
+		second.insert(1);
+		try {
+			heap.merge(second);
+			fail("Heaps of different modes should not be merged");
+		} catch (IllegalArgumentException e) {
+		}
+	}
 
 	/*@Test
 	public void testMyTest(){